@@ -0,0 +1,79 @@
+package pdav.tudor.benchmark;
+
+import pdav.tudor.domain.Kernels;
+import pdav.tudor.domain.io.PPMWriter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The images measured by the benchmarks. An image parameter is either "synthetic:WIDTHxHEIGHT", generated once
+ * per JVM into a temporary P6 file, or the path of a PPM file, e.g. {@code -p image=/photos/sample.ppm}.
+ */
+final class BenchmarkImages {
+    private static final String SYNTHETIC = "synthetic:";
+    private static final Map<String, String> generated = new HashMap<>();
+
+    private BenchmarkImages() {
+    }
+
+    static synchronized String resolve(String image) throws IOException {
+        if (!image.startsWith(SYNTHETIC)) {
+            return image;
+        }
+        String filename = generated.get(image);
+        if (filename == null) {
+            String[] size = image.substring(SYNTHETIC.length()).split("x");
+            filename = generate(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+            generated.put(image, filename);
+        }
+        return filename;
+    }
+
+    static Kernels kernels(String name) {
+        switch (name) {
+            case "scalar":
+                return Kernels.scalar();
+            case "best":
+                return Kernels.best();
+            default:
+                throw new IllegalArgumentException("Unknown kernels " + name);
+        }
+    }
+
+    static Path temporaryFile(String suffix) throws IOException {
+        Path file = Files.createTempFile("pdav-benchmark", suffix);
+        file.toFile().deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Smooth gradients and waves with a little noise, so that the blocks hold both low and high frequencies,
+     * always the same for a given size.
+     */
+    private static String generate(int width, int height) throws IOException {
+        Random random = new Random(width * 31L + height);
+        int[][] r = new int[height][width];
+        int[][] g = new int[height][width];
+        int[][] b = new int[height][width];
+        for (int line = 0; line < height; line++) {
+            for (int column = 0; column < width; column++) {
+                double wave = Math.sin(column / 23.0) * Math.cos(line / 17.0);
+                r[line][column] = clamp(255.0 * column / width + random.nextInt(9) - 4);
+                g[line][column] = clamp(255.0 * line / height + 40 * wave + random.nextInt(9) - 4);
+                b[line][column] = clamp(128 + 100 * wave + random.nextInt(9) - 4);
+            }
+        }
+        String filename = temporaryFile(".ppm").toString();
+        PPMWriter.writeP6(filename, r, g, b, width, height);
+        return filename;
+    }
+
+    private static int clamp(double value) {
+        return (int) Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,31 @@
+package pdav.tudor.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar: the usual JMH command line, with the allocation profiler ({@code -prof gc}) always
+ * on so that every run reports the bytes allocated per operation next to the time.
+ * <pre>
+ * mvn -B package
+ * java -jar Lab_image_encoder_decoder/benchmarks/target/benchmarks.jar                      (everything)
+ * java -jar Lab_image_encoder_decoder/benchmarks/target/benchmarks.jar EncoderStages.forwardDCT
+ * java -jar Lab_image_encoder_decoder/benchmarks/target/benchmarks.jar -p image=sample.ppm -p kernels=scalar,best
+ * </pre>
+ */
+public class Benchmarks {
+    public static void main(String[] args) throws RunnerException {
+        try {
+            new Runner(new OptionsBuilder()
+                    .parent(new CommandLineOptions(args))
+                    .addProfiler(GCProfiler.class)
+                    .build()).run();
+        } catch (CommandLineOptionException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+}
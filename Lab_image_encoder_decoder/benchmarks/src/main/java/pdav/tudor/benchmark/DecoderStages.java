@@ -0,0 +1,125 @@
+package pdav.tudor.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pdav.tudor.domain.Decoder;
+import pdav.tudor.domain.Encoder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every stage of {@link Decoder}, measured alone on an image compressed once per trial. The inverse DCT changes its
+ * input in place, so it gets freshly dequantized coefficients before every invocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class DecoderStages {
+
+    @State(Scope.Thread)
+    public static class Compressed {
+        @Param({"synthetic:640x480", "synthetic:1920x1080"})
+        public String image;
+        @Param({"best"})
+        public String kernels;
+        @Param({"1"})
+        public int parallelism;
+        Decoder decoder;
+
+        @Setup(Level.Trial)
+        public void createDecoder() throws IOException {
+            Encoder encoder = new Encoder(BenchmarkImages.resolve(image));
+            encoder.readPPMImage();
+            encoder.convertRGBtoYUV();
+            encoder.fusedEncoding();
+            decoder = new Decoder(BenchmarkImages.temporaryFile(".ppm").toString(), encoder.compress());
+            decoder.setKernels(BenchmarkImages.kernels(kernels));
+            decoder.setParallelism(parallelism);
+        }
+    }
+
+    public static class Decoded extends Compressed {
+        @Setup(Level.Trial)
+        public void decode() {
+            decoder.entropyDecoding();
+        }
+    }
+
+    public static class Dequantized extends Decoded {
+        @Setup(Level.Invocation)
+        public void deQuantize() {
+            decoder.deQuantization();
+        }
+    }
+
+    public static class Transformed extends Decoded {
+        @Setup(Level.Trial)
+        public void transform() {
+            decoder.deQuantization();
+            decoder.inverseDCT();
+        }
+    }
+
+    public static class Matrices extends Transformed {
+        @Setup(Level.Trial)
+        public void convertBlocks() {
+            decoder.convertBlocksToMatrices();
+        }
+    }
+
+    public static class Converted extends Matrices {
+        @Setup(Level.Trial)
+        public void convert() {
+            decoder.convertYUVtoRGB();
+        }
+    }
+
+    @Benchmark
+    public Decoder entropyDecoding(Compressed state) {
+        state.decoder.entropyDecoding();
+        return state.decoder;
+    }
+
+    @Benchmark
+    public Decoder deQuantization(Decoded state) {
+        state.decoder.deQuantization();
+        return state.decoder;
+    }
+
+    @Benchmark
+    public Decoder inverseDCT(Dequantized state) {
+        state.decoder.inverseDCT();
+        return state.decoder;
+    }
+
+    @Benchmark
+    public Decoder convertBlocksToMatrices(Transformed state) {
+        state.decoder.convertBlocksToMatrices();
+        return state.decoder;
+    }
+
+    @Benchmark
+    public Decoder convertYUVtoRGB(Matrices state) {
+        state.decoder.convertYUVtoRGB();
+        return state.decoder;
+    }
+
+    @Benchmark
+    public Decoder writePPMImage(Converted state) throws IOException {
+        state.decoder.writePPMImage();
+        return state.decoder;
+    }
+}
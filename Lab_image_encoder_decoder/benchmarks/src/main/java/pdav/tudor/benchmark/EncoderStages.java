@@ -0,0 +1,139 @@
+package pdav.tudor.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pdav.tudor.domain.Encoder;
+import pdav.tudor.domain.io.CompressedImage;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every stage of {@link Encoder}, measured alone: the stages before it run in the setup. The stages changing their
+ * input in place (the forward DCT) get a fresh input before every invocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class EncoderStages {
+
+    @State(Scope.Thread)
+    public static class Image {
+        @Param({"synthetic:640x480", "synthetic:1920x1080"})
+        public String image;
+        @Param({"best"})
+        public String kernels;
+        @Param({"1"})
+        public int parallelism;
+        Encoder encoder;
+
+        @Setup(Level.Trial)
+        public void createEncoder() throws IOException {
+            encoder = new Encoder(BenchmarkImages.resolve(image));
+            encoder.setKernels(BenchmarkImages.kernels(kernels));
+            encoder.setParallelism(parallelism);
+        }
+    }
+
+    public static class Read extends Image {
+        @Setup(Level.Trial)
+        public void read() {
+            encoder.readPPMImage();
+        }
+    }
+
+    public static class Converted extends Read {
+        @Setup(Level.Trial)
+        public void convert() {
+            encoder.convertRGBtoYUV();
+        }
+    }
+
+    public static class Stored extends Converted {
+        @Setup(Level.Invocation)
+        public void store() {
+            encoder.storeBlocks();
+        }
+    }
+
+    public static class Transformed extends Converted {
+        @Setup(Level.Trial)
+        public void transform() {
+            encoder.storeBlocks();
+            encoder.forwardDCT();
+        }
+    }
+
+    public static class Quantized extends Transformed {
+        @Setup(Level.Trial)
+        public void quantize() {
+            encoder.quantization();
+        }
+    }
+
+    public static class Encoded extends Quantized {
+        @Setup(Level.Trial)
+        public void encode() {
+            encoder.entropyEncoding();
+        }
+    }
+
+    @Benchmark
+    public Encoder readPPMImage(Image state) {
+        state.encoder.readPPMImage();
+        return state.encoder;
+    }
+
+    @Benchmark
+    public Encoder convertRGBtoYUV(Read state) {
+        state.encoder.convertRGBtoYUV();
+        return state.encoder;
+    }
+
+    @Benchmark
+    public Encoder storeBlocks(Converted state) {
+        state.encoder.storeBlocks();
+        return state.encoder;
+    }
+
+    @Benchmark
+    public Encoder forwardDCT(Stored state) {
+        state.encoder.forwardDCT();
+        return state.encoder;
+    }
+
+    @Benchmark
+    public Encoder quantization(Transformed state) {
+        state.encoder.quantization();
+        return state.encoder;
+    }
+
+    @Benchmark
+    public Encoder entropyEncoding(Quantized state) {
+        state.encoder.entropyEncoding();
+        return state.encoder;
+    }
+
+    @Benchmark
+    public Encoder fusedEncoding(Converted state) {
+        state.encoder.fusedEncoding();
+        return state.encoder;
+    }
+
+    @Benchmark
+    public CompressedImage compress(Encoded state) {
+        return state.encoder.compress();
+    }
+}
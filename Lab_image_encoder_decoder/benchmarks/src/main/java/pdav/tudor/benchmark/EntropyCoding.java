@@ -0,0 +1,71 @@
+package pdav.tudor.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import pdav.tudor.domain.Decoder;
+import pdav.tudor.domain.Encoder;
+import pdav.tudor.domain.io.CompressedImage;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the Huffman coding and decoding of an image as a function of the restart interval (0 for a single
+ * slice) and of the parallelism the slices are coded with. The size of the compressed image for every interval is
+ * printed at the end of each trial.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class EntropyCoding {
+    @Param({"synthetic:1920x1080"})
+    public String image;
+    @Param({"0", "1", "8", "64", "512"})
+    public int restartInterval;
+    @Param({"1", "4"})
+    public int parallelism;
+    private Encoder encoder;
+    private Decoder decoder;
+
+    @Setup(Level.Trial)
+    public void prepare() throws IOException {
+        encoder = new Encoder(BenchmarkImages.resolve(image));
+        encoder.setRestartInterval(restartInterval);
+        encoder.setParallelism(parallelism);
+        encoder.readPPMImage();
+        encoder.convertRGBtoYUV();
+        encoder.fusedEncoding();
+        decoder = new Decoder(BenchmarkImages.temporaryFile(".ppm").toString(), encoder.compress());
+        decoder.setParallelism(parallelism);
+    }
+
+    @TearDown(Level.Trial)
+    public void printSize() {
+        System.out.println("restart interval " + restartInterval + ": " + encoder.compressedSize() + " bytes");
+    }
+
+    @Benchmark
+    public CompressedImage compress() {
+        return encoder.compress();
+    }
+
+    @Benchmark
+    public Decoder entropyDecoding() {
+        decoder.entropyDecoding();
+        return decoder;
+    }
+}
@@ -0,0 +1,82 @@
+package pdav.tudor.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pdav.tudor.domain.Decoder;
+import pdav.tudor.domain.Encoder;
+import pdav.tudor.domain.io.CompressedImage;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole pipeline from file to file, as run by Main: the PPM image to a compressed file, that file back to a PPM
+ * image, and both in a row.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class RoundTrip {
+    @Param({"synthetic:640x480", "synthetic:1920x1080"})
+    public String image;
+    @Param({"best"})
+    public String kernels;
+    @Param({"1"})
+    public int parallelism;
+    private String filename;
+    private String compressedFilename;
+    private String resultFilename;
+
+    @Setup(Level.Trial)
+    public void prepare() throws IOException {
+        filename = BenchmarkImages.resolve(image);
+        compressedFilename = BenchmarkImages.temporaryFile(".pdav").toString();
+        resultFilename = BenchmarkImages.temporaryFile(".ppm").toString();
+        encode();
+    }
+
+    @Benchmark
+    public Encoder encode() {
+        Encoder encoder = new Encoder(filename);
+        encoder.setKernels(BenchmarkImages.kernels(kernels));
+        encoder.setParallelism(parallelism);
+        encoder.readPPMImage();
+        encoder.convertRGBtoYUV();
+        encoder.fusedEncoding();
+        encoder.writeCompressedImage(compressedFilename);
+        return encoder;
+    }
+
+    @Benchmark
+    public Decoder decode() throws IOException {
+        Decoder decoder = new Decoder(resultFilename, CompressedImage.read(compressedFilename));
+        decoder.setKernels(BenchmarkImages.kernels(kernels));
+        decoder.setParallelism(parallelism);
+        decoder.entropyDecoding();
+        decoder.deQuantization();
+        decoder.inverseDCT();
+        decoder.convertBlocksToMatrices();
+        decoder.convertYUVtoRGB();
+        decoder.writePPMImage();
+        return decoder;
+    }
+
+    @Benchmark
+    public Decoder roundTrip() throws IOException {
+        encode();
+        return decode();
+    }
+}
@@ -1,38 +1,55 @@
 package pdav.tudor;
 
+import pdav.tudor.domain.ConditionalReplenishment;
 import pdav.tudor.domain.Decoder;
 import pdav.tudor.domain.Encoder;
+import pdav.tudor.domain.SequenceDecoder;
+import pdav.tudor.domain.SequenceEncoder;
+import pdav.tudor.domain.io.CompressedImage;
 
 import java.io.IOException;
 
 public class Main {
     private static final String FILENAME = "C:\\Users\\Tudor\\Desktop\\D\\faculta\\SemV\\PDAV\\Lab_image_encoder_decoder\\nt-P3.ppm";
+    private static final String COMPRESSED_FILENAME = "C:\\Users\\Tudor\\Desktop\\D\\faculta\\SemV\\PDAV\\Lab_image_encoder_decoder\\nt-P3.pdav";
     private static final String RESULT_FILENAME = "C:\\Users\\Tudor\\Desktop\\D\\faculta\\SemV\\PDAV\\Lab_image_encoder_decoder\\result-nt-P3-task3.ppm";
-    private static final int WIDTH = 800;
-    private static final int HEIGHT = 600;
 
+    /**
+     * Without arguments, encodes and decodes the still image above. Sequences are coded with
+     * {@code encode-sequence <directory of PPM files or P6 stream> <output.pdav>} and
+     * {@code decode-sequence <input.pdav> <directory or P6 stream>}, printing the frame rate and latency.
+     * The MCUs of a frame that did not change since the previous one are not coded again.
+     */
     public static void main(String[] args) {
+        if (args.length == 3 && (args[0].equals("encode-sequence") || args[0].equals("decode-sequence"))) {
+            try {
+                if (args[0].equals("encode-sequence")) {
+                    SequenceEncoder sequenceEncoder = new SequenceEncoder(args[1], args[2]);
+                    sequenceEncoder.setConditionalReplenishment(new ConditionalReplenishment());
+                    System.out.println(sequenceEncoder.encode());
+                } else {
+                    System.out.println(new SequenceDecoder(args[1], args[2]).decode());
+                }
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+            return;
+        }
 
         Encoder encoder = new Encoder(FILENAME);
         encoder.readPPMImage();
         encoder.convertRGBtoYUV();
-        encoder.storeBlocks();
-        encoder.forwardDCT();
-        encoder.quantization();
-        encoder.entropyEncoding();
+        // the same as storeBlocks(), forwardDCT(), quantization() and entropyEncoding(), one block at a time
+        encoder.fusedEncoding();
+        encoder.writeCompressedImage(COMPRESSED_FILENAME);
 
-        Decoder decoder = new Decoder(RESULT_FILENAME,
-                encoder.getYBlocks(),
-                encoder.getUBlocks(),
-                encoder.getVBlocks(),
-                WIDTH,
-                HEIGHT);
-        decoder.entropyDecoding(encoder.getEntropyList());
-        decoder.deQuantization();
-        decoder.inverseDCT();
-        decoder.convertBlocksToMatrices();
-        decoder.convertYUVtoRGB();
         try {
+            Decoder decoder = new Decoder(RESULT_FILENAME, CompressedImage.read(COMPRESSED_FILENAME));
+            decoder.entropyDecoding();
+            decoder.deQuantization();
+            decoder.inverseDCT();
+            decoder.convertBlocksToMatrices();
+            decoder.convertYUVtoRGB();
             decoder.writePPMImage();
         } catch (IOException e) {
             System.out.println(e.getMessage());
@@ -1,33 +1,16 @@
 package pdav.tudor.domain;
 
+import pdav.tudor.domain.entropy.EntropyCoder;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
-
+/**
+ * Size category of an amplitude, the number of bits of its magnitude:
+ * 1 for +-1, 2 for +-2 - 3, 3 for +-4 - 7, ..., 10 for +-512 - 1023 and so on.
+ */
 public class AmplitudeMap {
-    private static final Map<Integer, List<Integer>> values = new HashMap<>() {{
-        put(1, Arrays.asList(1, 1));
-        put(2, Arrays.asList(2, 3));
-        put(3, Arrays.asList(4, 7));
-        put(4, Arrays.asList(8, 15));
-        put(5, Arrays.asList(16, 31));
-        put(6, Arrays.asList(32, 63));
-        put(7, Arrays.asList(64, 127));
-        put(8, Arrays.asList(128, 255));
-        put(9, Arrays.asList(256, 511));
-        put(10, Arrays.asList(512, 1023));
-    }};
-
+    /**
+     * See {@link EntropyCoder#sizeOf(int)}, which the entropy coding uses as well.
+     */
     public static int getCorrespondingSize(int value) {
-        AtomicInteger result = new AtomicInteger();
-        values.forEach((k, v) -> {
-            if ((value >= v.get(0) && value <= v.get(1)) || (value >= -v.get(1) && value <= -v.get(0)))
-                result.set(k);
-        });
-
-        return result.get();
+        return EntropyCoder.sizeOf(value);
     }
 }
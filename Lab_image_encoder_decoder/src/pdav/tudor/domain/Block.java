@@ -1,19 +1,28 @@
 package pdav.tudor.domain;
 
 
+/**
+ * A square block of values. It either owns its values or is a view of a block stored in a {@link Plane}.
+ */
 public class Block {
     private final int size, line, column;
-    private final double[][] values;
+    private final double[] values;
+    private final int offset;
 
     public Block(int size, int line, int column) {
+        this(size, line, column, new double[size * size], 0);
+    }
+
+    Block(int size, int line, int column, double[] values, int offset) {
         this.size = size;
         this.line = line;
         this.column = column;
-        values = new double[size][size];
+        this.values = values;
+        this.offset = offset;
     }
 
     public void modifyValue(double value, int line, int column) {
-        this.values[line][column] = value;
+        this.values[offset + line * size + column] = value;
     }
 
     public void modifyValues(int[][] values) {
@@ -25,7 +34,7 @@ public class Block {
     }
 
     public double getValue(int line, int column) {
-        return this.values[line][column];
+        return this.values[offset + line * size + column];
     }
 
     @Override
@@ -37,7 +46,7 @@ public class Block {
                 ", values=[\n");
         for (int i = 0; i < size; i++) {
             for (int j = 0; j < size; j++) {
-                str.append(values[i][j]);
+                str.append(getValue(i, j));
                 str.append(',');
             }
             str.append('\n');
@@ -55,7 +64,14 @@ public class Block {
         return column;
     }
 
+    /**
+     * A copy of the values, line by line.
+     */
     public double[][] getValues() {
-        return values;
+        double[][] copy = new double[size][size];
+        for (int line = 0; line < size; line++) {
+            System.arraycopy(values, offset + line * size, copy[line], 0, size);
+        }
+        return copy;
     }
 }
@@ -0,0 +1,208 @@
+package pdav.tudor.domain;
+
+import pdav.tudor.domain.transform.DCT;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the entropy symbols of recently encoded blocks, so that a block seen before (a flat area, a repeated
+ * glyph or icon of a screenshot, a tile of a pattern) costs a hash and a lookup instead of a transform and a
+ * quantization. Used by {@link FusedBlockEncoder} when given to {@link Encoder#setBlockCache(BlockCache)} or
+ * {@link StreamingEncoder#setBlockCache(BlockCache)}.
+ * <p>
+ * A block is looked up by a 64-bit hash of its samples (after subsampling) mixed with the quantization
+ * reciprocals, and only counts as found when its samples, transform and quantization are equal to the ones of the
+ * entry: a hash collision is a miss, never wrong symbols. The symbols of a block do not depend on the blocks
+ * before it (the DC is stored whole, see {@link pdav.tudor.domain.entropy.SymbolBuffer}), so the output is
+ * identical with and without the cache.
+ * <p>
+ * The entries are spread over {@link #SEGMENTS} segments chosen by the hash, each a least recently used map
+ * locked on its own, so the threads of a parallel encoding rarely wait for each other. Eviction is least
+ * recently used within a segment. The cache may be shared by several encoders, and kept from one image to the next.
+ */
+public class BlockCache {
+    public static final int SEGMENTS = 16;
+    public static final int DEFAULT_CAPACITY = 4096;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final int capacity;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity the most blocks kept, each taking about 600 bytes
+     */
+    public BlockCache(int capacity) {
+        if (capacity < SEGMENTS) {
+            throw new IllegalArgumentException("The capacity must be at least " + SEGMENTS);
+        }
+        this.capacity = capacity;
+        for (int index = 0; index < SEGMENTS; index++) {
+            segments[index] = new Segment(capacity / SEGMENTS + (index < capacity % SEGMENTS ? 1 : 0));
+        }
+    }
+
+    public BlockCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    private static long mix(long hash, long value) {
+        hash ^= value;
+        hash *= 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    /**
+     * The part of the hash given by the quantization, computed once per encoder.
+     */
+    static long seed(double[] reciprocals) {
+        long hash = 0;
+        for (double reciprocal : reciprocals) {
+            hash = mix(hash, Double.doubleToRawLongBits(reciprocal));
+        }
+        return hash;
+    }
+
+    /**
+     * The hash of a block of {@link Plane#BLOCK_AREA} samples, see {@link #seed(double[])}.
+     */
+    static long hash(long seed, double[] samples) {
+        long hash = seed;
+        for (int index = 0; index < Plane.BLOCK_AREA; index++) {
+            hash = mix(hash, Double.doubleToRawLongBits(samples[index]));
+        }
+        return hash;
+    }
+
+    private Segment segment(long hash) {
+        return segments[(int) (hash >>> 60)];
+    }
+
+    /**
+     * The symbols of the block, null when it is not in the cache.
+     */
+    int[] lookup(long hash, double[] samples, DCT transform, double[] reciprocals) {
+        Segment segment = segment(hash);
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.get(hash);
+        }
+        if (entry != null && entry.matches(samples, transform, reciprocals)) {
+            hits.increment();
+            return entry.symbols;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Adds the symbols of a block, the arrays are kept and must not be changed afterwards.
+     */
+    void store(long hash, double[] samples, DCT transform, double[] reciprocals, int[] symbols) {
+        Entry entry = new Entry(samples, transform.getClass(), reciprocals, symbols);
+        Segment segment = segment(hash);
+        synchronized (segment) {
+            segment.put(hash, entry);
+        }
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * The share of the lookups that found their block, from 0 to 1.
+     */
+    public double getHitRate() {
+        long hits = getHits();
+        long lookups = hits + getMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Sets the hit, miss and eviction counts back to 0, keeping the entries.
+     */
+    public void resetStatistics() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d hits, %d misses (%.1f%%), %d evictions, %d/%d entries",
+                getHits(), getMisses(), 100 * getHitRate(), getEvictions(), size(), capacity);
+    }
+
+    private static final class Entry {
+        private final double[] samples;
+        private final Class<?> transform;
+        private final double[] reciprocals;
+        private final int[] symbols;
+
+        private Entry(double[] samples, Class<?> transform, double[] reciprocals, int[] symbols) {
+            this.samples = samples;
+            this.transform = transform;
+            this.reciprocals = reciprocals;
+            this.symbols = symbols;
+        }
+
+        private boolean matches(double[] samples, DCT transform, double[] reciprocals) {
+            return this.transform == transform.getClass()
+                    && (this.reciprocals == reciprocals || Arrays.equals(this.reciprocals, reciprocals))
+                    && Arrays.equals(this.samples, 0, Plane.BLOCK_AREA, samples, 0, Plane.BLOCK_AREA);
+        }
+    }
+
+    private final class Segment extends LinkedHashMap<Long, Entry> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
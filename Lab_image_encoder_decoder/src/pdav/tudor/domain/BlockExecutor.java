@@ -0,0 +1,101 @@
+package pdav.tudor.domain;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the work of a stage over a range of independent items (blocks or image lines).
+ * With a parallelism of 1 the whole range is handled on the calling thread, otherwise it is split in halves
+ * on a fork-join pool until the pieces are small enough. Every item is processed by the same code whatever the
+ * split, so the output does not depend on the parallelism level.
+ */
+public class BlockExecutor {
+    /**
+     * Pieces per worker thread, more than one so that threads finishing early can steal work.
+     */
+    private static final int PIECES_PER_THREAD = 8;
+    private final int parallelism;
+    private final ForkJoinPool pool;
+    // the workers the pool has started, for the allocation counts of the stages
+    private final Set<Thread> workers = ConcurrentHashMap.newKeySet();
+
+    public interface RangeAction {
+        /**
+         * Processes the items from (inclusive) - to (exclusive).
+         */
+        void run(int from, int to);
+    }
+
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        // tasks only live inside the pool, the action is never serialized
+        private final transient RangeAction action;
+        private final int from, to, grain;
+
+        RangeTask(RangeAction action, int from, int to, int grain) {
+            this.action = action;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                action.run(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(action, from, middle, grain), new RangeTask(action, middle, to, grain));
+        }
+    }
+
+    public BlockExecutor(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+        // the workers of a fork-join pool are daemon threads, an unused executor does not keep the JVM alive
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism, this::newWorker, null, false) : null;
+    }
+
+    private ForkJoinWorkerThread newWorker(ForkJoinPool pool) {
+        ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        workers.add(worker);
+        return worker;
+    }
+
+    public static BlockExecutor serial() {
+        return new BlockExecutor(1);
+    }
+
+    public void forRange(int count, RangeAction action) {
+        if (pool == null || count < 2) {
+            action.run(0, count);
+            return;
+        }
+        int grain = Math.max(1, count / (parallelism * PIECES_PER_THREAD));
+        pool.invoke(new RangeTask(action, 0, count, grain));
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * The identifiers of the live worker threads of the pool, none with a parallelism of 1.
+     */
+    public long[] getWorkerThreadIds() {
+        workers.removeIf(worker -> !worker.isAlive());
+        return workers.stream().mapToLong(Thread::getId).toArray();
+    }
+
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package pdav.tudor.domain;
+
+/**
+ * The quantized coefficients of one image component, laid out block by block exactly like a {@link Plane}.
+ */
+public class CoefficientPlane {
+    private final int widthInBlocks;
+    private final int heightInBlocks;
+    private final int[] values;
+
+    public CoefficientPlane(int widthInBlocks, int heightInBlocks) {
+        this.widthInBlocks = widthInBlocks;
+        this.heightInBlocks = heightInBlocks;
+        this.values = new int[widthInBlocks * heightInBlocks * Plane.BLOCK_AREA];
+    }
+
+    public int getBlockCount() {
+        return widthInBlocks * heightInBlocks;
+    }
+
+    public int offset(int block) {
+        return block * Plane.BLOCK_AREA;
+    }
+
+    public int getWidthInBlocks() {
+        return widthInBlocks;
+    }
+
+    public int getHeightInBlocks() {
+        return heightInBlocks;
+    }
+
+    public int[] getValues() {
+        return values;
+    }
+}
@@ -0,0 +1,161 @@
+package pdav.tudor.domain;
+
+import java.util.Random;
+
+/**
+ * Integer kernels converting one line of pixels between RGB and YUV, with the formulas of
+ * https://www.pcmag.com/encyclopedia/term/yuvrgb-conversion-formulas:
+ * <pre>
+ * Y =  0.299R + 0.587G + 0.114B        R = Y + 1.140V
+ * U = -0.147R - 0.289G + 0.436B        G = Y - 0.395U - 0.581V
+ * V =  0.615R - 0.515G - 0.100B        B = Y + 2.032U
+ * </pre>
+ * RGB to YUV looks up every product in a table of 256 entries per channel term, scaled by 2^16, and rounds the
+ * sums to the nearest integer. YUV to RGB works on fixed-point samples with {@link #FRACTION_BITS} fraction bits,
+ * multiplied by coefficients scaled by 2^12, and truncates like the double formulas it replaces.
+ * Clamping to 0 - 255 is done with shifts and masks instead of branches.
+ */
+public class ColorConversion {
+    /**
+     * Fraction bits of the fixed-point Y, U and V samples given to {@link #yuvToRgb}.
+     */
+    public static final int FRACTION_BITS = 4;
+    // shared with VectorKernels, which must give the same results
+    static final int TABLE_BITS = 16;
+    static final int COEFFICIENT_BITS = 12;
+    static final int OUTPUT_SHIFT = COEFFICIENT_BITS + FRACTION_BITS;
+    static final int ROUNDING = 1 << (TABLE_BITS - 1);
+
+    static final int[] Y_R = table(0.299);
+    static final int[] Y_G = table(0.587);
+    static final int[] Y_B = table(0.114);
+    static final int[] U_R = table(-0.147);
+    static final int[] U_G = table(-0.289);
+    static final int[] U_B = table(0.436);
+    static final int[] V_R = table(0.615);
+    static final int[] V_G = table(-0.515);
+    static final int[] V_B = table(-0.100);
+
+    static final int R_V = coefficient(1.140);
+    static final int G_U = coefficient(-0.395);
+    static final int G_V = coefficient(-0.581);
+    static final int B_U = coefficient(2.032);
+
+    private static int[] table(double factor) {
+        int[] table = new int[256];
+        for (int value = 0; value < table.length; value++) {
+            table[value] = (int) Math.round(factor * value * (1 << TABLE_BITS));
+        }
+        return table;
+    }
+
+    private static int coefficient(double factor) {
+        return (int) Math.round(factor * (1 << COEFFICIENT_BITS));
+    }
+
+    /**
+     * The value limited to 0 - 255: a negative value has its sign spread over every bit, a value above 255 makes
+     * 255 - value negative.
+     */
+    public static int clamp(int value) {
+        value &= ~(value >> 31);
+        return (value | ((255 - value) >> 31)) & 255;
+    }
+
+    /**
+     * The fixed-point form of a sample, rounded to the nearest step.
+     */
+    public static int toFixed(double value) {
+        return (int) Math.floor(value * (1 << FRACTION_BITS) + 0.5);
+    }
+
+    /**
+     * Converts count pixels, Y, U and V being rounded to the nearest integer.
+     */
+    public static void rgbToYuv(int[] r, int[] g, int[] b, int[] y, int[] u, int[] v, int count) {
+        rgbToYuv(r, g, b, y, u, v, 0, count);
+    }
+
+    static void rgbToYuv(int[] r, int[] g, int[] b, int[] y, int[] u, int[] v, int from, int to) {
+        for (int column = from; column < to; column++) {
+            int red = clamp(r[column]);
+            int green = clamp(g[column]);
+            int blue = clamp(b[column]);
+            y[column] = (Y_R[red] + Y_G[green] + Y_B[blue] + ROUNDING) >> TABLE_BITS;
+            u[column] = (U_R[red] + U_G[green] + U_B[blue] + ROUNDING) >> TABLE_BITS;
+            v[column] = (V_R[red] + V_G[green] + V_B[blue] + ROUNDING) >> TABLE_BITS;
+        }
+    }
+
+    /**
+     * Converts count pixels given as fixed-point samples (see {@link #toFixed(double)}).
+     */
+    public static void yuvToRgb(int[] y, int[] u, int[] v, int[] r, int[] g, int[] b, int count) {
+        yuvToRgb(y, u, v, r, g, b, 0, count);
+    }
+
+    static void yuvToRgb(int[] y, int[] u, int[] v, int[] r, int[] g, int[] b, int from, int to) {
+        for (int column = from; column < to; column++) {
+            int luma = y[column] << COEFFICIENT_BITS;
+            int uValue = u[column];
+            int vValue = v[column];
+            r[column] = clamp((luma + R_V * vValue) >> OUTPUT_SHIFT);
+            g[column] = clamp((luma + G_U * uValue + G_V * vValue) >> OUTPUT_SHIFT);
+            b[column] = clamp((luma + B_U * uValue) >> OUTPUT_SHIFT);
+        }
+    }
+
+    /**
+     * Verification of {@link #rgbToYuv}: the largest difference between its output and the exact result of
+     * the double formulas, over every RGB color.
+     */
+    public static double maxDeviationRgbToYuv() {
+        int[] r = new int[256], g = new int[256], b = new int[256];
+        int[] y = new int[256], u = new int[256], v = new int[256];
+        double deviation = 0;
+        for (int red = 0; red < 256; red++) {
+            for (int green = 0; green < 256; green++) {
+                for (int blue = 0; blue < 256; blue++) {
+                    r[blue] = red;
+                    g[blue] = green;
+                    b[blue] = blue;
+                }
+                rgbToYuv(r, g, b, y, u, v, 256);
+                for (int blue = 0; blue < 256; blue++) {
+                    deviation = Math.max(deviation, Math.abs(y[blue] - (0.299 * red + 0.587 * green + 0.114 * blue)));
+                    deviation = Math.max(deviation, Math.abs(u[blue] - (-0.147 * red - 0.289 * green + 0.436 * blue)));
+                    deviation = Math.max(deviation, Math.abs(v[blue] - (0.615 * red - 0.515 * green - 0.100 * blue)));
+                }
+            }
+        }
+        return deviation;
+    }
+
+    /**
+     * Verification of {@link #yuvToRgb}: the largest difference between its output and the output of the double
+     * formulas with clamping and truncation, over random samples in and around the range of decoded images.
+     */
+    public static int maxDeviationYuvToRgb(int samples, long seed) {
+        Random random = new Random(seed);
+        int[] y = new int[1], u = new int[1], v = new int[1];
+        int[] r = new int[1], g = new int[1], b = new int[1];
+        int deviation = 0;
+        for (int sample = 0; sample < samples; sample++) {
+            double yValue = -64 + random.nextDouble() * 384;
+            double uValue = -192 + random.nextDouble() * 384;
+            double vValue = -192 + random.nextDouble() * 384;
+            y[0] = toFixed(yValue);
+            u[0] = toFixed(uValue);
+            v[0] = toFixed(vValue);
+            yuvToRgb(y, u, v, r, g, b, 1);
+            deviation = Math.max(deviation, Math.abs(r[0] - reference(yValue + 1.140 * vValue)));
+            deviation = Math.max(deviation, Math.abs(g[0] - reference(yValue - 0.395 * uValue - 0.581 * vValue)));
+            deviation = Math.max(deviation, Math.abs(b[0] - reference(yValue + 2.032 * uValue)));
+        }
+        return deviation;
+    }
+
+    private static int reference(double value) {
+        return (int) Math.max(0, Math.min(255, value));
+    }
+}
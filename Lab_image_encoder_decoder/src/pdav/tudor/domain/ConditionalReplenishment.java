@@ -0,0 +1,217 @@
+package pdav.tudor.domain;
+
+import java.util.Arrays;
+
+/**
+ * Decides, MCU by MCU, what of a frame of a sequence needs coding at all: an MCU close enough to the same area of
+ * the previous frame is skipped, and the decoder keeps what it shows there. With a search range, an MCU that
+ * changed may instead be found at a small displacement in the previous frame, and the decoder copies it from there.
+ * Only the other MCUs are transformed and entropy coded.
+ * <p>
+ * The comparisons are made against a reference holding, for every MCU, the samples of the frame it was last coded
+ * in: the decoder shows these samples up to the coding error, and small changes cannot add up over frames without
+ * the MCU being coded again. Closeness is measured by the sum of absolute differences (SAD) of the Y, U and V
+ * samples at full resolution, compared to {@link #getThreshold()} per sample; a threshold of 0 only skips MCUs that
+ * did not change at all. The sums stop as soon as they are over the limit, so a changed MCU is usually rejected
+ * after a few lines.
+ * Not thread safe, the frames of a sequence are decided one after the other.
+ */
+public class ConditionalReplenishment {
+    public static final byte CODED = 0;
+    public static final byte SKIPPED = 1;
+    public static final byte MOVED = 2;
+    private final double threshold;
+    private final int searchRange;
+    private int width;
+    private int height;
+    private Subsampling subsampling;
+    // the reference, and the buffer the next one is built in
+    private int[][][] reference;
+    private int[][][] next;
+    private byte[] motionVectors;
+    private int skipped;
+    private int moved;
+
+    /**
+     * @param threshold   the mean absolute difference per sample under which an MCU counts as unchanged
+     * @param searchRange the largest displacement searched, in pixels (at most 127), 0 for no motion search
+     */
+    public ConditionalReplenishment(double threshold, int searchRange) {
+        if (threshold < 0 || searchRange < 0 || searchRange > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid threshold or search range");
+        }
+        this.threshold = threshold;
+        this.searchRange = searchRange;
+    }
+
+    /**
+     * Skips the MCUs changing by at most 1 per sample on average, without motion search.
+     */
+    public ConditionalReplenishment() {
+        this(1, 0);
+    }
+
+    /**
+     * Forgets the reference, so that the next frame is coded whole.
+     */
+    public void reset() {
+        reference = null;
+    }
+
+    /**
+     * The mode of every MCU of the frame, in coding order, null when the whole frame must be coded (first frame,
+     * or a change of size). The reference is updated as if the frame was coded accordingly.
+     *
+     * @param components the Y, U and V samples of the frame at full resolution
+     */
+    public byte[] decide(McuLayout layout, int[][][] components, int width, int height) {
+        if (reference == null || width != this.width || height != this.height
+                || layout.getSubsampling() != subsampling) {
+            this.width = width;
+            this.height = height;
+            this.subsampling = layout.getSubsampling();
+            this.reference = copy(components, null);
+            this.next = null;
+            this.motionVectors = new byte[0];
+            return null;
+        }
+        next = copy(reference, next);
+        int mcuWidth = subsampling.getMcuWidth();
+        int mcuHeight = subsampling.getMcuHeight();
+        byte[] modes = new byte[layout.getMcuCount()];
+        byte[] vectors = new byte[2 * modes.length];
+        skipped = 0;
+        moved = 0;
+        for (int mcu = 0; mcu < modes.length; mcu++) {
+            int firstLine = mcu / layout.getMcuColumns() * mcuHeight;
+            int firstColumn = mcu % layout.getMcuColumns() * mcuWidth;
+            int lines = Math.min(mcuHeight, height - firstLine);
+            int columns = Math.min(mcuWidth, width - firstColumn);
+            long limit = (long) Math.floor(threshold * 3 * lines * columns);
+
+            if (sad(components, firstLine, firstColumn, 0, 0, lines, columns, limit) <= limit) {
+                modes[mcu] = SKIPPED;
+                skipped++;
+                continue;
+            }
+            int[] vector = lines == mcuHeight && columns == mcuWidth
+                    ? search(components, firstLine, firstColumn, mcuHeight, mcuWidth, limit) : null;
+            if (vector != null) {
+                modes[mcu] = MOVED;
+                vectors[2 * moved] = (byte) vector[0];
+                vectors[2 * moved + 1] = (byte) vector[1];
+                moved++;
+                copyArea(reference, next, firstLine + vector[1], firstColumn + vector[0], firstLine, firstColumn,
+                        lines, columns);
+            } else {
+                modes[mcu] = CODED;
+                copyArea(components, next, firstLine, firstColumn, firstLine, firstColumn, lines, columns);
+            }
+        }
+        int[][][] previous = reference;
+        reference = next;
+        next = previous;
+        motionVectors = Arrays.copyOf(vectors, 2 * moved);
+        return modes;
+    }
+
+    /**
+     * The displacement (x, y) of the area of the reference closest to the MCU, if within the limit. Only areas
+     * inside the image are searched, by steps of the chroma subsampling so that the displacement of the chroma
+     * is a whole number of samples.
+     */
+    private int[] search(int[][][] components, int firstLine, int firstColumn, int lines, int columns, long limit) {
+        if (searchRange == 0) {
+            return null;
+        }
+        int stepX = subsampling.getHorizontal();
+        int stepY = subsampling.getVertical();
+        int rangeX = searchRange / stepX * stepX;
+        int rangeY = searchRange / stepY * stepY;
+        int[] best = null;
+        long bestSad = limit;
+        for (int dy = -rangeY; dy <= rangeY; dy += stepY) {
+            if (firstLine + dy < 0 || firstLine + dy + lines > height) {
+                continue;
+            }
+            for (int dx = -rangeX; dx <= rangeX; dx += stepX) {
+                if (dx == 0 && dy == 0 || firstColumn + dx < 0 || firstColumn + dx + columns > width) {
+                    continue;
+                }
+                long sad = sad(components, firstLine, firstColumn, dy, dx, lines, columns, bestSad);
+                if (best == null ? sad <= bestSad : sad < bestSad) {
+                    best = new int[]{dx, dy};
+                    bestSad = sad;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The SAD between the area of the frame and the area of the reference displaced by (dx, dy), or a value over
+     * the limit as soon as it is exceeded.
+     */
+    private long sad(int[][][] components, int firstLine, int firstColumn, int dy, int dx, int lines, int columns,
+                     long limit) {
+        long sum = 0;
+        for (int line = firstLine; line < firstLine + lines; line++) {
+            for (int component = 0; component < components.length; component++) {
+                int[] current = components[component][line];
+                int[] previous = reference[component][line + dy];
+                for (int column = firstColumn; column < firstColumn + columns; column++) {
+                    sum += Math.abs(current[column] - previous[column + dx]);
+                }
+            }
+            if (sum > limit) {
+                return sum;
+            }
+        }
+        return sum;
+    }
+
+    private static void copyArea(int[][][] source, int[][][] target, int sourceLine, int sourceColumn,
+                                 int targetLine, int targetColumn, int lines, int columns) {
+        for (int component = 0; component < source.length; component++) {
+            for (int line = 0; line < lines; line++) {
+                System.arraycopy(source[component][sourceLine + line], sourceColumn,
+                        target[component][targetLine + line], targetColumn, columns);
+            }
+        }
+    }
+
+    private static int[][][] copy(int[][][] source, int[][][] target) {
+        if (target == null || target[0].length != source[0].length || target[0][0].length != source[0][0].length) {
+            target = new int[source.length][source[0].length][source[0][0].length];
+        }
+        for (int component = 0; component < source.length; component++) {
+            for (int line = 0; line < source[component].length; line++) {
+                System.arraycopy(source[component][line], 0, target[component][line], 0, source[component][line].length);
+            }
+        }
+        return target;
+    }
+
+    /**
+     * The displacements (x, then y, in luma pixels) of the MCUs of the last frame marked {@link #MOVED}, in order.
+     */
+    public byte[] getMotionVectors() {
+        return motionVectors.clone();
+    }
+
+    public int getSkippedCount() {
+        return skipped;
+    }
+
+    public int getMovedCount() {
+        return moved;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public int getSearchRange() {
+        return searchRange;
+    }
+}
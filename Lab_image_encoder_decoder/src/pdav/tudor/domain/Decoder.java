@@ -1,78 +1,288 @@
 package pdav.tudor.domain;
 
+import pdav.tudor.domain.entropy.AC;
 import pdav.tudor.domain.entropy.Entropy;
+import pdav.tudor.domain.entropy.EntropyCoder;
+import pdav.tudor.domain.entropy.RowIndex;
+import pdav.tudor.domain.entropy.SliceTable;
+import pdav.tudor.domain.entropy.SymbolCursor;
+import pdav.tudor.domain.entropy.ZigZag;
+import pdav.tudor.domain.io.CompressedImage;
+import pdav.tudor.domain.io.PPMWriter;
+import pdav.tudor.domain.metrics.StageListener;
+import pdav.tudor.domain.metrics.StageRecorder;
+import pdav.tudor.domain.transform.DCT;
+import pdav.tudor.domain.transform.ScaledIDCT;
+import pdav.tudor.domain.transform.SparseIDCT;
 
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.Arrays;
 import java.util.List;
 
 public class Decoder {
-    private final static int BLOCK_SIZE = 8;
+    private final static int BLOCK_SIZE = Plane.BLOCK_SIZE;
+    private final static int BLOCK_AREA = Plane.BLOCK_AREA;
     private final String filename;
     private final int width;
     private final int height;
-    private final int maxPixelColorValue;
-    private final int minPixelColorValue;
     private int[][] r;
     private int[][] g;
     private int[][] b;
-    private double[][] y;
-    private double[][] u;
-    private double[][] v;
-    private final List<Block> yBlocks;
-    private final List<Block> uBlocks;
-    private final List<Block> vBlocks;
-
-    public Decoder(String filename, List<Block> y, List<Block> u, List<Block> v, int width, int height) {
+    // fixed-point samples, see ColorConversion
+    private int[][] y;
+    private int[][] u;
+    private int[][] v;
+    private final Plane yPlane;
+    private final Plane uPlane;
+    private final Plane vPlane;
+    private final CoefficientPlane yCoefficients;
+    private final CoefficientPlane uCoefficients;
+    private final CoefficientPlane vCoefficients;
+    private Kernels kernels = Kernels.best();
+    private DCT transform = kernels.transform();
+    private SparseIDCT sparseTransform = new SparseIDCT();
+    private BlockExecutor executor = BlockExecutor.serial();
+    private boolean binaryOutput = true;
+    private int[] quantizationTable;
+    private CompressedImage compressedImage;
+    private final EncodedImage encodedImage;
+    private final Subsampling subsampling;
+    private final McuLayout layout;
+    private boolean bilinearUpsampling = true;
+    private final StageRecorder recorder = new StageRecorder("decoder");
+    // for a frame coded against the previous one: the blocks in its data, per component, and the samples of the
+    // previous frame the moved MCUs are copied from
+    private boolean[][] codedBlocks;
+    // the zig-zag index of the last non-zero coefficient of every block, per component, found by the entropy
+    // decoding for the sparse inverse transform
+    private final byte[][] lastIndices;
+    private double[][] reference;
+    private boolean usesReference;
+    // the size of the RGB matrices: the image, or the region given to decodeRegion
+    private int outputWidth;
+    private int outputHeight;
+
+    public Decoder(String filename, int width, int height) {
+        this(filename, width, height, Subsampling.YUV420);
+    }
+
+    public Decoder(String filename, int width, int height, Subsampling subsampling) {
+        this(filename, width, height, subsampling, QuantizationMatrix.flatten(), null, null);
+    }
+
+    /**
+     * A decoder taking everything it needs from the compressed image, see {@link #entropyDecoding()}.
+     */
+    public Decoder(String filename, CompressedImage image) {
+        this(filename, image.getWidth(), image.getHeight(), image.getSubsampling(), image.getQuantizationTable(),
+                image, null);
+    }
+
+    /**
+     * Replaces the compressed image of the decoder by another one of the same size and subsampling, e.g. the next
+     * frame of a sequence (see {@link SequenceDecoder}), reusing the planes and matrices of the previous one.
+     */
+    public void setCompressedImage(CompressedImage image) {
+        if (compressedImage == null || image.getWidth() != width || image.getHeight() != height
+                || image.getSubsampling() != subsampling) {
+            throw new IllegalArgumentException("The image does not match the decoder");
+        }
+        this.compressedImage = image;
+        this.quantizationTable = image.getQuantizationTable();
+    }
+
+    /**
+     * A decoder of the symbols of an encoded image, see {@link #entropyDecoding()}. The image is only read,
+     * so several decoders may share it.
+     */
+    public Decoder(String filename, EncodedImage image) {
+        this(filename, image.getWidth(), image.getHeight(), image.getSubsampling(), image.getQuantizationTable(),
+                null, image);
+    }
+
+    private Decoder(String filename, int width, int height, Subsampling subsampling, int[] quantizationTable,
+                    CompressedImage compressedImage, EncodedImage encodedImage) {
         this.filename = filename;
-        this.minPixelColorValue = 0;
-        this.maxPixelColorValue = 255;
-        this.yBlocks = y;
-        this.uBlocks = u;
-        this.vBlocks = v;
+        this.quantizationTable = quantizationTable;
+        this.compressedImage = compressedImage;
+        this.encodedImage = encodedImage;
         this.width = width;
         this.height = height;
+        this.subsampling = subsampling;
+        this.layout = new McuLayout(subsampling, width, height);
+        this.outputWidth = width;
+        this.outputHeight = height;
+
+        // the planes are allocated once and every stage works on them in place
+        this.yPlane = layout.newPlane(McuLayout.Y);
+        this.uPlane = layout.newPlane(McuLayout.U);
+        this.vPlane = layout.newPlane(McuLayout.V);
+        this.yCoefficients = layout.newCoefficientPlane(McuLayout.Y);
+        this.uCoefficients = layout.newCoefficientPlane(McuLayout.U);
+        this.vCoefficients = layout.newCoefficientPlane(McuLayout.V);
+        this.lastIndices = new byte[][]{new byte[yPlane.getBlockCount()], new byte[uPlane.getBlockCount()],
+                new byte[vPlane.getBlockCount()]};
+    }
+
+    /**
+     * Chooses between bilinear (the default) and nearest upsampling of the chroma in {@link #convertYUVtoRGB()}.
+     */
+    public void setBilinearUpsampling(boolean bilinearUpsampling) {
+        this.bilinearUpsampling = bilinearUpsampling;
+    }
+
+    /**
+     * Selects the engine used by {@link #inverseDCT()}. Must be called before {@link #deQuantization()}, since the
+     * scale factors of the engine are folded into the dequantization.
+     */
+    public void setTransform(DCT transform) {
+        this.transform = transform;
+    }
+
+    /**
+     * Selects the scalar or vector kernels (see {@link Kernels#best()}, the default) and the transform engine
+     * matching them, which {@link #setTransform(DCT)} can still replace. Must be called before
+     * {@link #deQuantization()}.
+     */
+    public void setKernels(Kernels kernels) {
+        this.kernels = kernels;
+        this.transform = kernels.transform();
+    }
+
+    /**
+     * Lets {@link #inverseDCT()} skip the coefficients known to be 0 (see {@link SparseIDCT}) and count the blocks
+     * going every way in the given instance; null always runs the full transform. On by default, the output is
+     * identical either way.
+     */
+    public void setSparseInverseDCT(SparseIDCT sparseTransform) {
+        this.sparseTransform = sparseTransform;
+    }
+
+    public SparseIDCT getSparseInverseDCT() {
+        return sparseTransform;
+    }
+
+    /**
+     * Number of threads used by the stages working on lines or blocks, 1 (the default) keeps everything
+     * on the calling thread. The output is identical whatever the level.
+     */
+    public void setParallelism(int parallelism) {
+        this.executor.shutdown();
+        this.executor = new BlockExecutor(parallelism);
+        recorder.setWorkerThreads(executor::getWorkerThreadIds);
+    }
+
+    /**
+     * Receives the measurements of every stage (see {@link StageRecorder}), null (the default) for none.
+     */
+    public void setStageListener(StageListener listener) {
+        recorder.setListener(listener);
+    }
+
+    private long pixels() {
+        return (long) width * height;
+    }
+
+    private long blockCount() {
+        return (long) layout.getMcuCount() * layout.getBlocksPerMcu();
     }
 
     public void convertBlocksToMatrices() {
-        int heightDivided = height / BLOCK_SIZE;
-        int widthDivided = width / BLOCK_SIZE;
-
-        // initialize RGB arrays
-        this.r = new int[height][width];
-        this.g = new int[height][width];
-        this.b = new int[height][width];
-
-        // initialize YUV arrays
-        this.y = new double[height][width];
-        this.u = new double[height][width];
-        this.v = new double[height][width];
-
-        int line = 0;
-        int column = 0;
-        int currentBlock = 0;
-        while (true) {
-            if (column == widthDivided && line == heightDivided - 1) {
-                break;
-            } else if (column == widthDivided) {
-                column = 0;
-                line++;
-            }
-            Block yBlock = yBlocks.get(currentBlock);
-            Block uBlock = uBlocks.get(currentBlock);
-            Block vBlock = vBlocks.get(currentBlock);
-            for (int blockLine = 0; blockLine < BLOCK_SIZE; blockLine++) {
-                for (int blockColumn = 0; blockColumn < BLOCK_SIZE; blockColumn++) {
-                    y[line * BLOCK_SIZE + blockLine][column * BLOCK_SIZE + blockColumn] = yBlock.getValue(blockLine, blockColumn);
-                    u[line * BLOCK_SIZE + blockLine][column * BLOCK_SIZE + blockColumn] = uBlock.getValue(blockLine, blockColumn);
-                    v[line * BLOCK_SIZE + blockLine][column * BLOCK_SIZE + blockColumn] = vBlock.getValue(blockLine, blockColumn);
+        StageRecorder.Stage stage = recorder.start("convertBlocksToMatrices");
+        // every value is overwritten, so a decoder given another image keeps its matrices, unless they hold a region
+        if (r == null || r.length != height || r[0].length != width) {
+            // initialize RGB arrays
+            this.r = new int[height][width];
+            this.g = new int[height][width];
+            this.b = new int[height][width];
+        }
+        if (y == null || y.length != height || y[0].length != width) {
+            // initialize YUV arrays, the chroma ones at their reduced resolution
+            int chromaWidth = (width + subsampling.getHorizontal() - 1) / subsampling.getHorizontal();
+            int chromaHeight = (height + subsampling.getVertical() - 1) / subsampling.getVertical();
+            this.y = new int[height][width];
+            this.u = new int[chromaHeight][chromaWidth];
+            this.v = new int[chromaHeight][chromaWidth];
+        }
+
+        copyBlocks(yPlane, y, 0, 0);
+        copyBlocks(uPlane, u, 0, 0);
+        copyBlocks(vPlane, v, 0, 0);
+        stage.pixels(pixels()).blocks(blockCount()).end();
+    }
+
+    /**
+     * Copies the blocks of the plane into the matrix as fixed-point samples, dropping the padding past its edges.
+     * The matrix holds the samples of the plane from the given line and column on, both multiples of the block size.
+     */
+    private void copyBlocks(Plane plane, int[][] matrix, int planeLine, int planeColumn) {
+        int widthInBlocks = plane.getWidthInBlocks();
+        int firstBlock = planeLine / BLOCK_SIZE * widthInBlocks + planeColumn / BLOCK_SIZE;
+        int matrixHeight = matrix.length;
+        int matrixWidth = matrix[0].length;
+        int matrixWidthInBlocks = (matrixWidth + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int matrixBlocks = (matrixHeight + BLOCK_SIZE - 1) / BLOCK_SIZE * matrixWidthInBlocks;
+        double[] values = plane.getValues();
+        // blocks cover disjoint areas of the matrix, so any split of them can be copied concurrently
+        executor.forRange(matrixBlocks, (from, to) -> {
+            for (int matrixBlock = from; matrixBlock < to; matrixBlock++) {
+                int firstLine = matrixBlock / matrixWidthInBlocks * BLOCK_SIZE;
+                int firstColumn = matrixBlock % matrixWidthInBlocks * BLOCK_SIZE;
+                int lines = Math.min(BLOCK_SIZE, matrixHeight - firstLine);
+                int columns = Math.min(BLOCK_SIZE, matrixWidth - firstColumn);
+                int offset = plane.offset(firstBlock + matrixBlock / matrixWidthInBlocks * widthInBlocks
+                        + matrixBlock % matrixWidthInBlocks);
+                for (int blockLine = 0; blockLine < lines; blockLine++) {
+                    int[] matrixLine = matrix[firstLine + blockLine];
+                    int source = offset + blockLine * BLOCK_SIZE;
+                    for (int column = 0; column < columns; column++) {
+                        matrixLine[firstColumn + column] = ColorConversion.toFixed(values[source + column]);
+                    }
                 }
             }
-            column++;
-            currentBlock++;
+        });
+    }
+
+    /**
+     * The chroma of an image line at full resolution. Nearest upsampling repeats every sample, bilinear upsampling
+     * weights the two closest samples 3/4 and 1/4 in each direction, samples being centered on the pixels they cover.
+     *
+     * @param blended a buffer for the vertical interpolation, as long as a chroma line
+     * @param result  a buffer as long as an image line (or the line of a region starting at an MCU), returned
+     *                unless the chroma is at full resolution
+     */
+    private int[] upsampleLine(int[][] chroma, int line, int[] blended, int[] result) {
+        int[] chromaLine;
+        if (subsampling.getVertical() == 1) {
+            chromaLine = chroma[line];
+        } else if (!bilinearUpsampling) {
+            chromaLine = chroma[line / 2];
+        } else {
+            int nearest = line / 2;
+            int other = line % 2 == 0 ? Math.max(nearest - 1, 0) : Math.min(nearest + 1, chroma.length - 1);
+            int[] nearestLine = chroma[nearest];
+            int[] otherLine = chroma[other];
+            for (int column = 0; column < blended.length; column++) {
+                blended[column] = (3 * nearestLine[column] + otherLine[column] + 2) >> 2;
+            }
+            chromaLine = blended;
+        }
+
+        if (subsampling.getHorizontal() == 1) {
+            return chromaLine;
+        } else if (!bilinearUpsampling) {
+            for (int column = 0; column < result.length; column++) {
+                result[column] = chromaLine[column / 2];
+            }
+        } else {
+            int lastColumn = chromaLine.length - 1;
+            for (int column = 0; column < result.length; column++) {
+                int nearest = column / 2;
+                int other = column % 2 == 0 ? Math.max(nearest - 1, 0) : Math.min(nearest + 1, lastColumn);
+                result[column] = (3 * chromaLine[nearest] + chromaLine[other] + 2) >> 2;
+            }
         }
+        return result;
     }
 
     /**
@@ -80,257 +290,580 @@ public class Decoder {
      * G = Y - 0.395U - 0.581V
      * B = Y + 2.032U
      * taken from: https://www.pcmag.com/encyclopedia/term/yuvrgb-conversion-formulas
+     * computed in fixed point by {@link ColorConversion#yuvToRgb}. The chroma is brought back to full resolution
+     * one line at a time, right before it is used.
      */
     public void convertYUVtoRGB() {
-        for (int line = 0; line < height; line++)
-            for (int column = 0; column < width; column++) {
-
-                double rValue = y[line][column] + 1.140 * v[line][column];
-                double gValue = y[line][column] - 0.395 * u[line][column] - 0.581 * v[line][column];
-                double bValue = y[line][column] + 2.032 * u[line][column];
-
-                if (rValue > this.maxPixelColorValue) rValue = this.maxPixelColorValue;
-                if (gValue > this.maxPixelColorValue) gValue = this.maxPixelColorValue;
-                if (bValue > this.maxPixelColorValue) bValue = this.maxPixelColorValue;
-
-                if (rValue < this.minPixelColorValue) rValue = this.minPixelColorValue;
-                if (gValue < this.minPixelColorValue) gValue = this.minPixelColorValue;
-                if (bValue < this.minPixelColorValue) bValue = this.minPixelColorValue;
+        StageRecorder.Stage stage = recorder.start("convertYUVtoRGB");
+        toRgb(width, height);
+        stage.pixels(pixels()).end();
+    }
 
-                this.r[line][column] = (int) rValue;
-                this.g[line][column] = (int) gValue;
-                this.b[line][column] = (int) bValue;
+    /**
+     * Converts the YUV matrices, holding an image of the given size, into the RGB matrices.
+     */
+    private void toRgb(int imageWidth, int imageHeight) {
+        outputWidth = imageWidth;
+        outputHeight = imageHeight;
+        executor.forRange(imageHeight, (from, to) -> {
+            int[] blended = new int[u[0].length];
+            int[] uUpsampled = new int[imageWidth];
+            int[] vUpsampled = new int[imageWidth];
+            for (int line = from; line < to; line++) {
+                int[] uLine = upsampleLine(u, line, blended, uUpsampled);
+                int[] vLine = upsampleLine(v, line, blended, vUpsampled);
+                kernels.yuvToRgb(y[line], uLine, vLine, r[line], g[line], b[line], imageWidth);
             }
+        });
     }
 
-    private double alpha(int value) {
-        return value > 0 ? 1 : (1 / Math.sqrt(2.0));
+    /**
+     * Decodes the image at 1/scale of its width and height (scale 1, 2, 4 or 8) into RGB matrices of that size
+     * (see {@link #getR()}) which {@link #writePPMImage()} then writes, in place of the stages from
+     * {@link #entropyDecoding()} to {@link #convertYUVtoRGB()}. Every block goes straight from its quantized
+     * coefficients to 8/scale x 8/scale samples (see {@link ScaledIDCT}), the DC alone at 1/8, so that the
+     * dequantization, the transform and the color conversion only work on the small image. Scale 1 runs the usual
+     * stages.
+     */
+    public void decodeScaled(int scale) {
+        if (scale != 1 && scale != 2 && scale != 4 && scale != 8) {
+            throw new IllegalArgumentException("The scale must be 1, 2, 4 or 8");
+        }
+        if (compressedImage != null && compressedImage.getMcuModes() != null) {
+            throw new IllegalStateException("A frame coded against the previous one cannot be decoded scaled");
+        }
+        entropyDecoding();
+        if (scale == 1) {
+            deQuantization();
+            inverseDCT();
+            convertBlocksToMatrices();
+            convertYUVtoRGB();
+            return;
+        }
+
+        StageRecorder.Stage stage = recorder.start("scaledInverseDCT");
+        int scaledWidth = (width + scale - 1) / scale;
+        int scaledHeight = (height + scale - 1) / scale;
+        int chromaWidth = ((width + subsampling.getHorizontal() - 1) / subsampling.getHorizontal() + scale - 1) / scale;
+        int chromaHeight = ((height + subsampling.getVertical() - 1) / subsampling.getVertical() + scale - 1) / scale;
+        this.y = new int[scaledHeight][scaledWidth];
+        this.u = new int[chromaHeight][chromaWidth];
+        this.v = new int[chromaHeight][chromaWidth];
+        scaleBlocks(yCoefficients, y, BLOCK_SIZE / scale);
+        scaleBlocks(uCoefficients, u, BLOCK_SIZE / scale);
+        scaleBlocks(vCoefficients, v, BLOCK_SIZE / scale);
+        long scaledPixels = (long) scaledWidth * scaledHeight;
+        stage.pixels(scaledPixels).blocks(blockCount()).end();
+
+        stage = recorder.start("convertYUVtoRGB");
+        this.r = new int[scaledHeight][scaledWidth];
+        this.g = new int[scaledHeight][scaledWidth];
+        this.b = new int[scaledHeight][scaledWidth];
+        toRgb(scaledWidth, scaledHeight);
+        stage.pixels(scaledPixels).end();
     }
 
-    private double blockCosProduct(Block block, int u, int v) {
-        double sum = 0;
-        for (int x = 0; x < BLOCK_SIZE; x++) {
-            for (int y = 0; y < BLOCK_SIZE; y++) {
-                // Before applying the Forward DCT, you should subtract 128 from each value of every 8x8 Y/Cb/Cr block
-                sum += Math.cos(((2 * u + 1) * x * Math.PI) / 16) *
-                        Math.cos(((2 * v + 1) * y * Math.PI) / 16) *
-                        block.getValue(x, y) *
-                        alpha(x) *
-                        alpha(y);
+    /**
+     * Transforms every block of the plane into size x size fixed-point samples of the matrix, dropping the padding
+     * past its edges.
+     */
+    private void scaleBlocks(CoefficientPlane plane, int[][] matrix, int size) {
+        int widthInBlocks = plane.getWidthInBlocks();
+        int matrixHeight = matrix.length;
+        int matrixWidth = matrix[0].length;
+        int[] quantized = plane.getValues();
+        executor.forRange(plane.getBlockCount(), (from, to) -> {
+            ScaledIDCT transform = new ScaledIDCT(size, quantizationTable);
+            double[] samples = new double[size * size];
+            for (int block = from; block < to; block++) {
+                int firstLine = block / widthInBlocks * size;
+                int firstColumn = block % widthInBlocks * size;
+                int lines = Math.min(size, matrixHeight - firstLine);
+                int columns = Math.min(size, matrixWidth - firstColumn);
+                if (lines <= 0 || columns <= 0) {
+                    continue;
+                }
+                transform.inverse(quantized, plane.offset(block), samples);
+                for (int line = 0; line < lines; line++) {
+                    int[] matrixLine = matrix[firstLine + line];
+                    for (int column = 0; column < columns; column++) {
+                        matrixLine[firstColumn + column] = ColorConversion.toFixed(samples[line * size + column] + 128);
+                    }
+                }
             }
+        });
+    }
+
+    /**
+     * Decodes only the part of the image in the given rectangle, into RGB matrices of its size (see {@link #getR()})
+     * which {@link #writePPMImage()} then writes, in place of the stages from {@link #entropyDecoding()} to
+     * {@link #convertYUVtoRGB()}. Only the MCUs overlapping the rectangle, and the chroma samples next to it which
+     * the upsampling blends in, are dequantized, transformed and converted, so the result is the same area of the
+     * whole image decoded.
+     * The entropy decoding of an image with a row index (see {@link Encoder#setRowIndex(boolean)}) starts at the
+     * first row of these MCUs and stops at the last one on every row; without an index it starts at the slice
+     * holding the first of them (see {@link Encoder#setRestartInterval(int)}), or at the start of the image.
+     */
+    public void decodeRegion(int x, int y, int regionWidth, int regionHeight) {
+        if (x < 0 || y < 0 || regionWidth <= 0 || regionHeight <= 0
+                || x + regionWidth > width || y + regionHeight > height) {
+            throw new IllegalArgumentException("The region is not inside the image");
         }
-        return sum;
+        if (compressedImage != null && compressedImage.getMcuModes() != null) {
+            throw new IllegalStateException("A frame coded against the previous one cannot be decoded in part");
+        }
+        int horizontal = subsampling.getHorizontal();
+        int vertical = subsampling.getVertical();
+        int mcuWidth = subsampling.getMcuWidth();
+        int mcuHeight = subsampling.getMcuHeight();
+        int firstColumn = Math.max(x - horizontal, 0) / mcuWidth;
+        int lastColumn = (Math.min(x + regionWidth + horizontal, width) - 1) / mcuWidth;
+        int firstRow = Math.max(y - vertical, 0) / mcuHeight;
+        int lastRow = (Math.min(y + regionHeight + vertical, height) - 1) / mcuHeight;
+
+        entropyDecoding(firstRow, lastRow, firstColumn, lastColumn);
+        deQuantization();
+        inverseDCT();
+
+        StageRecorder.Stage stage = recorder.start("convertBlocksToMatrices");
+        // the area of the decoded MCUs inside the image
+        int left = firstColumn * mcuWidth;
+        int top = firstRow * mcuHeight;
+        int right = Math.min((lastColumn + 1) * mcuWidth, width);
+        int bottom = Math.min((lastRow + 1) * mcuHeight, height);
+        int chromaRight = (right + horizontal - 1) / horizontal;
+        int chromaBottom = (bottom + vertical - 1) / vertical;
+        this.y = new int[bottom - top][right - left];
+        this.u = new int[chromaBottom - top / vertical][chromaRight - left / horizontal];
+        this.v = new int[chromaBottom - top / vertical][chromaRight - left / horizontal];
+        copyBlocks(yPlane, this.y, top, left);
+        copyBlocks(uPlane, u, top / vertical, left / horizontal);
+        copyBlocks(vPlane, v, top / vertical, left / horizontal);
+        long regionPixels = (long) regionWidth * regionHeight;
+        stage.pixels(regionPixels).end();
+
+        stage = recorder.start("convertYUVtoRGB");
+        this.r = new int[regionHeight][regionWidth];
+        this.g = new int[regionHeight][regionWidth];
+        this.b = new int[regionHeight][regionWidth];
+        outputWidth = regionWidth;
+        outputHeight = regionHeight;
+        int areaWidth = right - left;
+        executor.forRange(regionHeight, (from, to) -> {
+            int[] blended = new int[u[0].length];
+            int[] uUpsampled = new int[areaWidth];
+            int[] vUpsampled = new int[areaWidth];
+            int[] rLine = new int[areaWidth], gLine = new int[areaWidth], bLine = new int[areaWidth];
+            for (int line = from; line < to; line++) {
+                int areaLine = y + line - top;
+                int[] uLine = upsampleLine(u, areaLine, blended, uUpsampled);
+                int[] vLine = upsampleLine(v, areaLine, blended, vUpsampled);
+                kernels.yuvToRgb(this.y[areaLine], uLine, vLine, rLine, gLine, bLine, areaWidth);
+                System.arraycopy(rLine, x - left, r[line], 0, regionWidth);
+                System.arraycopy(gLine, x - left, g[line], 0, regionWidth);
+                System.arraycopy(bLine, x - left, b[line], 0, regionWidth);
+            }
+        });
+        stage.pixels(regionPixels).end();
     }
 
+    /**
+     * For a frame coded against the previous one, only the blocks in its data are transformed, the others keep
+     * the samples of the previous frame, and the moved MCUs are then copied from their place in the previous frame.
+     */
     public void inverseDCT() {
-        Arrays.asList(yBlocks, uBlocks, vBlocks).forEach(
-                blocks -> blocks.forEach(block -> {
-                            // create a new block which will replace the previous
-                            Block NonDCTBlock = new Block(BLOCK_SIZE, block.getLine(), block.getColumn());
-                            for (int u = 0; u < BLOCK_SIZE; u++) {
-                                for (int v = 0; v < BLOCK_SIZE; v++) {
-                                    // apply the formula
-                                    double Guv = 0.25 * blockCosProduct(block, u, v);
-                                    // do not forget to add 128 to each value of every 8x8 Y/Cb/Cr block obtained
-                                    NonDCTBlock.modifyValue(Guv + 128, u, v);
-                                }
-                            }
-                            blocks.set(block.getLine() * this.width / BLOCK_SIZE + block.getColumn(), NonDCTBlock);
-                        }
-                )
-        );
+        StageRecorder.Stage stage = recorder.start("inverseDCT");
+        for (int component = McuLayout.Y; component <= McuLayout.V; component++) {
+            Plane plane = plane(component);
+            boolean[] coded = codedBlocks == null ? null : codedBlocks[component];
+            byte[] last = lastIndices[component];
+            executor.forRange(plane.getBlockCount(), (from, to) -> {
+                double[] values = plane.getValues();
+                for (int index = from; index < to; index++) {
+                    if (coded != null && !coded[index]) {
+                        continue;
+                    }
+                    int offset = plane.offset(index);
+                    // the samples replace the coefficients
+                    if (sparseTransform != null) {
+                        sparseTransform.inverse(transform, values, offset, last[index]);
+                    } else {
+                        transform.inverse(values, offset);
+                    }
+                    // do not forget to add 128 to each value of every 8x8 Y/Cb/Cr block obtained
+                    for (int position = offset; position < offset + BLOCK_AREA; position++) {
+                        values[position] += 128;
+                    }
+                }
+            });
+        }
+        if (usesReference) {
+            moveMcus();
+        }
+        stage.pixels(pixels()).blocks(blockCount()).end();
     }
 
-    public void deQuantization() {
-        Arrays.asList(yBlocks, uBlocks, vBlocks).forEach(
-                blocks -> blocks.forEach(block -> {
-                            for (int line = 0; line < BLOCK_SIZE; line++) {
-                                for (int column = 0; column < BLOCK_SIZE; column++) {
-                                    block.modifyValue(
-                                            block.getValue(line, column) * QuantizationMatrix.values[line][column],
-                                            line,
-                                            column
-                                    );
-                                }
-                            }
-                        }
-                )
-        );
-    }
-
-    private int[][] zigZagMatrix(Entropy entropy) {
-        int m, n;
-        m = n = BLOCK_SIZE;
-        int[][] result = new int[][]{
-                {0, 0, 0, 0, 0, 0, 0, 0},
-                {0, 0, 0, 0, 0, 0, 0, 0},
-                {0, 0, 0, 0, 0, 0, 0, 0},
-                {0, 0, 0, 0, 0, 0, 0, 0},
-                {0, 0, 0, 0, 0, 0, 0, 0},
-                {0, 0, 0, 0, 0, 0, 0, 0},
-                {0, 0, 0, 0, 0, 0, 0, 0},
-                {0, 0, 0, 0, 0, 0, 0, 0}
-        };
-        int index = 0;
-
-        int row = 0, col = 0;
-
-        // Boolean variable that will true if we
-        // need to increment 'row' value otherwise
-        // false- if increment 'col' value
-        boolean row_inc = false;
-
-        // Print matrix of lower half zig-zag pattern
-        int currentACIndex = 0;
-        boolean zeroSequence = false;
-
-        int mn = Math.min(m, n);
-        for (int len = 1; len <= mn; ++len) {
-            for (int i = 0; i < len; ++i) {
-                if (row == 0 && col == 0){
-                    result[0][0] = entropy.dc.getAmplitude();
-                }
-                else if (entropy.acList.get(currentACIndex).getSize() != 0 || entropy.acList.get(currentACIndex).getAmplitude() != 0)
-                    if (entropy.acList.get(currentACIndex).getRunLength() > 0) {
-                        zeroSequence = true;
-                        entropy.acList.get(currentACIndex).decrementRunLength();
-                    } else if (entropy.acList.get(currentACIndex).getRunLength() == 0 && zeroSequence) {
-                        currentACIndex++;
-                        zeroSequence = false;
-                    } else {
-                        result[row][col] = entropy.acList.get(currentACIndex).getAmplitude();
-                        currentACIndex++;
+    /**
+     * Copies every moved MCU from the previous frame, displaced by its motion vector.
+     */
+    private void moveMcus() {
+        byte[] modes = compressedImage.getMcuModes();
+        byte[] vectors = compressedImage.getMotionVectors();
+        int vector = 0;
+        for (int mcu = 0; mcu < modes.length; mcu++) {
+            if (modes[mcu] != ConditionalReplenishment.MOVED) {
+                continue;
+            }
+            int dx = vectors[vector++];
+            int dy = vectors[vector++];
+            for (int component = McuLayout.Y; component <= McuLayout.V; component++) {
+                int horizontal = component == McuLayout.Y ? 1 : subsampling.getHorizontal();
+                int vertical = component == McuLayout.Y ? 1 : subsampling.getVertical();
+                int columns = subsampling.getMcuWidth() / horizontal;
+                int lines = subsampling.getMcuHeight() / vertical;
+                int firstColumn = mcu % layout.getMcuColumns() * columns;
+                int firstLine = mcu / layout.getMcuColumns() * lines;
+                Plane plane = plane(component);
+                double[] values = plane.getValues();
+                double[] previous = reference[component];
+                for (int line = firstLine; line < firstLine + lines; line++) {
+                    for (int column = firstColumn; column < firstColumn + columns; column++) {
+                        values[sampleIndex(plane, line, column)] =
+                                previous[sampleIndex(plane, line + dy / vertical, column + dx / horizontal)];
                     }
-                index++;
-
-                if (i + 1 == len)
-                    break;
-                // If row_increment value is true
-                // increment row and decrement col
-                // else decrement row and increment
-                // col
-                if (row_inc) {
-                    ++row;
-                    --col;
-                } else {
-                    --row;
-                    ++col;
                 }
             }
+        }
+    }
 
-            if (len == mn)
-                break;
+    private static int sampleIndex(Plane plane, int line, int column) {
+        int block = line / BLOCK_SIZE * plane.getWidthInBlocks() + column / BLOCK_SIZE;
+        return plane.offset(block) + line % BLOCK_SIZE * BLOCK_SIZE + column % BLOCK_SIZE;
+    }
+
+    private void deQuantize(CoefficientPlane coefficients, Plane plane, double[] multipliers, boolean[] coded) {
+        int[] quantized = coefficients.getValues();
+        double[] values = plane.getValues();
+        executor.forRange(plane.getBlockCount(), (from, to) -> {
+            if (coded == null) {
+                kernels.dequantize(quantized, values, from, to, multipliers);
+                return;
+            }
+            for (int block = from; block < to; block++) {
+                if (coded[block]) {
+                    kernels.dequantize(quantized, values, block, block + 1, multipliers);
+                }
+            }
+        });
+    }
 
-            // Update row or col value according
-            // to the last increment
-            if (row_inc) {
-                ++row;
-                row_inc = false;
-            } else {
-                ++col;
-                row_inc = true;
+    public void deQuantization() {
+        StageRecorder.Stage stage = recorder.start("deQuantization");
+        // the scale factors expected by the transform engine are folded into the multipliers
+        double[] multipliers = new double[BLOCK_AREA];
+        for (int line = 0; line < BLOCK_SIZE; line++) {
+            for (int column = 0; column < BLOCK_SIZE; column++) {
+                multipliers[line * BLOCK_SIZE + column] =
+                        quantizationTable[line * BLOCK_SIZE + column] * transform.inverseScale(line, column);
             }
         }
+        // the planes still hold the previous frame, which the moved MCUs are copied from
+        boolean moved = compressedImage != null && compressedImage.getMotionVectors() != null
+                && compressedImage.getMotionVectors().length > 0;
+        if (moved && reference == null) {
+            reference = new double[][]{new double[yPlane.getValues().length], new double[uPlane.getValues().length],
+                    new double[vPlane.getValues().length]};
+        }
+        usesReference = moved;
+        for (int component = McuLayout.Y; moved && component <= McuLayout.V; component++) {
+            double[] values = plane(component).getValues();
+            System.arraycopy(values, 0, reference[component], 0, values.length);
+        }
+        for (int component = McuLayout.Y; component <= McuLayout.V; component++) {
+            deQuantize(coefficients(component), plane(component), multipliers,
+                    codedBlocks == null ? null : codedBlocks[component]);
+        }
+        stage.pixels(pixels()).blocks(blockCount()).end();
+    }
 
-        // Update the indexes of row and col variable
-        if (row == 0) {
-            if (col == m - 1)
-                ++row;
-            else
-                ++col;
-            row_inc = true;
+    /**
+     * Decodes the image the decoder was built from: the Huffman coded data of a compressed image, or the symbols
+     * of an encoded image. The rows of MCUs of an encoded image, and the slices of a compressed image with restart
+     * intervals (see {@link Encoder#setRestartInterval(int)}), are decoded in parallel, each range with its own cursor.
+     */
+    public void entropyDecoding() {
+        StageRecorder.Stage stage = recorder.start("entropyDecoding");
+        codedBlocks = null;
+        if (compressedImage != null && compressedImage.getSliceTable() != null) {
+            EntropyCoder coder = new EntropyCoder(compressedImage.getDcTable(), compressedImage.getAcTable());
+            byte[] data = compressedImage.getData();
+            SliceTable slices = compressedImage.getSliceTable();
+            int interval = slices.getRestartInterval();
+            if (slices.getCount() != SliceTable.count(layout.getMcuCount(), interval)) {
+                throw new RuntimeException("Format not supported");
+            }
+            executor.forRange(slices.getCount(), (from, to) -> {
+                for (int slice = from; slice < to; slice++) {
+                    EntropyCoder.Cursor cursor = coder.cursor(data, slices, slice);
+                    int lastMcu = Math.min((slice + 1) * interval, layout.getMcuCount());
+                    for (int mcu = slice * interval; mcu < lastMcu; mcu++) {
+                        for (int block = 0; block < layout.getBlocksPerMcu(); block++) {
+                            int component = layout.component(block);
+                            CoefficientPlane plane = coefficients(component);
+                            int index = layout.blockIndex(mcu, block);
+                            lastIndices[component][index] =
+                                    (byte) cursor.decodeBlock(component, plane.getValues(), plane.offset(index));
+                        }
+                    }
+                }
+            });
+            stage.bytesRead(data.length);
+        } else if (compressedImage != null) {
+            EntropyCoder.Cursor cursor = new EntropyCoder(compressedImage.getDcTable(), compressedImage.getAcTable())
+                    .cursor(compressedImage.getData());
+            // a frame coded against the previous one only holds the MCUs it codes
+            byte[] modes = compressedImage.getMcuModes();
+            if (modes != null) {
+                codedBlocks = new boolean[][]{new boolean[yPlane.getBlockCount()], new boolean[uPlane.getBlockCount()],
+                        new boolean[vPlane.getBlockCount()]};
+            }
+            for (int mcu = 0; mcu < layout.getMcuCount(); mcu++) {
+                if (modes != null && modes[mcu] != ConditionalReplenishment.CODED) {
+                    continue;
+                }
+                for (int block = 0; block < layout.getBlocksPerMcu(); block++) {
+                    int component = layout.component(block);
+                    CoefficientPlane plane = coefficients(component);
+                    int index = layout.blockIndex(mcu, block);
+                    lastIndices[component][index] =
+                            (byte) cursor.decodeBlock(component, plane.getValues(), plane.offset(index));
+                    if (codedBlocks != null) {
+                        codedBlocks[component][index] = true;
+                    }
+                }
+            }
+            stage.bytesRead(compressedImage.getData().length);
+        } else if (encodedImage != null) {
+            int mcuColumns = layout.getMcuColumns();
+            executor.forRange(encodedImage.getMcuRows(), (from, to) -> {
+                SymbolCursor cursor = encodedImage.cursor(from);
+                for (int mcu = from * mcuColumns; mcu < to * mcuColumns; mcu++) {
+                    for (int block = 0; block < layout.getBlocksPerMcu(); block++) {
+                        int component = layout.component(block);
+                        CoefficientPlane plane = coefficients(component);
+                        int index = layout.blockIndex(mcu, block);
+                        lastIndices[component][index] =
+                                (byte) cursor.decodeBlock(plane.getValues(), plane.offset(index));
+                    }
+                }
+            });
+            stage.symbols(encodedImage.getSymbolCount());
         } else {
-            if (row == n - 1)
-                ++col;
-            else
-                ++row;
-            row_inc = false;
+            throw new IllegalStateException("The decoder was not built from an encoded image");
         }
+        stage.pixels(pixels()).blocks(blockCount()).end();
+    }
 
-        // Print the next half zig-zag pattern
-        int MAX = Math.max(m, n) - 1;
-        for (int len, diag = MAX; diag > 0; --diag) {
-
-            if (diag > mn)
-                len = mn;
-            else
-                len = diag;
-
-            for (int i = 0; i < len; ++i) {
-                if (entropy.acList.get(currentACIndex).getSize() != 0 || entropy.acList.get(currentACIndex).getAmplitude() != 0)
-                    if (entropy.acList.get(currentACIndex).getRunLength() > 0) {
-                        zeroSequence = true;
-                        entropy.acList.get(currentACIndex).decrementRunLength();
-                    } else if (entropy.acList.get(currentACIndex).getRunLength() == 0 && zeroSequence) {
-                        currentACIndex++;
-                        zeroSequence = false;
-                    } else {
-                        result[row][col] = entropy.acList.get(currentACIndex).getAmplitude();
-                        currentACIndex++;
+    /**
+     * Decodes the MCUs from firstColumn to lastColumn (inclusive) of the rows from firstRow to lastRow, marking
+     * their blocks as the coded ones so that the next stages leave the others alone.
+     */
+    private void entropyDecoding(int firstRow, int lastRow, int firstColumn, int lastColumn) {
+        StageRecorder.Stage stage = recorder.start("entropyDecoding");
+        codedBlocks = new boolean[][]{new boolean[yPlane.getBlockCount()], new boolean[uPlane.getBlockCount()],
+                new boolean[vPlane.getBlockCount()]};
+        int mcuColumns = layout.getMcuColumns();
+        // the blocks decoded on the way to the region
+        int[] skipped = new int[BLOCK_AREA];
+        long blocks = 0;
+        if (compressedImage != null) {
+            EntropyCoder coder = new EntropyCoder(compressedImage.getDcTable(), compressedImage.getAcTable());
+            byte[] data = compressedImage.getData();
+            RowIndex rowIndex = compressedImage.getRowIndex();
+            if (rowIndex != null
+                    && (rowIndex.getMcusPerRow() != mcuColumns || rowIndex.getRows() != layout.getMcuRows())) {
+                throw new RuntimeException("Format not supported");
+            }
+            SliceTable slices = compressedImage.getSliceTable();
+            int interval = slices == null ? 0 : slices.getRestartInterval();
+            // the MCU the cursor starts at, any later slice needs a cursor of its own
+            int start = 0;
+            EntropyCoder.Cursor cursor = null;
+            if (rowIndex == null && slices != null) {
+                start = firstRow * mcuColumns / interval * interval;
+                cursor = coder.cursor(data, slices, start / interval);
+            } else if (rowIndex == null) {
+                cursor = coder.cursor(data);
+            }
+            for (int row = rowIndex == null ? start / mcuColumns : firstRow; row <= lastRow; row++) {
+                if (rowIndex != null) {
+                    start = row * mcuColumns;
+                    cursor = coder.cursor(data, rowIndex, row);
+                }
+                int columns = rowIndex != null || row == lastRow ? lastColumn + 1 : mcuColumns;
+                for (int column = 0; column < columns; column++) {
+                    int mcu = row * mcuColumns + column;
+                    if (mcu < start) {
+                        continue;
+                    }
+                    if (interval > 0 && mcu % interval == 0 && mcu != start) {
+                        cursor = coder.cursor(data, slices, mcu / interval);
+                    }
+                    boolean inside = row >= firstRow && column >= firstColumn;
+                    for (int block = 0; block < layout.getBlocksPerMcu(); block++) {
+                        int component = layout.component(block);
+                        if (inside) {
+                            CoefficientPlane plane = coefficients(component);
+                            int index = layout.blockIndex(mcu, block);
+                            lastIndices[component][index] =
+                                    (byte) cursor.decodeBlock(component, plane.getValues(), plane.offset(index));
+                            codedBlocks[component][index] = true;
+                        } else {
+                            cursor.decodeBlock(component, skipped, 0);
+                        }
+                        blocks++;
+                    }
+                }
+            }
+        } else if (encodedImage != null) {
+            for (int row = firstRow; row <= lastRow; row++) {
+                SymbolCursor cursor = encodedImage.cursor(row);
+                for (int column = 0; column <= lastColumn; column++) {
+                    int mcu = row * mcuColumns + column;
+                    for (int block = 0; block < layout.getBlocksPerMcu(); block++) {
+                        int component = layout.component(block);
+                        if (column >= firstColumn) {
+                            CoefficientPlane plane = coefficients(component);
+                            int index = layout.blockIndex(mcu, block);
+                            lastIndices[component][index] =
+                                (byte) cursor.decodeBlock(plane.getValues(), plane.offset(index));
+                            codedBlocks[component][index] = true;
+                        } else {
+                            cursor.decodeBlock(skipped, 0);
+                        }
+                        blocks++;
                     }
-                index++;
-
-                if (i + 1 == len)
-                    break;
-
-                // Update row or col value according
-                // to the last increment
-                if (row_inc) {
-                    ++row;
-                    --col;
-                } else {
-                    ++col;
-                    --row;
                 }
             }
+        } else {
+            throw new IllegalStateException("The decoder was not built from an encoded image");
+        }
+        stage.blocks(blocks).end();
+    }
+
+    private Plane plane(int component) {
+        if (component == McuLayout.U) {
+            return uPlane;
+        } else if (component == McuLayout.V) {
+            return vPlane;
+        }
+        return yPlane;
+    }
 
-            // Update the indexes of row and col variable
-            if (row == 0 || col == m - 1) {
-                if (col == m - 1)
-                    ++row;
-                else
-                    ++col;
-
-                row_inc = true;
-            } else if (col == 0 || row == n - 1) {
-                if (row == n - 1)
-                    ++col;
-                else
-                    ++row;
-
-                row_inc = false;
+    private CoefficientPlane coefficients(int component) {
+        if (component == McuLayout.U) {
+            return uCoefficients;
+        } else if (component == McuLayout.V) {
+            return vCoefficients;
+        }
+        return yCoefficients;
+    }
+
+    /**
+     * Places the coefficients of the entropy encoding at their zig-zag positions. The encoding is only read.
+     *
+     * @return the zig-zag index of the last non-zero AC coefficient of the block, 0 if there is none
+     */
+    private static int decodeBlock(Entropy entropy, CoefficientPlane plane, int block) {
+        int[] values = plane.getValues();
+        int offset = plane.offset(block);
+        Arrays.fill(values, offset, offset + BLOCK_AREA, 0);
+        values[offset] = entropy.dc.getAmplitude();
+        int lastIndex = 0;
+        int position = 1;
+        for (AC ac : entropy.acList) {
+            if (ac.getAmplitude() == 0) {
+                // the trailing zeros of the block
+                break;
             }
+            position += ac.getRunLength();
+            lastIndex = position;
+            values[offset + ZigZag.ORDER[position++]] = ac.getAmplitude();
         }
-        return result;
+        return lastIndex;
     }
 
+    /**
+     * Decodes the blocks of the list, expected in coding order, MCU after MCU.
+     */
     public void entropyDecoding(List<Entropy> entropyList) {
-        for (int index = 0; index < entropyList.size(); index++) {
-            if (index % 3 == 0) {
-                yBlocks.get(index / 3).modifyValues(zigZagMatrix(entropyList.get(index)));
-            } else if (index % 3 == 1) {
-                uBlocks.get(index / 3).modifyValues(zigZagMatrix(entropyList.get(index)));
-            } else {
-                vBlocks.get(index / 3).modifyValues(zigZagMatrix(entropyList.get(index)));
+        StageRecorder.Stage stage = recorder.start("entropyDecoding");
+        codedBlocks = null;
+        int blocksPerMcu = layout.getBlocksPerMcu();
+        executor.forRange(entropyList.size(), (from, to) -> {
+            for (int index = from; index < to; index++) {
+                int block = index % blocksPerMcu;
+                int component = layout.component(block);
+                int blockIndex = layout.blockIndex(index / blocksPerMcu, block);
+                lastIndices[component][blockIndex] =
+                        (byte) decodeBlock(entropyList.get(index), coefficients(component), blockIndex);
             }
-        }
+        });
+        stage.pixels(pixels()).blocks(blockCount()).end();
+    }
+
+    /**
+     * Chooses between binary P6 output (the default) and ASCII P3 output, with one value per line.
+     */
+    public void setBinaryOutput(boolean binaryOutput) {
+        this.binaryOutput = binaryOutput;
+    }
+
+    /**
+     * Makes {@link #convertYUVtoRGB()} write into the given matrices, as large as the image, instead of matrices
+     * of its own, e.g. the buffers of the frames of a sequence.
+     */
+    public void setOutput(int[][] r, int[][] g, int[][] b) {
+        this.r = r;
+        this.g = g;
+        this.b = b;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Subsampling getSubsampling() {
+        return subsampling;
+    }
+
+    /**
+     * The RGB matrices hold the whole image, or the region of {@link #decodeRegion} or the small image of
+     * {@link #decodeScaled} after them.
+     */
+    public int[][] getR() {
+        return r;
+    }
+
+    public int[][] getG() {
+        return g;
+    }
+
+    public int[][] getB() {
+        return b;
     }
 
     public void writePPMImage() throws IOException {
-        FileWriter fileWriter = new FileWriter(filename);
-        PrintWriter printWriter = new PrintWriter(fileWriter);
-
-        printWriter.println("P3");
-        printWriter.println("800 600");
-        printWriter.println("255");
-        for (int line = 0; line < height; line++) {
-            for (int column = 0; column < width; column++) {
-                printWriter.println(this.r[line][column]);
-                printWriter.println(this.g[line][column]);
-                printWriter.println(this.b[line][column]);
-            }
+        StageRecorder.Stage stage = recorder.start("writePPMImage");
+        if (binaryOutput) {
+            PPMWriter.writeP6(filename, r, g, b, outputWidth, outputHeight);
+        } else {
+            PPMWriter.writeP3(filename, r, g, b, outputWidth, outputHeight);
         }
-
-        printWriter.close();
+        stage.pixels((long) outputWidth * outputHeight).fileWritten(filename).end();
     }
 }
@@ -0,0 +1,26 @@
+package pdav.tudor.domain;
+
+import pdav.tudor.domain.entropy.SymbolBuffer;
+
+/**
+ * The entropy symbols of one band of the image, which is one row of MCUs: 8 image lines, or 16 with 4:2:0
+ * subsampling (see {@link Subsampling#getMcuHeight()}). The blocks are in MCU order exactly like in
+ * {@link Encoder#getSymbols()}, so concatenating the bands in order gives the whole image.
+ */
+public class EncodedBand {
+    private final int index;
+    private final SymbolBuffer symbols;
+
+    public EncodedBand(int index, SymbolBuffer symbols) {
+        this.index = index;
+        this.symbols = symbols;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public SymbolBuffer getSymbols() {
+        return symbols;
+    }
+}
@@ -0,0 +1,62 @@
+package pdav.tudor.domain;
+
+import pdav.tudor.domain.entropy.SymbolCursor;
+
+/**
+ * The entropy symbols of a whole image, with what is needed to decode them. The image cannot be modified once built,
+ * so it can be cached and decoded many times, by many threads at once.
+ * The start of every row of minimum coded units is recorded, letting a decoder split the rows between threads.
+ */
+public class EncodedImage {
+    private final int width;
+    private final int height;
+    private final Subsampling subsampling;
+    private final int[] quantizationTable;
+    private final int[] symbols;
+    private final int[] rowStarts;
+
+    /**
+     * @param symbols   packed symbols of the minimum coded units, in coding order, see {@link McuLayout}
+     * @param rowStarts index of the first symbol of every row of minimum coded units
+     */
+    public EncodedImage(int width, int height, Subsampling subsampling, int[] quantizationTable, int[] symbols,
+                        int[] rowStarts) {
+        this.width = width;
+        this.height = height;
+        this.subsampling = subsampling;
+        this.quantizationTable = quantizationTable.clone();
+        this.symbols = symbols.clone();
+        this.rowStarts = rowStarts.clone();
+    }
+
+    /**
+     * A cursor positioned on the first block of the given row of minimum coded units.
+     */
+    public SymbolCursor cursor(int row) {
+        return new SymbolCursor(symbols, rowStarts[row]);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Subsampling getSubsampling() {
+        return subsampling;
+    }
+
+    public int getMcuRows() {
+        return rowStarts.length;
+    }
+
+    public int[] getQuantizationTable() {
+        return quantizationTable.clone();
+    }
+
+    public int getSymbolCount() {
+        return symbols.length;
+    }
+}
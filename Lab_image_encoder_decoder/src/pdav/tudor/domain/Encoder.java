@@ -1,94 +1,229 @@
 package pdav.tudor.domain;
 
-import pdav.tudor.domain.entropy.AC;
-import pdav.tudor.domain.entropy.DC;
 import pdav.tudor.domain.entropy.Entropy;
+import pdav.tudor.domain.entropy.EntropyCoder;
+import pdav.tudor.domain.entropy.RowIndex;
+import pdav.tudor.domain.entropy.SliceTable;
+import pdav.tudor.domain.entropy.SymbolBuffer;
+import pdav.tudor.domain.entropy.ZigZag;
+import pdav.tudor.domain.io.CompressedImage;
+import pdav.tudor.domain.io.P3ScanlineReader;
+import pdav.tudor.domain.io.P6ScanlineReader;
+import pdav.tudor.domain.io.ScanlineReader;
+import pdav.tudor.domain.metrics.StageListener;
+import pdav.tudor.domain.metrics.StageRecorder;
+import pdav.tudor.domain.transform.DCT;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 public class Encoder {
-    private final static int BLOCK_SIZE = 8;
+    private final static int BLOCK_SIZE = Plane.BLOCK_SIZE;
+    private final static int BLOCK_AREA = Plane.BLOCK_AREA;
     private final String filename;
     private int width;
     private int height;
     private int[][] r;
     private int[][] g;
     private int[][] b;
-    private double[][] y;
-    private double[][] u;
-    private double[][] v;
-    private List<Block> yBlocks;
-    private List<Block> uBlocks;
-    private List<Block> vBlocks;
-    private List<Entropy> entropyList;
+    private int[][] y;
+    private int[][] u;
+    private int[][] v;
+    private Plane yPlane;
+    private Plane uPlane;
+    private Plane vPlane;
+    private CoefficientPlane yCoefficients;
+    private CoefficientPlane uCoefficients;
+    private CoefficientPlane vCoefficients;
+    private SymbolBuffer symbols;
+    private int[] rowStarts;
+    private Kernels kernels = Kernels.best();
+    private DCT transform = kernels.transform();
+    private BlockExecutor executor = BlockExecutor.serial();
+    private int[] quantizationTable = QuantizationMatrix.flatten();
+    private boolean optimizedHuffmanTables;
+    private boolean rowIndex = true;
+    private int restartInterval;
+    private Subsampling subsampling = Subsampling.YUV420;
+    private final StageRecorder recorder = new StageRecorder("encoder");
+    private ConditionalReplenishment replenishment;
+    private BlockCache blockCache;
+    private FlatBlockDetector flatBlocks = new FlatBlockDetector();
+    // the decision of the replenishment for the current image, null when every MCU is coded
+    private byte[] mcuModes;
+    private byte[] motionVectors;
 
     public Encoder(String filename) {
         this.filename = filename;
     }
 
-    private BufferedReader openFile() {
-        try {
-            return new BufferedReader(new FileReader(this.filename));
-        } catch (FileNotFoundException e) {
-            System.out.println(e.getMessage());
-            return null;
+    /**
+     * Selects the engine used by {@link #forwardDCT()}. Must be called before {@link #forwardDCT()}, since the
+     * scale factors of the engine are folded into {@link #quantization()}.
+     */
+    public void setTransform(DCT transform) {
+        this.transform = transform;
+    }
+
+    /**
+     * Selects the scalar or vector kernels (see {@link Kernels#best()}, the default) and the transform engine
+     * matching them, which {@link #setTransform(DCT)} can still replace.
+     */
+    public void setKernels(Kernels kernels) {
+        this.kernels = kernels;
+        this.transform = kernels.transform();
+    }
+
+    /**
+     * When set, {@link #compress()} first counts the symbols of the image and builds Huffman tables fitted to them,
+     * instead of using the tables of the JPEG standard. Fitted tables are also used whenever the standard ones have
+     * no code for a symbol of the image: a DC difference or an AC amplitude too large for them, which the chroma of
+     * saturated colours reaches with the small divisors of the highest qualities.
+     */
+    public void setOptimizedHuffmanTables(boolean optimizedHuffmanTables) {
+        this.optimizedHuffmanTables = optimizedHuffmanTables;
+    }
+
+    /**
+     * When set (the default), {@link #compress()} records where every row of MCUs starts in the data, which lets
+     * {@link Decoder#decodeRegion} decode only the rows it needs, for a few bytes per row.
+     */
+    public void setRowIndex(boolean rowIndex) {
+        this.rowIndex = rowIndex;
+    }
+
+    /**
+     * Makes {@link #compress()} code the image in slices of the given number of MCUs, which are coded concurrently
+     * with the parallelism of the encoder and can be decoded concurrently, see {@link SliceTable}. Every slice
+     * costs a marker, the padding of its last byte and an entry of the slice table, and its first blocks lose the
+     * DC prediction, so short intervals make the image larger. 0 (the default) codes the image as one stream.
+     */
+    public void setRestartInterval(int restartInterval) {
+        if (restartInterval < 0) {
+            throw new IllegalArgumentException("The restart interval cannot be negative");
         }
+        this.restartInterval = restartInterval;
     }
 
     /**
-     * Reading a PPM file assuming it is in P3 format.
-     * The first line contains the format, the next line is a comment and the third line gives
-     * the width and the height of the image. The following lines will store the RGB values (in batches of 3 lines)
-     * of each pixel starting from the top-left.
+     * Scales the quantization table for a quality from 1 to 100 (see {@link QuantizationMatrix#scaled(int)}),
+     * 50 being the base table used by default. Must be called before {@link #quantization()}.
      */
-    public void readPPMImage() {
-        BufferedReader bufferedReader = openFile();
-        if (bufferedReader != null) {
-            try {
-                if (!bufferedReader.readLine().equals("P3")) {
-                    throw new RuntimeException("Format not supported");
-                }
+    public void setQuality(int quality) {
+        this.quantizationTable = QuantizationMatrix.scaled(quality);
+    }
 
-                bufferedReader.readLine();
-                String[] sizeInfo = bufferedReader.readLine().split(" ");
-                this.width = Integer.parseInt(sizeInfo[0]);
-                this.height = Integer.parseInt(sizeInfo[1]);
-                bufferedReader.readLine();
-
-                // initialize RGB arrays
-                this.r = new int[height][width];
-                this.g = new int[height][width];
-                this.b = new int[height][width];
-
-                // initialize YUV arrays
-                this.y = new double[height][width];
-                this.u = new double[height][width];
-                this.v = new double[height][width];
-
-                String firstLineOfBatch;
-                int line = 0;
-                int column = 0;
-                while ((firstLineOfBatch = bufferedReader.readLine()) != null) {
-                    if (column == width) {
-                        column = 0;
-                        line++;
-                    }
+    /**
+     * Selects how the chroma planes are reduced by {@link #storeBlocks()}, 4:2:0 by default.
+     */
+    public void setSubsampling(Subsampling subsampling) {
+        this.subsampling = subsampling;
+    }
 
-                    this.r[line][column] = Integer.parseInt(firstLineOfBatch);
-                    this.g[line][column] = Integer.parseInt(bufferedReader.readLine());
-                    this.b[line][column] = Integer.parseInt(bufferedReader.readLine());
-                    column++;
-                }
-            } catch (IOException e) {
-                System.out.println(e.getMessage());
-            }
+    private McuLayout layout() {
+        return new McuLayout(subsampling, width, height);
+    }
+
+    private long pixels() {
+        return (long) width * height;
+    }
+
+    private long blockCount() {
+        McuLayout layout = layout();
+        return (long) layout.getMcuCount() * layout.getBlocksPerMcu();
+    }
+
+    /**
+     * For the frames of a sequence given one after the other: {@link #fusedEncoding()} only codes the MCUs that
+     * changed since the previous frame, see {@link ConditionalReplenishment}. Null (the default) codes every MCU.
+     */
+    public void setConditionalReplenishment(ConditionalReplenishment replenishment) {
+        this.replenishment = replenishment;
+    }
+
+    /**
+     * {@link #fusedEncoding()} takes the symbols of the blocks already seen from the cache, see {@link BlockCache}.
+     * Null (the default) encodes every block. The output is identical either way.
+     */
+    public void setBlockCache(BlockCache blockCache) {
+        this.blockCache = blockCache;
+    }
+
+    /**
+     * {@link #fusedEncoding()} only computes the DC of the blocks whose AC coefficients all quantize to 0 with the
+     * table of the pass, and counts them in the given instance, see {@link FlatBlockDetector}. Null transforms every
+     * block. On by default, the output is identical either way. {@link #forwardDCT()} does not use it, its
+     * coefficients may be quantized with other tables afterwards.
+     */
+    public void setFlatBlockDetector(FlatBlockDetector flatBlocks) {
+        this.flatBlocks = flatBlocks;
+    }
+
+    public FlatBlockDetector getFlatBlockDetector() {
+        return flatBlocks;
+    }
+
+    /**
+     * Receives the measurements of every stage (see {@link StageRecorder}), null (the default) for none.
+     */
+    public void setStageListener(StageListener listener) {
+        recorder.setListener(listener);
+    }
+
+    /**
+     * Number of threads used by the stages working on lines or blocks, 1 (the default) keeps everything
+     * on the calling thread. The output is identical whatever the level.
+     */
+    public void setParallelism(int parallelism) {
+        this.executor.shutdown();
+        this.executor = new BlockExecutor(parallelism);
+        recorder.setWorkerThreads(executor::getWorkerThreadIds);
+    }
+
+    /**
+     * Reading a PPM file, either in the ASCII P3 format (see {@link P3ScanlineReader}) or in the
+     * binary P6 format (see {@link P6ScanlineReader}). With a parallelism above 1, P3 values are parsed concurrently.
+     */
+    public void readPPMImage() {
+        StageRecorder.Stage stage = recorder.start("readPPMImage");
+        try (ScanlineReader reader = ScanlineReader.open(this.filename)) {
+            this.width = reader.getWidth();
+            this.height = reader.getHeight();
+
+            // initialize RGB arrays
+            this.r = new int[height][width];
+            this.g = new int[height][width];
+            this.b = new int[height][width];
+
+            // initialize YUV arrays
+            this.y = new int[height][width];
+            this.u = new int[height][width];
+            this.v = new int[height][width];
+
+            reader.readAll(this.r, this.g, this.b, executor);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
         }
+        stage.pixels(pixels()).fileRead(filename).end();
+    }
+
+    /**
+     * Takes the RGB matrices of an image read by the caller instead of {@link #readPPMImage()}, e.g. a frame of a
+     * sequence (see {@link SequenceEncoder}). The matrices are used as they are, and the YUV matrices of the
+     * previous image are kept when the size did not change.
+     */
+    public void setImage(int[][] r, int[][] g, int[][] b, int width, int height) {
+        if (y == null || width != this.width || height != this.height) {
+            this.y = new int[height][width];
+            this.u = new int[height][width];
+            this.v = new int[height][width];
+        }
+        this.width = width;
+        this.height = height;
+        this.r = r;
+        this.g = g;
+        this.b = b;
     }
 
     /**
@@ -96,292 +231,421 @@ public class Encoder {
      * U = -0.147R - 0.289G + 0.436B
      * V =  0.615R - 0.515G - 0.100B
      * taken from: https://www.pcmag.com/encyclopedia/term/yuvrgb-conversion-formulas
+     * computed with the lookup tables of {@link ColorConversion#rgbToYuv}, through the selected kernels
      */
     public void convertRGBtoYUV() {
-        for (int line = 0; line < height; line++)
-            for (int column = 0; column < width; column++) {
-                y[line][column] = 0.299 * r[line][column] + 0.587 * g[line][column] + 0.114 * b[line][column];
-                u[line][column] = -0.147 * r[line][column] - 0.289 * g[line][column] + 0.436 * b[line][column];
-                v[line][column] = 0.615 * r[line][column] - 0.515 * g[line][column] - 0.100 * b[line][column];
+        StageRecorder.Stage stage = recorder.start("convertRGBtoYUV");
+        executor.forRange(height, (from, to) -> {
+            for (int line = from; line < to; line++) {
+                kernels.rgbToYuv(r[line], g[line], b[line], y[line], u[line], v[line], width);
             }
+        });
+        stage.pixels(pixels()).end();
     }
 
-    /**
-     * perform 4:2:0 subsampling
-     */
-    private void subsampling(Block block) {
-        int sampleSize = 2;
-        int sizeDivided = BLOCK_SIZE / sampleSize;
-
-        for (int blockLine = 0; blockLine < sizeDivided; blockLine++) {
-            for (int blockColumn = 0; blockColumn < sizeDivided; blockColumn++) {
-                double sum = 0;
-                int sizeOfSample = 0;
-                for (int line = blockLine * sampleSize; line < (blockLine + 1) * sampleSize; line++)
-                    for (int column = blockColumn * sampleSize; column < (blockColumn + 1) * sampleSize; column++) {
-                        sum += block.getValue(line, column);
-                        sizeOfSample++;
-                    }
-                double average = sum / sizeOfSample;
-                for (int line = blockLine * sampleSize; line < (blockLine + 1) * sampleSize; line++)
-                    for (int column = blockColumn * sampleSize; column < (blockColumn + 1) * sampleSize; column++) {
-                        block.modifyValue(average, line, column);
-                    }
-            }
-        }
-    }
-
-    public List<Block> divideIntoBlocks(char type) {
-        List<Block> blockList = new ArrayList<>();
-        int heightDivided = height / BLOCK_SIZE;
-        int widthDivided = width / BLOCK_SIZE;
-        double[][] currentMatrix = y;
+    public Plane divideIntoBlocks(char type) {
+        McuLayout layout = layout();
+        int component = McuLayout.Y;
+        int[][] currentMatrix = y;
 
         if (type == 'U') {
+            component = McuLayout.U;
             currentMatrix = u;
         } else if (type == 'V') {
+            component = McuLayout.V;
             currentMatrix = v;
         }
+        Plane plane = layout.newPlane(component);
+        double[] values = plane.getValues();
+        int widthInBlocks = plane.getWidthInBlocks();
+        // every chroma sample averages horizontal x vertical pixels
+        int horizontal = component == McuLayout.Y ? 1 : subsampling.getHorizontal();
+        int vertical = component == McuLayout.Y ? 1 : subsampling.getVertical();
+
+        // every block is written at its own offset, so the blocks can be filled in any order
+        int[][] matrix = currentMatrix;
+        executor.forRange(plane.getBlockCount(), (from, to) -> {
+            for (int index = from; index < to; index++) {
+                int blockLine = index / widthInBlocks;
+                int blockColumn = index % widthInBlocks;
+                fillBlock(matrix, blockLine * BLOCK_SIZE * vertical, blockColumn * BLOCK_SIZE * horizontal,
+                        horizontal, vertical, values, plane.offset(index));
+            }
+        });
+        return plane;
+    }
 
-        for (int blockLine = 0; blockLine < heightDivided; blockLine++) {
-            for (int blockColumn = 0; blockColumn < widthDivided; blockColumn++) {
-                Block block = new Block(BLOCK_SIZE, blockLine, blockColumn);
-                int currentBlockLine = 0;
-                int currentBlockColumn = 0;
-                for (int line = blockLine * BLOCK_SIZE; line < (blockLine + 1) * BLOCK_SIZE; line++) {
-                    for (int column = blockColumn * BLOCK_SIZE; column < (blockColumn + 1) * BLOCK_SIZE; column++) {
-                        block.modifyValue((int) currentMatrix[line][column], currentBlockLine, currentBlockColumn);
-                        currentBlockColumn++;
+    /**
+     * Fills the block at offset from the area of the matrix whose top-left corner is (firstLine, firstColumn),
+     * every value being the average of horizontal x vertical samples. Past the edges of the matrix, its last line
+     * and last column are repeated, which pads the image to a whole number of MCUs.
+     */
+    static void fillBlock(int[][] matrix, int firstLine, int firstColumn, int horizontal, int vertical,
+                          double[] values, int offset) {
+        int lastLine = matrix.length - 1;
+        int lastColumn = matrix[0].length - 1;
+        double sampleSize = horizontal * vertical;
+        for (int line = 0; line < BLOCK_SIZE; line++) {
+            for (int column = 0; column < BLOCK_SIZE; column++) {
+                int sum = 0;
+                for (int sampleLine = 0; sampleLine < vertical; sampleLine++) {
+                    int[] matrixLine = matrix[Math.min(firstLine + line * vertical + sampleLine, lastLine)];
+                    for (int sampleColumn = 0; sampleColumn < horizontal; sampleColumn++) {
+                        sum += matrixLine[Math.min(firstColumn + column * horizontal + sampleColumn, lastColumn)];
                     }
-                    currentBlockColumn = 0;
-                    currentBlockLine++;
-                }
-                if (type == 'U' || type == 'V') {
-                    subsampling(block);
                 }
-                blockList.add(block);
+                values[offset + line * BLOCK_SIZE + column] = sum / sampleSize;
             }
         }
-        return blockList;
     }
 
     public void storeBlocks() {
-        yBlocks = divideIntoBlocks('Y');
-        uBlocks = divideIntoBlocks('U');
-        vBlocks = divideIntoBlocks('V');
-    }
-
-    private double alpha(int value) {
-        return value > 0 ? 1 : (1 / Math.sqrt(2.0));
-    }
-
-    private double blockCosProduct(Block block, int u, int v) {
-        double sum = 0;
-        for (int x = 0; x < BLOCK_SIZE; x++) {
-            for (int y = 0; y < BLOCK_SIZE; y++) {
-                // Before applying the Forward DCT, you should subtract 128 from each value of every 8x8 Y/Cb/Cr block
-                sum += Math.cos(((2 * x + 1) * u * Math.PI) / 16) *
-                        Math.cos(((2 * y + 1) * v * Math.PI) / 16) *
-                        (block.getValue(x, y) - 128);
-            }
-        }
-        return sum;
+        StageRecorder.Stage stage = recorder.start("storeBlocks");
+        yPlane = divideIntoBlocks('Y');
+        uPlane = divideIntoBlocks('U');
+        vPlane = divideIntoBlocks('V');
+        stage.pixels(pixels()).blocks(blockCount()).end();
     }
 
+    /**
+     * Keeps the full coefficients of every block, flat ones included: they can be quantized again with another table
+     * (see {@link #rateControl(long)}), so no block is shortened for the table of the moment.
+     */
     public void forwardDCT() {
-        Arrays.asList(yBlocks, uBlocks, vBlocks).forEach(
-                blocks -> blocks.forEach(block -> {
-                            // create a new block which will replace the previous
-                            Block DCTBlock = new Block(BLOCK_SIZE, block.getLine(), block.getColumn());
-                            for (int u = 0; u < BLOCK_SIZE; u++) {
-                                for (int v = 0; v < BLOCK_SIZE; v++) {
-                                    // apply the formula
-                                    double Guv = 0.25 * alpha(u) * alpha(v) * blockCosProduct(block, u, v);
-                                    DCTBlock.modifyValue(Guv, u, v);
-                                }
+        StageRecorder.Stage stage = recorder.start("forwardDCT");
+        Arrays.asList(yPlane, uPlane, vPlane).forEach(
+                plane -> executor.forRange(plane.getBlockCount(), (from, to) -> {
+                            for (int index = from; index < to; index++) {
+                                transformBlock(transform, plane.getValues(), plane.offset(index));
                             }
-                            // set the Forward DCT block to the previous
-                            blocks.set(block.getLine() * this.width / BLOCK_SIZE + block.getColumn(), DCTBlock);
                         }
                 )
         );
+        stage.pixels(pixels()).blocks(blockCount()).end();
+    }
+
+    static void transformBlock(DCT transform, double[] values, int offset) {
+        // Before applying the Forward DCT, you should subtract 128 from each value of every 8x8 Y/Cb/Cr block
+        for (int position = offset; position < offset + BLOCK_AREA; position++) {
+            values[position] -= 128;
+        }
+        // the coefficients replace the samples
+        transform.forward(values, offset);
+    }
+
+    /**
+     * {@link #transformBlock} for a block found flat by a {@link FlatBlockDetector}: the same DC, and AC coefficients
+     * of 0.
+     */
+    static void transformFlatBlock(DCT transform, double[] values, int offset) {
+        for (int position = offset; position < offset + BLOCK_AREA; position++) {
+            values[position] -= 128;
+        }
+        values[offset] = transform.forwardDc(values, offset);
+        Arrays.fill(values, offset + 1, offset + BLOCK_AREA, 0);
+    }
+
+    private CoefficientPlane quantize(Plane plane, double[] reciprocals) {
+        CoefficientPlane coefficients = new CoefficientPlane(plane.getWidthInBlocks(), plane.getHeightInBlocks());
+        double[] values = plane.getValues();
+        int[] quantized = coefficients.getValues();
+        executor.forRange(plane.getBlockCount(), (from, to) -> kernels.quantize(values, quantized, from, to, reciprocals));
+        return coefficients;
+    }
+
+    /**
+     * The inverse of every quantization divisor, so that quantizing costs a multiplication.
+     */
+    static double[] quantizationReciprocals(DCT transform, int[] quantizationTable) {
+        // the scale factors of the transform engine are folded into the divisors
+        double[] reciprocals = new double[BLOCK_AREA];
+        for (int line = 0; line < BLOCK_SIZE; line++) {
+            for (int column = 0; column < BLOCK_SIZE; column++) {
+                reciprocals[line * BLOCK_SIZE + column] =
+                        1 / (quantizationTable[line * BLOCK_SIZE + column] * transform.forwardScale(line, column));
+            }
+        }
+        return reciprocals;
     }
 
     public void quantization() {
-        Arrays.asList(yBlocks, uBlocks, vBlocks).forEach(
-                blocks -> blocks.forEach(block -> {
-                            for (int line = 0; line < BLOCK_SIZE; line++) {
-                                for (int column = 0; column < BLOCK_SIZE; column++) {
-                                    block.modifyValue(
-                                            (int) (block.getValue(line, column) / QuantizationMatrix.values[line][column]),
-                                            line,
-                                            column
-                                    );
-                                }
-                            }
-                        }
-                )
-        );
+        StageRecorder.Stage stage = recorder.start("quantization");
+        double[] reciprocals = quantizationReciprocals(transform, quantizationTable);
+        yCoefficients = quantize(yPlane, reciprocals);
+        uCoefficients = quantize(uPlane, reciprocals);
+        vCoefficients = quantize(vPlane, reciprocals);
+        stage.pixels(pixels()).blocks(blockCount()).end();
     }
 
-    private int[] zigZagMatrix(double[][] arr) {
-        int m, n;
-        m = n = BLOCK_SIZE;
-        int[] result = new int[BLOCK_SIZE * BLOCK_SIZE];
-        int index = 0;
-
-        int row = 0, col = 0;
-
-        // Boolean variable that will true if we
-        // need to increment 'row' value otherwise
-        // false- if increment 'col' value
-        boolean row_inc = false;
-
-        // Print matrix of lower half zig-zag pattern
-        int mn = Math.min(m, n);
-        for (int len = 1; len <= mn; ++len) {
-            for (int i = 0; i < len; ++i) {
-                result[index] = (int) arr[row][col];
-                index++;
-
-                if (i + 1 == len)
-                    break;
-                // If row_increment value is true
-                // increment row and decrement col
-                // else decrement row and increment
-                // col
-                if (row_inc) {
-                    ++row;
-                    --col;
-                } else {
-                    --row;
-                    ++col;
+    /**
+     * Appends the symbols of the block at offset to the buffer, reading the coefficients in zig-zag order.
+     */
+    static void encodeBlock(int[] quantized, int offset, SymbolBuffer symbols) {
+        int dc = quantized[offset];
+        symbols.add(SymbolBuffer.pack(0, AmplitudeMap.getCorrespondingSize(dc), dc));
+
+        int currentRunLength = 0;
+        for (int index = 1; index < BLOCK_AREA; index++) {
+            int value = quantized[offset + ZigZag.ORDER[index]];
+            if (value == 0) currentRunLength++;
+            else {
+                while (currentRunLength > 15) {
+                    symbols.add(SymbolBuffer.ZERO_RUN);
+                    currentRunLength -= 16;
                 }
+                symbols.add(SymbolBuffer.pack(currentRunLength, AmplitudeMap.getCorrespondingSize(value), value));
+                currentRunLength = 0;
             }
+        }
+        if (currentRunLength > 0) symbols.add(SymbolBuffer.END_OF_BLOCK);
+    }
 
-            if (len == mn)
-                break;
+    /**
+     * Appends the symbols of the MCUs from (inclusive) - to (exclusive), block after block in coding order.
+     */
+    static void encodeMcus(McuLayout layout, CoefficientPlane[] planes, int from, int to, SymbolBuffer symbols) {
+        for (int mcu = from; mcu < to; mcu++) {
+            for (int block = 0; block < layout.getBlocksPerMcu(); block++) {
+                CoefficientPlane plane = planes[layout.component(block)];
+                encodeBlock(plane.getValues(), plane.offset(layout.blockIndex(mcu, block)), symbols);
+            }
+        }
+    }
 
-            // Update row or col value according
-            // to the last increment
-            if (row_inc) {
-                ++row;
-                row_inc = false;
-            } else {
-                ++col;
-                row_inc = true;
+    public void entropyEncoding() {
+        StageRecorder.Stage stage = recorder.start("entropyEncoding");
+        mcuModes = null;
+        // every row of MCUs gets its own buffer, the buffers are then concatenated in order
+        McuLayout layout = layout();
+        int mcuColumns = layout.getMcuColumns();
+        CoefficientPlane[] planes = {yCoefficients, uCoefficients, vCoefficients};
+        SymbolBuffer[] rows = new SymbolBuffer[layout.getMcuRows()];
+
+        executor.forRange(rows.length, (from, to) -> {
+            for (int row = from; row < to; row++) {
+                rows[row] = new SymbolBuffer(mcuColumns * layout.getBlocksPerMcu() * 8);
+                encodeMcus(layout, planes, row * mcuColumns, (row + 1) * mcuColumns, rows[row]);
             }
+        });
+        concatenate(rows);
+        stage.pixels(pixels()).blocks(blockCount()).symbols(symbols).end();
+    }
+
+    private void concatenate(SymbolBuffer[] rows) {
+        int size = 0;
+        for (SymbolBuffer row : rows) {
+            size += row.size();
         }
+        this.symbols = new SymbolBuffer(size);
+        this.rowStarts = new int[rows.length];
+        for (int row = 0; row < rows.length; row++) {
+            rowStarts[row] = symbols.size();
+            symbols.addAll(rows[row]);
+        }
+    }
+
+    /**
+     * Does the work of {@link #storeBlocks()}, {@link #forwardDCT()}, {@link #quantization()} and
+     * {@link #entropyEncoding()} with the same result, but block by block: each block goes from the YUV matrices
+     * to its symbols in one pass (see {@link FusedBlockEncoder}) instead of the whole image going through every stage.
+     * The planes and coefficients of the separate stages are not filled.
+     * With a conditional replenishment, the MCUs it skips or moves are left out.
+     */
+    public void fusedEncoding() {
+        StageRecorder.Stage stage = recorder.start("fusedEncoding");
+        McuLayout layout = layout();
+        int mcuColumns = layout.getMcuColumns();
+        int[][][] components = {y, u, v};
+        mcuModes = replenishment == null ? null : replenishment.decide(layout, components, width, height);
+        motionVectors = replenishment == null ? null : replenishment.getMotionVectors();
+        byte[] modes = mcuModes;
+        double[] reciprocals = quantizationReciprocals(transform, quantizationTable);
+        SymbolBuffer[] rows = new SymbolBuffer[layout.getMcuRows()];
+
+        executor.forRange(rows.length, (from, to) -> {
+            FusedBlockEncoder blockEncoder = new FusedBlockEncoder(transform, reciprocals, blockCache, flatBlocks);
+            for (int row = from; row < to; row++) {
+                rows[row] = new SymbolBuffer(mcuColumns * layout.getBlocksPerMcu() * 8);
+                blockEncoder.encodeMcus(layout, components, row * mcuColumns, (row + 1) * mcuColumns, modes, rows[row]);
+            }
+        });
+        concatenate(rows);
+        stage.pixels(pixels()).blocks(blockCount()).symbols(symbols).end();
+    }
 
-        // Update the indexes of row and col variable
-        if (row == 0) {
-            if (col == m - 1)
-                ++row;
-            else
-                ++col;
-            row_inc = true;
-        } else {
-            if (row == n - 1)
-                ++col;
-            else
-                ++row;
-            row_inc = false;
+    /**
+     * Huffman codes the result of {@link #entropyEncoding()} or {@link #fusedEncoding()} into a self-contained image.
+     */
+    public CompressedImage compress() {
+        StageRecorder.Stage stage = recorder.start("compress");
+        McuLayout layout = layout();
+        int[] mcuComponents = layout.getComponents();
+        EntropyCoder coder = entropyCoder(mcuComponents);
+        if (mcuModes != null) {
+            byte[] data = coder.encode(symbols, mcuComponents);
+            stage.pixels(pixels()).blocks(blockCount()).bytesWritten(data.length).end();
+            return new CompressedImage(width, height, subsampling, quantizationTable.clone(),
+                    coder.getDcTable(), coder.getAcTable(), data, mcuModes, motionVectors);
+        }
+        RowIndex index = rowIndex ? new RowIndex(layout.getMcuRows(), layout.getMcuColumns()) : null;
+        if (restartInterval == 0) {
+            byte[] data = coder.encode(symbols, mcuComponents, index);
+            stage.pixels(pixels()).blocks(blockCount()).bytesWritten(data.length).end();
+            return new CompressedImage(width, height, subsampling, quantizationTable.clone(),
+                    coder.getDcTable(), coder.getAcTable(), data, index);
         }
 
-        // Print the next half zig-zag pattern
-        int MAX = Math.max(m, n) - 1;
-        for (int len, diag = MAX; diag > 0; --diag) {
-
-            if (diag > mn)
-                len = mn;
-            else
-                len = diag;
-
-            for (int i = 0; i < len; ++i) {
-                result[index] = (int) arr[row][col];
-                index++;
-
-                if (i + 1 == len)
-                    break;
-
-                // Update row or col value according
-                // to the last increment
-                if (row_inc) {
-                    ++row;
-                    --col;
-                } else {
-                    ++col;
-                    --row;
-                }
+        int[] starts = EntropyCoder.sliceStarts(symbols, layout.getBlocksPerMcu(), layout.getMcuCount(),
+                restartInterval);
+        byte[][] slices = new byte[starts.length - 1][];
+        // the rows of the index starting in a slice are only written by the thread coding it
+        executor.forRange(slices.length, (from, to) -> {
+            for (int slice = from; slice < to; slice++) {
+                slices[slice] = coder.encodeSlice(symbols, mcuComponents, starts[slice], starts[slice + 1],
+                        slice * restartInterval, index);
             }
+        });
+        SliceTable table = EntropyCoder.join(slices, restartInterval, index);
+        byte[] data = EntropyCoder.joinedData(slices, table);
+        stage.pixels(pixels()).blocks(blockCount()).bytesWritten(data.length).end();
+        return new CompressedImage(width, height, subsampling, quantizationTable.clone(),
+                coder.getDcTable(), coder.getAcTable(), data, index, table);
+    }
 
-            // Update the indexes of row and col variable
-            if (row == 0 || col == m - 1) {
-                if (col == m - 1)
-                    ++row;
-                else
-                    ++col;
-
-                row_inc = true;
-            } else if (col == 0 || row == n - 1) {
-                if (row == n - 1)
-                    ++col;
-                else
-                    ++row;
-
-                row_inc = false;
+    private EntropyCoder entropyCoder(int[] mcuComponents) {
+        // the inter frames of a sequence are never sliced
+        int interval = mcuModes == null ? restartInterval : 0;
+        if (!optimizedHuffmanTables) {
+            EntropyCoder standard = EntropyCoder.standard();
+            if (standard.canEncode(symbols, mcuComponents, interval)) {
+                return standard;
             }
         }
-        return result;
+        return EntropyCoder.optimizedFor(symbols, mcuComponents, interval);
     }
 
-    private Entropy encodeBlock(Block block) {
-        int[] matrix = zigZagMatrix(block.getValues());
-        DC dc = new DC(
-                AmplitudeMap.getCorrespondingSize(matrix[0]),
-                matrix[0]
-        );
+    /**
+     * Bytes {@link #compress()} would produce for the current symbols, without writing the bitstream. The symbols
+     * are sized with the tables compress would choose, so the size is always the one of an image that can be written.
+     */
+    public long compressedSize() {
+        McuLayout layout = layout();
+        int[] mcuComponents = layout.getComponents();
+        EntropyCoder coder = entropyCoder(mcuComponents);
+        long size = CompressedImage.headerSize(coder.getDcTable(), coder.getAcTable(), mcuModes, motionVectors);
+        if (mcuModes != null) {
+            return size + (coder.sizeInBits(symbols, mcuComponents) + 7) / 8;
+        }
+        if (restartInterval == 0) {
+            size += rowIndex ? CompressedImage.rowIndexSize(layout.getMcuRows()) : 0;
+            return size + (coder.sizeInBits(symbols, mcuComponents) + 7) / 8;
+        }
+        int[] starts = EntropyCoder.sliceStarts(symbols, layout.getBlocksPerMcu(), layout.getMcuCount(),
+                restartInterval);
+        // without an index a version 5 image still has its (empty) row count and MCUs per row
+        size += CompressedImage.rowIndexSize(rowIndex ? layout.getMcuRows() : 0);
+        size += CompressedImage.sliceTableSize(starts.length - 1);
+        return size + coder.sizeInBits(symbols, mcuComponents, starts) / 8;
+    }
 
-        int currentRunLength = 0;
-        List<AC> acList = new ArrayList<>();
-        for (int index = 1; index < matrix.length; index++) {
-            if (matrix[index] == 0) currentRunLength++;
-            else {
-                acList.add(
-                        new AC(currentRunLength, AmplitudeMap.getCorrespondingSize(matrix[index]), matrix[index])
-                );
-                currentRunLength = 0;
+    /**
+     * Rate control: searches the highest quality whose compressed image fits in targetBytes, to be called after
+     * {@link #forwardDCT()} instead of {@link #quantization()} and {@link #entropyEncoding()}.
+     * The coefficients of the transform are kept, so every trial only quantizes them again and sizes the symbols.
+     * The size shrinks with the quality, so a binary search over 1 - 100 needs at most 7 trials.
+     * The encoder is left with the symbols of the returned quality, ready for {@link #compress()};
+     * when even quality 1 is too big, quality 1 is kept.
+     */
+    public int rateControl(long targetBytes) {
+        int low = 1;
+        int high = 100;
+        int best = 1;
+        int current = 0;
+        while (low <= high) {
+            int quality = (low + high) >>> 1;
+            encodeWithQuality(quality);
+            current = quality;
+            if (compressedSize() <= targetBytes) {
+                best = quality;
+                low = quality + 1;
+            } else {
+                high = quality - 1;
             }
         }
-        if (currentRunLength > 0) acList.add(new AC(currentRunLength, 0, 0));
-
-        return new Entropy(dc, acList);
+        if (current != best) {
+            encodeWithQuality(best);
+        }
+        return best;
     }
 
-    public void entropyEncoding() {
-        this.entropyList = new ArrayList<>();
+    private void encodeWithQuality(int quality) {
+        setQuality(quality);
+        quantization();
+        entropyEncoding();
+    }
 
-        for (int index = 0; index < yBlocks.size(); index++) {
-            entropyList.add(encodeBlock(yBlocks.get(index)));
-            entropyList.add(encodeBlock(uBlocks.get(index)));
-            entropyList.add(encodeBlock(vBlocks.get(index)));
+    public void writeCompressedImage(String filename) {
+        CompressedImage image = compress();
+        StageRecorder.Stage stage = recorder.start("writeCompressedImage");
+        try {
+            image.write(filename);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
         }
+        stage.fileWritten(filename).end();
     }
 
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
 
-    public List<Block> getYBlocks() {
-        return yBlocks;
+    public Plane getYPlane() {
+        return yPlane;
     }
 
-    public List<Block> getUBlocks() {
-        return uBlocks;
+    public Plane getUPlane() {
+        return uPlane;
     }
 
-    public List<Block> getVBlocks() {
-        return vBlocks;
+    public Plane getVPlane() {
+        return vPlane;
     }
 
+    public CoefficientPlane getYCoefficients() {
+        return yCoefficients;
+    }
+
+    public CoefficientPlane getUCoefficients() {
+        return uCoefficients;
+    }
+
+    public CoefficientPlane getVCoefficients() {
+        return vCoefficients;
+    }
+
+    public SymbolBuffer getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * An immutable copy of the result of {@link #entropyEncoding()} or {@link #fusedEncoding()}, which can be
+     * decoded any number of times. Not available for a frame coded against the previous one.
+     */
+    public EncodedImage getEncodedImage() {
+        if (mcuModes != null) {
+            throw new IllegalStateException("Frames coded against the previous one can only be compressed");
+        }
+        return new EncodedImage(width, height, subsampling, quantizationTable, symbols.toArray(), rowStarts);
+    }
+
+    /**
+     * The symbols as objects, see {@link SymbolBuffer#toEntropyList()}. Built on every call.
+     */
     public List<Entropy> getEntropyList() {
-        return entropyList;
+        return symbols.toEntropyList();
     }
 }
@@ -0,0 +1,118 @@
+package pdav.tudor.domain;
+
+import pdav.tudor.domain.transform.DCT;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds the blocks whose AC coefficients all quantize to 0 before transforming them, like the blocks of a sky, a
+ * wall or a background, so that the encoder only computes their DC.
+ * Every AC coefficient is the sum of the deviations of the samples from any value weighted by its basis function,
+ * so |F(u,v)| <= max|basis(u,v)| * sum|sample - mean|, and the quantization truncating, F(u,v) quantizes to 0 as
+ * soon as this bound is under its divisor. The limit on the sum of the absolute deviations is then the smallest
+ * divisor over the largest basis value among the AC positions, every divisor lowered by twice {@link DCT#TOLERANCE}:
+ * once for the deviation of the engine from the true coefficient, once for the rounding of the sums of the
+ * detector. The range of the samples is a lower bound of the sum, which rejects most other blocks in a single pass.
+ * The DC of a flat block is computed by {@link DCT#forwardDc}, exactly the one of the full transform, so its
+ * symbols, the DC and an end of block, are the ones of the full path with every engine.
+ * Counts the blocks checked and the flat ones, thread safe.
+ */
+public class FlatBlockDetector {
+    private static final int BLOCK_SIZE = Plane.BLOCK_SIZE;
+    private static final int BLOCK_AREA = Plane.BLOCK_AREA;
+    // the largest absolute value of the orthonormal 1D basis function of every frequency over the 8 samples
+    private static final double[] BASIS_MAXIMUM = new double[BLOCK_SIZE];
+
+    static {
+        for (int u = 0; u < BLOCK_SIZE; u++) {
+            double maximum = 0;
+            for (int x = 0; x < BLOCK_SIZE; x++) {
+                maximum = Math.max(maximum, Math.abs(Math.cos((2 * x + 1) * u * Math.PI / 16)));
+            }
+            BASIS_MAXIMUM[u] = Math.sqrt((u == 0 ? 1.0 : 2.0) / BLOCK_SIZE) * maximum;
+        }
+    }
+
+    private final LongAdder checkedBlocks = new LongAdder();
+    private final LongAdder flatBlocks = new LongAdder();
+
+    /**
+     * The limit on the sum of the absolute deviations of the samples of a flat block.
+     *
+     * @param reciprocals see {@link Encoder#quantizationReciprocals}
+     */
+    static double limit(DCT transform, double[] reciprocals) {
+        double limit = Double.MAX_VALUE;
+        for (int line = 0; line < BLOCK_SIZE; line++) {
+            for (int column = 0; column < BLOCK_SIZE; column++) {
+                if (line == 0 && column == 0) {
+                    continue;
+                }
+                double divisor = 1 / (reciprocals[line * BLOCK_SIZE + column] * transform.forwardScale(line, column));
+                limit = Math.min(limit, (divisor - 2 * DCT.TOLERANCE) / (BASIS_MAXIMUM[line] * BASIS_MAXIMUM[column]));
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Whether every AC coefficient of the block of samples at offset quantizes to 0.
+     *
+     * @param limit see {@link #limit(DCT, double[])}
+     */
+    boolean isFlat(double[] samples, int offset, double limit) {
+        checkedBlocks.increment();
+        double minimum = samples[offset];
+        double maximum = minimum;
+        double sum = 0;
+        for (int position = offset; position < offset + BLOCK_AREA; position++) {
+            double sample = samples[position];
+            minimum = Math.min(minimum, sample);
+            maximum = Math.max(maximum, sample);
+            sum += sample;
+        }
+        if (maximum - minimum >= limit) {
+            return false;
+        }
+        double mean = sum / BLOCK_AREA;
+        double deviation = 0;
+        for (int position = offset; position < offset + BLOCK_AREA; position++) {
+            deviation += Math.abs(samples[position] - mean);
+        }
+        if (deviation >= limit) {
+            return false;
+        }
+        flatBlocks.increment();
+        return true;
+    }
+
+    public long getCheckedBlocks() {
+        return checkedBlocks.sum();
+    }
+
+    public long getFlatBlocks() {
+        return flatBlocks.sum();
+    }
+
+    /**
+     * The share of the checked blocks found flat, from 0 to 1.
+     */
+    public double getFlatRate() {
+        long checked = getCheckedBlocks();
+        return checked == 0 ? 0 : (double) getFlatBlocks() / checked;
+    }
+
+    /**
+     * Sets the counts back to 0.
+     */
+    public void resetStatistics() {
+        checkedBlocks.reset();
+        flatBlocks.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d flat blocks of %d (%.1f%%)", getFlatBlocks(), getCheckedBlocks(),
+                100 * getFlatRate());
+    }
+}
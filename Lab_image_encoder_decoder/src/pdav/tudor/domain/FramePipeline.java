@@ -0,0 +1,153 @@
+package pdav.tudor.domain;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the frames of a sequence through three stages overlapping in time: while the last stage (on the calling
+ * thread) writes frame n - 1, the middle one transforms frame n and the first one reads frame n + 1, each on its
+ * own thread. The frames travel in a fixed set of buffers: the first stage waits for a buffer the last stage has
+ * finished with, so a slow stage holds back the ones before it instead of letting frames pile up.
+ * A failing stage stops the others, and its exception is thrown by {@link #run}.
+ *
+ * @param <F> the buffers of a frame, reused for frame after frame
+ */
+class FramePipeline<F> {
+    static final String[] STAGES = {"read", "transform", "write"};
+
+    interface Source<F> {
+        /**
+         * Fills the buffers with the next frame.
+         *
+         * @return false after the last frame
+         */
+        boolean read(F frame) throws IOException;
+    }
+
+    interface Stage<F> {
+        void process(F frame) throws IOException;
+    }
+
+    private static class Slot<F> {
+        private final F frame;
+        private long started;
+
+        Slot(F frame) {
+            this.frame = frame;
+        }
+    }
+
+    private final List<Slot<F>> slots = new ArrayList<>();
+    private final Slot<F> end = new Slot<>(null);
+    private final long[] busyNanos = new long[STAGES.length];
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * @param frames the buffers, their number bounding the frames in flight
+     */
+    FramePipeline(List<F> frames) {
+        for (F frame : frames) {
+            slots.add(new Slot<>(frame));
+        }
+    }
+
+    SequenceStatistics run(Source<F> source, Stage<F> transform, Stage<F> sink) throws IOException {
+        // one more place for the end of the sequence, so that putting never blocks
+        BlockingQueue<Slot<F>> free = new ArrayBlockingQueue<>(slots.size(), false, slots);
+        BlockingQueue<Slot<F>> read = new ArrayBlockingQueue<>(slots.size() + 1);
+        BlockingQueue<Slot<F>> transformed = new ArrayBlockingQueue<>(slots.size() + 1);
+        List<Long> latencies = new ArrayList<>();
+
+        Thread reader = new Thread(() -> {
+            try {
+                while (true) {
+                    Slot<F> slot = free.take();
+                    long start = System.nanoTime();
+                    slot.started = start;
+                    boolean more = source.read(slot.frame);
+                    busyNanos[0] += System.nanoTime() - start;
+                    if (!more) {
+                        break;
+                    }
+                    read.add(slot);
+                }
+            } catch (InterruptedException e) {
+                // stopped by a failure further down
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                read.add(end);
+            }
+        }, "pdav-read");
+        Thread transformer = new Thread(() -> {
+            try {
+                Slot<F> slot;
+                while ((slot = read.take()) != end) {
+                    long start = System.nanoTime();
+                    transform.process(slot.frame);
+                    busyNanos[1] += System.nanoTime() - start;
+                    transformed.add(slot);
+                }
+            } catch (InterruptedException e) {
+                // stopped by a failure further down
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                transformed.add(end);
+            }
+        }, "pdav-transform");
+        reader.setDaemon(true);
+        transformer.setDaemon(true);
+
+        long start = System.nanoTime();
+        reader.start();
+        transformer.start();
+        try {
+            Slot<F> slot;
+            while ((slot = transformed.take()) != end) {
+                long sinkStart = System.nanoTime();
+                sink.process(slot.frame);
+                long now = System.nanoTime();
+                busyNanos[2] += now - sinkStart;
+                latencies.add(now - slot.started);
+                free.add(slot);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, new InterruptedIOException("The sequence was interrupted"));
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            reader.interrupt();
+            transformer.interrupt();
+            join(reader);
+            join(transformer);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Throwable cause = failure.get();
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        } else if (cause != null) {
+            throw new IOException(cause);
+        }
+        return new SequenceStatistics(latencies, elapsed, STAGES, busyNanos.clone());
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package pdav.tudor.domain;
+
+import pdav.tudor.domain.entropy.SymbolBuffer;
+import pdav.tudor.domain.entropy.ZigZag;
+import pdav.tudor.domain.transform.DCT;
+
+import java.util.Arrays;
+
+/**
+ * Encodes a block in a single pass, from the samples of the image to its entropy symbols: the 8x8 tile is copied
+ * (and subsampled) into a scratch block, level shifted and transformed in place, then its coefficients are quantized
+ * in zig-zag order while the runs of zeros are counted, so the symbols come out without any other intermediate array.
+ * The symbols are the ones {@link Encoder} produces with its separate stages.
+ * With a {@link BlockCache}, a block found in it gets its symbols from there, skipping the transform and the
+ * quantization. With a {@link FlatBlockDetector}, a flat block only gets its DC computed, and its symbols are the DC
+ * and an end of block.
+ * Not thread safe, every thread needs its own instance for the scratch block (the cache may be shared).
+ */
+class FusedBlockEncoder {
+    private static final int BLOCK_AREA = Plane.BLOCK_AREA;
+    private final DCT transform;
+    private final double[] reciprocals;
+    private final double[] scratch = new double[BLOCK_AREA];
+    private final BlockCache cache;
+    private final long cacheSeed;
+    private final FlatBlockDetector flatBlocks;
+    private final double flatLimit;
+
+    /**
+     * @param reciprocals see {@link Encoder#quantizationReciprocals}
+     */
+    FusedBlockEncoder(DCT transform, double[] reciprocals) {
+        this(transform, reciprocals, null, null);
+    }
+
+    /**
+     * @param cache      null for none
+     * @param flatBlocks null to transform every block
+     */
+    FusedBlockEncoder(DCT transform, double[] reciprocals, BlockCache cache, FlatBlockDetector flatBlocks) {
+        this.transform = transform;
+        this.reciprocals = reciprocals;
+        this.cache = cache;
+        this.cacheSeed = cache == null ? 0 : BlockCache.seed(reciprocals);
+        this.flatBlocks = flatBlocks;
+        this.flatLimit = flatBlocks == null ? 0 : FlatBlockDetector.limit(transform, reciprocals);
+    }
+
+    /**
+     * Appends the symbols of the block whose samples are read like {@link Encoder#fillBlock} reads them.
+     */
+    void encode(int[][] matrix, int firstLine, int firstColumn, int horizontal, int vertical, SymbolBuffer symbols) {
+        Encoder.fillBlock(matrix, firstLine, firstColumn, horizontal, vertical, scratch, 0);
+        // a flat block costs less than a lookup, and is kept out of the cache
+        if (flatLimit > 0 && flatBlocks.isFlat(scratch, 0, flatLimit)) {
+            Encoder.transformFlatBlock(transform, scratch, 0);
+            int dc = (int) (scratch[0] * reciprocals[0]);
+            symbols.add(SymbolBuffer.pack(0, AmplitudeMap.getCorrespondingSize(dc), dc));
+            symbols.add(SymbolBuffer.END_OF_BLOCK);
+            return;
+        }
+        if (cache == null) {
+            encodeScratch(symbols);
+            return;
+        }
+        long hash = BlockCache.hash(cacheSeed, scratch);
+        int[] cached = cache.lookup(hash, scratch, transform, reciprocals);
+        if (cached != null) {
+            symbols.addAll(cached);
+            return;
+        }
+        double[] samples = Arrays.copyOf(scratch, BLOCK_AREA);
+        int start = symbols.size();
+        encodeScratch(symbols);
+        cache.store(hash, samples, transform, reciprocals, symbols.toArray(start, symbols.size()));
+    }
+
+    private void encodeScratch(SymbolBuffer symbols) {
+        Encoder.transformBlock(transform, scratch, 0);
+
+        int dc = (int) (scratch[0] * reciprocals[0]);
+        symbols.add(SymbolBuffer.pack(0, AmplitudeMap.getCorrespondingSize(dc), dc));
+
+        int currentRunLength = 0;
+        for (int index = 1; index < BLOCK_AREA; index++) {
+            int position = ZigZag.ORDER[index];
+            int value = (int) (scratch[position] * reciprocals[position]);
+            if (value == 0) currentRunLength++;
+            else {
+                while (currentRunLength > 15) {
+                    symbols.add(SymbolBuffer.ZERO_RUN);
+                    currentRunLength -= 16;
+                }
+                symbols.add(SymbolBuffer.pack(currentRunLength, AmplitudeMap.getCorrespondingSize(value), value));
+                currentRunLength = 0;
+            }
+        }
+        if (currentRunLength > 0) symbols.add(SymbolBuffer.END_OF_BLOCK);
+    }
+
+    /**
+     * Appends the symbols of the MCUs from (inclusive) - to (exclusive) of the given matrices, which hold the
+     * image (or a band of it) at full resolution.
+     */
+    void encodeMcus(McuLayout layout, int[][][] components, int from, int to, SymbolBuffer symbols) {
+        encodeMcus(layout, components, from, to, null, symbols);
+    }
+
+    /**
+     * Like {@link #encodeMcus(McuLayout, int[][][], int, int, SymbolBuffer)}, leaving out the MCUs whose mode is
+     * not {@link ConditionalReplenishment#CODED} (null modes for none).
+     */
+    void encodeMcus(McuLayout layout, int[][][] components, int from, int to, byte[] modes, SymbolBuffer symbols) {
+        Subsampling subsampling = layout.getSubsampling();
+        for (int mcu = from; mcu < to; mcu++) {
+            if (modes != null && modes[mcu] != ConditionalReplenishment.CODED) {
+                continue;
+            }
+            for (int block = 0; block < layout.getBlocksPerMcu(); block++) {
+                int component = layout.component(block);
+                int index = layout.blockIndex(mcu, block);
+                int widthInBlocks = layout.getWidthInBlocks(component);
+                int horizontal = component == McuLayout.Y ? 1 : subsampling.getHorizontal();
+                int vertical = component == McuLayout.Y ? 1 : subsampling.getVertical();
+                encode(components[component], index / widthInBlocks * Plane.BLOCK_SIZE * vertical,
+                        index % widthInBlocks * Plane.BLOCK_SIZE * horizontal, horizontal, vertical, symbols);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package pdav.tudor.domain;
+
+import pdav.tudor.domain.transform.DCT;
+
+/**
+ * The inner loops of the codec which can run on SIMD instructions: the DCT, (de)quantization and color conversion.
+ * {@link #scalar()} is plain Java, {@link VectorKernels} uses the incubating Vector API and is only available when
+ * the JVM runs with --add-modules jdk.incubator.vector. Both give bit-identical results.
+ */
+public interface Kernels {
+    String VECTOR_KERNELS = "pdav.tudor.domain.VectorKernels";
+
+    /**
+     * A new instance of the transform engine matching the kernels.
+     */
+    DCT transform();
+
+    /**
+     * quantized[i] = (int) (values[i] * reciprocals[i % 64]) for the blocks from (inclusive) - to (exclusive).
+     */
+    void quantize(double[] values, int[] quantized, int fromBlock, int toBlock, double[] reciprocals);
+
+    /**
+     * values[i] = quantized[i] * multipliers[i % 64] for the blocks from (inclusive) - to (exclusive).
+     */
+    void dequantize(int[] quantized, double[] values, int fromBlock, int toBlock, double[] multipliers);
+
+    /**
+     * See {@link ColorConversion#rgbToYuv}.
+     */
+    void rgbToYuv(int[] r, int[] g, int[] b, int[] y, int[] u, int[] v, int count);
+
+    /**
+     * See {@link ColorConversion#yuvToRgb}.
+     */
+    void yuvToRgb(int[] y, int[] u, int[] v, int[] r, int[] g, int[] b, int count);
+
+    static Kernels scalar() {
+        return ScalarKernels.INSTANCE;
+    }
+
+    /**
+     * The vector kernels when the Vector API can be loaded and the hardware has vectors of at least 2 doubles,
+     * the scalar kernels otherwise.
+     */
+    static Kernels best() {
+        try {
+            return (Kernels) Class.forName(VECTOR_KERNELS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return scalar();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package pdav.tudor.domain;
+
+/**
+ * Where the blocks of the minimum coded units (MCUs) of an image are found in its planes.
+ * The image is padded to a whole number of MCUs, so the luma plane has getHorizontal() x getVertical() blocks for
+ * every MCU, and the chroma planes one. The blocks of an MCU are numbered in coding order: the luma blocks
+ * row-major, then the U block and the V block.
+ */
+public class McuLayout {
+    public static final int Y = 0;
+    public static final int U = 1;
+    public static final int V = 2;
+    private final Subsampling subsampling;
+    private final int mcuColumns;
+    private final int mcuRows;
+    // for every block of an MCU: its component and its position inside the MCU, in blocks
+    private final int[] components;
+    private final int[] lines;
+    private final int[] columns;
+
+    public McuLayout(Subsampling subsampling, int width, int height) {
+        this.subsampling = subsampling;
+        this.mcuColumns = (width + subsampling.getMcuWidth() - 1) / subsampling.getMcuWidth();
+        this.mcuRows = (height + subsampling.getMcuHeight() - 1) / subsampling.getMcuHeight();
+
+        int lumaBlocks = subsampling.getHorizontal() * subsampling.getVertical();
+        this.components = new int[lumaBlocks + 2];
+        this.lines = new int[lumaBlocks + 2];
+        this.columns = new int[lumaBlocks + 2];
+        for (int block = 0; block < lumaBlocks; block++) {
+            components[block] = Y;
+            lines[block] = block / subsampling.getHorizontal();
+            columns[block] = block % subsampling.getHorizontal();
+        }
+        components[lumaBlocks] = U;
+        components[lumaBlocks + 1] = V;
+    }
+
+    public Subsampling getSubsampling() {
+        return subsampling;
+    }
+
+    public int getMcuColumns() {
+        return mcuColumns;
+    }
+
+    public int getMcuRows() {
+        return mcuRows;
+    }
+
+    public int getMcuCount() {
+        return mcuColumns * mcuRows;
+    }
+
+    public int getBlocksPerMcu() {
+        return components.length;
+    }
+
+    /**
+     * The component (Y, U or V) of every block of an MCU, in coding order.
+     */
+    public int[] getComponents() {
+        return components.clone();
+    }
+
+    public int component(int block) {
+        return components[block];
+    }
+
+    public int getWidthInBlocks(int component) {
+        return component == Y ? mcuColumns * subsampling.getHorizontal() : mcuColumns;
+    }
+
+    public int getHeightInBlocks(int component) {
+        return component == Y ? mcuRows * subsampling.getVertical() : mcuRows;
+    }
+
+    /**
+     * An empty plane of the size of the given component.
+     */
+    public Plane newPlane(int component) {
+        return new Plane(getWidthInBlocks(component), getHeightInBlocks(component));
+    }
+
+    public CoefficientPlane newCoefficientPlane(int component) {
+        return new CoefficientPlane(getWidthInBlocks(component), getHeightInBlocks(component));
+    }
+
+    /**
+     * Index, in the plane of its component, of the given block of the given MCU.
+     */
+    public int blockIndex(int mcu, int block) {
+        if (components[block] != Y) {
+            return mcu;
+        }
+        int mcuLine = mcu / mcuColumns;
+        int mcuColumn = mcu % mcuColumns;
+        return (mcuLine * subsampling.getVertical() + lines[block]) * getWidthInBlocks(Y)
+                + mcuColumn * subsampling.getHorizontal() + columns[block];
+    }
+}
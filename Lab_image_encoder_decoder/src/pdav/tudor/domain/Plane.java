@@ -0,0 +1,48 @@
+package pdav.tudor.domain;
+
+/**
+ * The samples (or transform coefficients) of one image component, stored in a single array.
+ * The array is ordered block by block: block i, counted row by row from the top-left, occupies the 64 values
+ * starting at {@link #offset(int)}, themselves stored row-major. Stages work on this array in place instead of
+ * allocating a {@link Block} per block.
+ */
+public class Plane {
+    public static final int BLOCK_SIZE = 8;
+    public static final int BLOCK_AREA = BLOCK_SIZE * BLOCK_SIZE;
+    private final int widthInBlocks;
+    private final int heightInBlocks;
+    private final double[] values;
+
+    public Plane(int widthInBlocks, int heightInBlocks) {
+        this.widthInBlocks = widthInBlocks;
+        this.heightInBlocks = heightInBlocks;
+        this.values = new double[widthInBlocks * heightInBlocks * BLOCK_AREA];
+    }
+
+    public int getBlockCount() {
+        return widthInBlocks * heightInBlocks;
+    }
+
+    public int offset(int block) {
+        return block * BLOCK_AREA;
+    }
+
+    /**
+     * A view of the given block, for debugging. Changes made through the view go to the plane.
+     */
+    public Block block(int index) {
+        return new Block(BLOCK_SIZE, index / widthInBlocks, index % widthInBlocks, values, offset(index));
+    }
+
+    public int getWidthInBlocks() {
+        return widthInBlocks;
+    }
+
+    public int getHeightInBlocks() {
+        return heightInBlocks;
+    }
+
+    public double[] getValues() {
+        return values;
+    }
+}
@@ -11,4 +11,32 @@ public class QuantizationMatrix {
             {20, 26, 31, 35, 41, 48, 48, 40},
             {29, 37, 38, 39, 45, 40, 41, 40}
     };
+
+    /**
+     * The values row-major, one after the other.
+     */
+    public static int[] flatten() {
+        int[] table = new int[values.length * values.length];
+        for (int line = 0; line < values.length; line++) {
+            System.arraycopy(values[line], 0, table, line * values.length, values.length);
+        }
+        return table;
+    }
+
+    /**
+     * The values scaled for a quality from 1 (smallest file) to 100 (best image), the way the IJG library does it:
+     * quality 50 keeps the values, lower qualities multiply them by 50 / quality and higher ones by
+     * (100 - quality) / 50. The results are kept between 1 and 255.
+     */
+    public static int[] scaled(int quality) {
+        if (quality < 1 || quality > 100) {
+            throw new IllegalArgumentException("Quality must be between 1 and 100");
+        }
+        int scale = quality < 50 ? 5000 / quality : 200 - 2 * quality;
+        int[] table = flatten();
+        for (int index = 0; index < table.length; index++) {
+            table[index] = Math.min(255, Math.max(1, (table[index] * scale + 50) / 100));
+        }
+        return table;
+    }
 }
@@ -0,0 +1,46 @@
+package pdav.tudor.domain;
+
+import pdav.tudor.domain.transform.DCT;
+import pdav.tudor.domain.transform.FastDCT;
+
+/**
+ * The kernels in plain Java, see {@link Kernels#scalar()}.
+ */
+class ScalarKernels implements Kernels {
+    private static final int BLOCK_AREA = Plane.BLOCK_AREA;
+    static final ScalarKernels INSTANCE = new ScalarKernels();
+
+    @Override
+    public DCT transform() {
+        return new FastDCT();
+    }
+
+    @Override
+    public void quantize(double[] values, int[] quantized, int fromBlock, int toBlock, double[] reciprocals) {
+        for (int position = fromBlock * BLOCK_AREA; position < toBlock * BLOCK_AREA; position++) {
+            quantized[position] = (int) (values[position] * reciprocals[position % BLOCK_AREA]);
+        }
+    }
+
+    @Override
+    public void dequantize(int[] quantized, double[] values, int fromBlock, int toBlock, double[] multipliers) {
+        for (int position = fromBlock * BLOCK_AREA; position < toBlock * BLOCK_AREA; position++) {
+            values[position] = quantized[position] * multipliers[position % BLOCK_AREA];
+        }
+    }
+
+    @Override
+    public void rgbToYuv(int[] r, int[] g, int[] b, int[] y, int[] u, int[] v, int count) {
+        ColorConversion.rgbToYuv(r, g, b, y, u, v, count);
+    }
+
+    @Override
+    public void yuvToRgb(int[] y, int[] u, int[] v, int[] r, int[] g, int[] b, int count) {
+        ColorConversion.yuvToRgb(y, u, v, r, g, b, count);
+    }
+
+    @Override
+    public String toString() {
+        return "scalar";
+    }
+}
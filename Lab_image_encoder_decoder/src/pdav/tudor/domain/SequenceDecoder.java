@@ -0,0 +1,107 @@
+package pdav.tudor.domain;
+
+import pdav.tudor.domain.io.CompressedImage;
+import pdav.tudor.domain.io.FrameWriter;
+import pdav.tudor.domain.metrics.StageListener;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes a sequence written by {@link SequenceEncoder} into a directory of numbered PPM files or a stream of P6
+ * images (see {@link FrameWriter#open(String)}). Reading, decoding and writing overlap in a {@link FramePipeline}.
+ * A single decoder goes from frame to frame, its planes holding the previous frame for the frames coded against it
+ * (see {@link ConditionalReplenishment}), and writes the RGB values into the buffers of the frames, which are reused
+ * once the frame is written.
+ */
+public class SequenceDecoder {
+    private final String input;
+    private final String output;
+    private int depth = 3;
+    private Kernels kernels = Kernels.best();
+    private int parallelism = 1;
+    private StageListener listener;
+    // only used by the transform stage
+    private Decoder decoder;
+
+    private static class Frame {
+        private CompressedImage compressed;
+        private int[][] r, g, b;
+    }
+
+    public SequenceDecoder(String input, String output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    /**
+     * Number of frames in flight, 3 by default: one per stage.
+     */
+    public void setDepth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Depth must be at least 1");
+        }
+        this.depth = depth;
+    }
+
+    public void setKernels(Kernels kernels) {
+        this.kernels = kernels;
+    }
+
+    /**
+     * Threads used inside the decoding of one frame, on top of the threads of the pipeline.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public void setStageListener(StageListener listener) {
+        this.listener = listener;
+    }
+
+    public SequenceStatistics decode() throws IOException {
+        List<Frame> frames = new ArrayList<>();
+        for (int index = 0; index < depth; index++) {
+            frames.add(new Frame());
+        }
+        decoder = null;
+        try (DataInputStream reader = new DataInputStream(new BufferedInputStream(new FileInputStream(input)));
+             FrameWriter writer = FrameWriter.open(output)) {
+            return new FramePipeline<>(frames).run(
+                    frame -> (frame.compressed = CompressedImage.readNext(reader)) != null,
+                    this::decode,
+                    frame -> writer.write(frame.r, frame.g, frame.b, frame.compressed.getWidth(),
+                            frame.compressed.getHeight()));
+        } finally {
+            decoder = null;
+        }
+    }
+
+    private void decode(Frame frame) {
+        CompressedImage image = frame.compressed;
+        if (decoder != null && decoder.getWidth() == image.getWidth() && decoder.getHeight() == image.getHeight()
+                && decoder.getSubsampling() == image.getSubsampling()) {
+            decoder.setCompressedImage(image);
+        } else {
+            decoder = new Decoder(null, image);
+            decoder.setKernels(kernels);
+            decoder.setParallelism(parallelism);
+            decoder.setStageListener(listener);
+        }
+        if (frame.r == null || frame.r.length != image.getHeight() || frame.r[0].length != image.getWidth()) {
+            frame.r = new int[image.getHeight()][image.getWidth()];
+            frame.g = new int[image.getHeight()][image.getWidth()];
+            frame.b = new int[image.getHeight()][image.getWidth()];
+        }
+        decoder.setOutput(frame.r, frame.g, frame.b);
+        decoder.entropyDecoding();
+        decoder.deQuantization();
+        decoder.inverseDCT();
+        decoder.convertBlocksToMatrices();
+        decoder.convertYUVtoRGB();
+    }
+}
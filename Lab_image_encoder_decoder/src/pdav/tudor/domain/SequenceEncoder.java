@@ -0,0 +1,147 @@
+package pdav.tudor.domain;
+
+import pdav.tudor.domain.io.CompressedImage;
+import pdav.tudor.domain.io.FrameReader;
+import pdav.tudor.domain.io.ScanlineReader;
+import pdav.tudor.domain.metrics.StageListener;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes a sequence of frames, a directory of numbered PPM files or a stream of P6 images
+ * (see {@link FrameReader#open(String)}), into one file holding their compressed images one after the other
+ * (see {@link CompressedImage#readNext}). Reading, encoding and writing overlap in a {@link FramePipeline}.
+ * The RGB matrices of the frames are reused once the frame is written, and the encoder keeps its YUV matrices
+ * from frame to frame.
+ */
+public class SequenceEncoder {
+    private final String input;
+    private final String output;
+    // only used by the transform stage
+    private final Encoder encoder = new Encoder(null);
+    private int depth = 3;
+    private ConditionalReplenishment replenishment;
+
+    private static class Frame {
+        private int[][] r, g, b;
+        private CompressedImage compressed;
+    }
+
+    public SequenceEncoder(String input, String output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    /**
+     * Number of frames in flight, 3 by default: one per stage.
+     */
+    public void setDepth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Depth must be at least 1");
+        }
+        this.depth = depth;
+    }
+
+    public void setKernels(Kernels kernels) {
+        encoder.setKernels(kernels);
+    }
+
+    /**
+     * Threads used inside the encoding of one frame, on top of the threads of the pipeline.
+     */
+    public void setParallelism(int parallelism) {
+        encoder.setParallelism(parallelism);
+    }
+
+    public void setSubsampling(Subsampling subsampling) {
+        encoder.setSubsampling(subsampling);
+    }
+
+    public void setQuality(int quality) {
+        encoder.setQuality(quality);
+    }
+
+    public void setOptimizedHuffmanTables(boolean optimizedHuffmanTables) {
+        encoder.setOptimizedHuffmanTables(optimizedHuffmanTables);
+    }
+
+    public void setStageListener(StageListener listener) {
+        encoder.setStageListener(listener);
+    }
+
+    /**
+     * Codes only the MCUs that changed since the previous frame, see {@link ConditionalReplenishment}.
+     * Null (the default) codes every frame whole.
+     */
+    public void setConditionalReplenishment(ConditionalReplenishment replenishment) {
+        this.replenishment = replenishment;
+        encoder.setConditionalReplenishment(replenishment);
+    }
+
+    /**
+     * See {@link Encoder#setBlockCache(BlockCache)}, the cache is kept from one frame to the next.
+     */
+    public void setBlockCache(BlockCache blockCache) {
+        encoder.setBlockCache(blockCache);
+    }
+
+    /**
+     * See {@link Encoder#setFlatBlockDetector(FlatBlockDetector)}.
+     */
+    public void setFlatBlockDetector(FlatBlockDetector flatBlocks) {
+        encoder.setFlatBlockDetector(flatBlocks);
+    }
+
+    /**
+     * See {@link Encoder#setRestartInterval(int)}, only used by the frames coded whole.
+     */
+    public void setRestartInterval(int restartInterval) {
+        encoder.setRestartInterval(restartInterval);
+    }
+
+    public SequenceStatistics encode() throws IOException {
+        if (replenishment != null) {
+            // the first frame has nothing to be coded against
+            replenishment.reset();
+        }
+        List<Frame> frames = new ArrayList<>();
+        for (int index = 0; index < depth; index++) {
+            frames.add(new Frame());
+        }
+        try (FrameReader reader = FrameReader.open(input);
+             DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output)))) {
+            return new FramePipeline<>(frames).run(
+                    frame -> read(reader, frame),
+                    this::encode,
+                    frame -> frame.compressed.write(writer));
+        }
+    }
+
+    private static boolean read(FrameReader reader, Frame frame) throws IOException {
+        ScanlineReader lines = reader.nextFrame();
+        if (lines == null) {
+            return false;
+        }
+        int width = lines.getWidth();
+        int height = lines.getHeight();
+        if (frame.r == null || frame.r.length != height || frame.r[0].length != width) {
+            frame.r = new int[height][width];
+            frame.g = new int[height][width];
+            frame.b = new int[height][width];
+        }
+        lines.readAll(frame.r, frame.g, frame.b, BlockExecutor.serial());
+        return true;
+    }
+
+    private void encode(Frame frame) {
+        encoder.setImage(frame.r, frame.g, frame.b, frame.r[0].length, frame.r.length);
+        encoder.convertRGBtoYUV();
+        encoder.fusedEncoding();
+        frame.compressed = encoder.compress();
+    }
+}
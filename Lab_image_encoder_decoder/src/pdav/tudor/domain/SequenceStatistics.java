@@ -0,0 +1,85 @@
+package pdav.tudor.domain;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * How a sequence went through a {@link FramePipeline}: the sustained frame rate, the latency of every frame from the
+ * moment it started being read until it was written, and the share of the time each stage was busy. The busiest
+ * stage is the one limiting the frame rate.
+ */
+public class SequenceStatistics {
+    private final long[] latencies;
+    private final long elapsedNanos;
+    private final String[] stages;
+    private final long[] busyNanos;
+
+    SequenceStatistics(List<Long> latencies, long elapsedNanos, String[] stages, long[] busyNanos) {
+        this.latencies = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        this.elapsedNanos = elapsedNanos;
+        this.stages = stages;
+        this.busyNanos = busyNanos;
+    }
+
+    public int getFrames() {
+        return latencies.length;
+    }
+
+    public double getElapsedSeconds() {
+        return elapsedNanos / 1e9;
+    }
+
+    public double getFramesPerSecond() {
+        return elapsedNanos == 0 ? 0 : latencies.length * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Whether the sequence went at least as fast as the given frame rate, e.g. 25 or 30.
+     */
+    public boolean sustains(double framesPerSecond) {
+        return getFramesPerSecond() >= framesPerSecond;
+    }
+
+    public double getAverageLatencyMillis() {
+        return latencies.length == 0 ? 0 : Arrays.stream(latencies).average().orElse(0) / 1e6;
+    }
+
+    /**
+     * The latency below which the given percentage of the frames stayed, e.g. 95.
+     */
+    public double getLatencyPercentileMillis(double percentage) {
+        if (latencies.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentage / 100 * latencies.length) - 1;
+        return latencies[Math.max(0, Math.min(latencies.length - 1, index))] / 1e6;
+    }
+
+    public double getMaxLatencyMillis() {
+        return latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1e6;
+    }
+
+    /**
+     * The share of the elapsed time the stage was working, from 0 to 1.
+     */
+    public double getBusyShare(String stage) {
+        for (int index = 0; index < stages.length; index++) {
+            if (stages[index].equals(stage)) {
+                return elapsedNanos == 0 ? 0 : (double) busyNanos[index] / elapsedNanos;
+            }
+        }
+        throw new IllegalArgumentException("Unknown stage " + stage);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(String.format(
+                "%d frames in %.2f s: %.1f fps, latency average %.1f ms, 95%% %.1f ms, max %.1f ms; busy:",
+                getFrames(), getElapsedSeconds(), getFramesPerSecond(), getAverageLatencyMillis(),
+                getLatencyPercentileMillis(95), getMaxLatencyMillis()));
+        for (String stage : stages) {
+            builder.append(String.format(" %s %.0f%%", stage, 100 * getBusyShare(stage)));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,183 @@
+package pdav.tudor.domain;
+
+import pdav.tudor.domain.entropy.SymbolBuffer;
+import pdav.tudor.domain.io.ScanlineReader;
+import pdav.tudor.domain.transform.DCT;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * Encodes an image one band (a row of MCUs, 8 or 16 lines) at a time, producing the same entropy coding as {@link Encoder}.
+ * Every block goes from the band to its symbols in one pass, see {@link FusedBlockEncoder}.
+ * Only the lines of the current band are kept in memory, so the memory needed grows with the width of the image
+ * and not with its area.
+ * The bands can be pulled one by one with {@link #nextBand()} or pushed to the subscribers of
+ * {@link #getPublisher()} by {@link #encode()}, which lets a writer start before the whole image is encoded.
+ */
+public class StreamingEncoder implements Closeable {
+    private final String filename;
+    private final SubmissionPublisher<EncodedBand> publisher = new SubmissionPublisher<>();
+    private Kernels kernels = Kernels.best();
+    private DCT transform = kernels.transform();
+    private Subsampling subsampling = Subsampling.YUV420;
+    private int[] quantizationTable = QuantizationMatrix.flatten();
+    private ScanlineReader reader;
+    private McuLayout bandLayout;
+    private int width;
+    private int height;
+    private int bandCount;
+    private int nextBand;
+    // the buffers of the current band, reused for every band
+    private int[][] r, g, b;
+    private int[][] y, u, v;
+    private FusedBlockEncoder blockEncoder;
+    private BlockCache blockCache;
+    private FlatBlockDetector flatBlocks = new FlatBlockDetector();
+
+    public StreamingEncoder(String filename) {
+        this.filename = filename;
+    }
+
+    /**
+     * Like {@link Encoder#setKernels(Kernels)}, selects the kernels and the transform engine matching them.
+     */
+    public void setKernels(Kernels kernels) {
+        this.kernels = kernels;
+        this.transform = kernels.transform();
+    }
+
+    public void setTransform(DCT transform) {
+        this.transform = transform;
+    }
+
+    public void setSubsampling(Subsampling subsampling) {
+        this.subsampling = subsampling;
+    }
+
+    /**
+     * Like {@link Encoder#setQuality(int)}, 50 being the base table used by default. Takes effect at {@link #open()}.
+     */
+    public void setQuality(int quality) {
+        this.quantizationTable = QuantizationMatrix.scaled(quality);
+    }
+
+    /**
+     * The table the bands are quantized with, which the file written from them has to carry.
+     */
+    public int[] getQuantizationTable() {
+        return quantizationTable.clone();
+    }
+
+    /**
+     * Like {@link Encoder#setBlockCache(BlockCache)}, null (the default) for none. Takes effect at {@link #open()}.
+     */
+    public void setBlockCache(BlockCache blockCache) {
+        this.blockCache = blockCache;
+    }
+
+    /**
+     * Like {@link Encoder#setFlatBlockDetector(FlatBlockDetector)}, on by default. Takes effect at {@link #open()}.
+     */
+    public void setFlatBlockDetector(FlatBlockDetector flatBlocks) {
+        this.flatBlocks = flatBlocks;
+    }
+
+    public FlatBlockDetector getFlatBlockDetector() {
+        return flatBlocks;
+    }
+
+    /**
+     * Reads the header of the image and allocates the band buffers.
+     */
+    public void open() throws IOException {
+        reader = ScanlineReader.open(filename);
+        width = reader.getWidth();
+        height = reader.getHeight();
+        // like in Encoder, the image is padded to a whole number of MCUs
+        bandCount = new McuLayout(subsampling, width, height).getMcuRows();
+        bandLayout = new McuLayout(subsampling, width, subsampling.getMcuHeight());
+        nextBand = 0;
+
+        int bandHeight = subsampling.getMcuHeight();
+        r = new int[bandHeight][width];
+        g = new int[bandHeight][width];
+        b = new int[bandHeight][width];
+        y = new int[bandHeight][width];
+        u = new int[bandHeight][width];
+        v = new int[bandHeight][width];
+
+        blockEncoder = new FusedBlockEncoder(transform,
+                Encoder.quantizationReciprocals(transform, quantizationTable), blockCache, flatBlocks);
+    }
+
+    /**
+     * Reads, transforms and entropy codes the next band of the image.
+     *
+     * @return null once every band has been encoded
+     */
+    public EncodedBand nextBand() throws IOException {
+        if (nextBand == bandCount) {
+            return null;
+        }
+        int firstLine = nextBand * y.length;
+        for (int line = 0; line < y.length; line++) {
+            if (firstLine + line < height) {
+                reader.readLine(r[line], g[line], b[line], 0);
+                kernels.rgbToYuv(r[line], g[line], b[line], y[line], u[line], v[line], width);
+            } else {
+                // the last band is padded by repeating the last line of the image
+                System.arraycopy(y[line - 1], 0, y[line], 0, width);
+                System.arraycopy(u[line - 1], 0, u[line], 0, width);
+                System.arraycopy(v[line - 1], 0, v[line], 0, width);
+            }
+        }
+
+        // the band owns its symbols, subscribers may keep them
+        SymbolBuffer symbols = new SymbolBuffer(bandLayout.getMcuCount() * bandLayout.getBlocksPerMcu() * 8);
+        blockEncoder.encodeMcus(bandLayout, new int[][][]{y, u, v}, 0, bandLayout.getMcuCount(), symbols);
+        return new EncodedBand(nextBand++, symbols);
+    }
+
+    public Flow.Publisher<EncodedBand> getPublisher() {
+        return publisher;
+    }
+
+    /**
+     * Encodes the whole image on the calling thread, handing every band to the subscribers of
+     * {@link #getPublisher()} as soon as it is ready. When a subscriber falls behind, the encoding waits for it
+     * instead of buffering more bands. The publisher is closed at the end, exceptionally if the image could not be read.
+     */
+    public void encode() {
+        try {
+            open();
+            EncodedBand band;
+            while ((band = nextBand()) != null) {
+                publisher.submit(band);
+            }
+            publisher.close();
+        } catch (IOException | RuntimeException e) {
+            publisher.closeExceptionally(e);
+        } finally {
+            try {
+                close();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    public int getBandCount() {
+        return bandCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package pdav.tudor.domain;
+
+/**
+ * How much the chroma (U and V) planes are reduced compared to the luma (Y) plane. The image is coded as
+ * minimum coded units (MCUs): the luma blocks covering an area of the image, followed by one U and one V block
+ * covering the same area at reduced resolution.
+ */
+public enum Subsampling {
+    /**
+     * Chroma at full resolution, MCUs of 8x8 pixels.
+     */
+    YUV444(1, 1, 1),
+    /**
+     * Chroma at half the horizontal resolution, MCUs of 16x8 pixels.
+     */
+    YUV422(2, 1, 2),
+    /**
+     * Chroma at half the horizontal and half the vertical resolution, MCUs of 16x16 pixels.
+     */
+    YUV420(2, 2, 3);
+
+    private final int horizontal;
+    private final int vertical;
+    private final int code;
+
+    Subsampling(int horizontal, int vertical, int code) {
+        this.horizontal = horizontal;
+        this.vertical = vertical;
+        this.code = code;
+    }
+
+    /**
+     * The subsampling stored as the given code in a compressed image.
+     */
+    public static Subsampling fromCode(int code) {
+        for (Subsampling subsampling : values()) {
+            if (subsampling.code == code) {
+                return subsampling;
+            }
+        }
+        throw new RuntimeException("Format not supported");
+    }
+
+    /**
+     * Luma pixels across for every chroma sample, which is also the number of luma blocks across an MCU.
+     */
+    public int getHorizontal() {
+        return horizontal;
+    }
+
+    /**
+     * Luma pixels down for every chroma sample, which is also the number of luma blocks down an MCU.
+     */
+    public int getVertical() {
+        return vertical;
+    }
+
+    public int getMcuWidth() {
+        return horizontal * Plane.BLOCK_SIZE;
+    }
+
+    public int getMcuHeight() {
+        return vertical * Plane.BLOCK_SIZE;
+    }
+
+    public int getCode() {
+        return code;
+    }
+}
@@ -0,0 +1,129 @@
+package pdav.tudor.domain;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+import pdav.tudor.domain.transform.DCT;
+import pdav.tudor.domain.transform.VectorDCT;
+
+/**
+ * The kernels on the incubating Vector API, with the widest vectors of the hardware (up to 8 doubles, since a block
+ * line has 8 values). Loaded by name from {@link Kernels#best()}, so the rest of the codec works without the
+ * jdk.incubator.vector module.
+ * Every operation is the one of the scalar kernels, in the same order and without fused multiply-adds, so the results
+ * are bit-identical to {@link Kernels#scalar()}.
+ */
+public class VectorKernels implements Kernels {
+    private static final int BLOCK_AREA = Plane.BLOCK_AREA;
+    /**
+     * Doubles per vector, which is also the number of block lines or columns transformed at once.
+     */
+    public static final VectorSpecies<Double> DOUBLE_SPECIES =
+            DoubleVector.SPECIES_PREFERRED.length() > Plane.BLOCK_SIZE ? DoubleVector.SPECIES_512 : DoubleVector.SPECIES_PREFERRED;
+    // as many ints as DOUBLE_SPECIES has doubles, for the conversions of quantization
+    private static final VectorSpecies<Integer> INT_SPECIES =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(DOUBLE_SPECIES.length() * Integer.SIZE));
+    private static final VectorSpecies<Integer> COLOR_SPECIES = IntVector.SPECIES_PREFERRED;
+
+    public VectorKernels() {
+        if (DOUBLE_SPECIES.length() < 2) {
+            throw new UnsupportedOperationException("No vectors of at least 2 doubles");
+        }
+    }
+
+    @Override
+    public DCT transform() {
+        return new VectorDCT();
+    }
+
+    @Override
+    public void quantize(double[] values, int[] quantized, int fromBlock, int toBlock, double[] reciprocals) {
+        for (int offset = fromBlock * BLOCK_AREA; offset < toBlock * BLOCK_AREA; offset += BLOCK_AREA) {
+            for (int index = 0; index < BLOCK_AREA; index += DOUBLE_SPECIES.length()) {
+                DoubleVector quotient = DoubleVector.fromArray(DOUBLE_SPECIES, values, offset + index)
+                        .mul(DoubleVector.fromArray(DOUBLE_SPECIES, reciprocals, index));
+                // D2I truncates like a cast
+                ((IntVector) quotient.convertShape(VectorOperators.D2I, INT_SPECIES, 0)).intoArray(quantized, offset + index);
+            }
+        }
+    }
+
+    @Override
+    public void dequantize(int[] quantized, double[] values, int fromBlock, int toBlock, double[] multipliers) {
+        for (int offset = fromBlock * BLOCK_AREA; offset < toBlock * BLOCK_AREA; offset += BLOCK_AREA) {
+            for (int index = 0; index < BLOCK_AREA; index += DOUBLE_SPECIES.length()) {
+                ((DoubleVector) IntVector.fromArray(INT_SPECIES, quantized, offset + index)
+                        .convertShape(VectorOperators.I2D, DOUBLE_SPECIES, 0))
+                        .mul(DoubleVector.fromArray(DOUBLE_SPECIES, multipliers, index))
+                        .intoArray(values, offset + index);
+            }
+        }
+    }
+
+    private static IntVector clamp(IntVector vector) {
+        return vector.max(0).min(255);
+    }
+
+    /**
+     * The tables of {@link ColorConversion} are gathered with the channel values as indexes, a group of pixels with
+     * a value outside 0 - 255 is left to the scalar code, which clamps it first.
+     */
+    @Override
+    public void rgbToYuv(int[] r, int[] g, int[] b, int[] y, int[] u, int[] v, int count) {
+        int lanes = COLOR_SPECIES.length();
+        int column = 0;
+        for (; column <= count - lanes; column += lanes) {
+            IntVector red = IntVector.fromArray(COLOR_SPECIES, r, column);
+            IntVector green = IntVector.fromArray(COLOR_SPECIES, g, column);
+            IntVector blue = IntVector.fromArray(COLOR_SPECIES, b, column);
+            VectorMask<Integer> outside = red.compare(VectorOperators.UNSIGNED_GT, 255)
+                    .or(green.compare(VectorOperators.UNSIGNED_GT, 255))
+                    .or(blue.compare(VectorOperators.UNSIGNED_GT, 255));
+            if (outside.anyTrue()) {
+                ColorConversion.rgbToYuv(r, g, b, y, u, v, column, column + lanes);
+                continue;
+            }
+            lookUp(ColorConversion.Y_R, ColorConversion.Y_G, ColorConversion.Y_B, r, g, b, y, column);
+            lookUp(ColorConversion.U_R, ColorConversion.U_G, ColorConversion.U_B, r, g, b, u, column);
+            lookUp(ColorConversion.V_R, ColorConversion.V_G, ColorConversion.V_B, r, g, b, v, column);
+        }
+        ColorConversion.rgbToYuv(r, g, b, y, u, v, column, count);
+    }
+
+    private static void lookUp(int[] redTable, int[] greenTable, int[] blueTable, int[] r, int[] g, int[] b,
+                               int[] result, int column) {
+        IntVector.fromArray(COLOR_SPECIES, redTable, 0, r, column)
+                .add(IntVector.fromArray(COLOR_SPECIES, greenTable, 0, g, column))
+                .add(IntVector.fromArray(COLOR_SPECIES, blueTable, 0, b, column))
+                .add(ColorConversion.ROUNDING)
+                .lanewise(VectorOperators.ASHR, ColorConversion.TABLE_BITS)
+                .intoArray(result, column);
+    }
+
+    @Override
+    public void yuvToRgb(int[] y, int[] u, int[] v, int[] r, int[] g, int[] b, int count) {
+        int lanes = COLOR_SPECIES.length();
+        int column = 0;
+        for (; column <= count - lanes; column += lanes) {
+            IntVector luma = IntVector.fromArray(COLOR_SPECIES, y, column)
+                    .lanewise(VectorOperators.LSHL, ColorConversion.COEFFICIENT_BITS);
+            IntVector uValue = IntVector.fromArray(COLOR_SPECIES, u, column);
+            IntVector vValue = IntVector.fromArray(COLOR_SPECIES, v, column);
+            clamp(luma.add(vValue.mul(ColorConversion.R_V))
+                    .lanewise(VectorOperators.ASHR, ColorConversion.OUTPUT_SHIFT)).intoArray(r, column);
+            clamp(luma.add(uValue.mul(ColorConversion.G_U)).add(vValue.mul(ColorConversion.G_V))
+                    .lanewise(VectorOperators.ASHR, ColorConversion.OUTPUT_SHIFT)).intoArray(g, column);
+            clamp(luma.add(uValue.mul(ColorConversion.B_U))
+                    .lanewise(VectorOperators.ASHR, ColorConversion.OUTPUT_SHIFT)).intoArray(b, column);
+        }
+        ColorConversion.yuvToRgb(y, u, v, r, g, b, column, count);
+    }
+
+    @Override
+    public String toString() {
+        return "vector " + DOUBLE_SPECIES + ", " + COLOR_SPECIES;
+    }
+}
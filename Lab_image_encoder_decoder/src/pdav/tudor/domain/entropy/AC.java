@@ -1,9 +1,9 @@
 package pdav.tudor.domain.entropy;
 
 public class AC {
-    int runLength;
-    int size;
-    int amplitude;
+    private final int runLength;
+    private final int size;
+    private final int amplitude;
 
     public AC(int runLength, int size, int amplitude) {
         this.runLength = runLength;
@@ -11,10 +11,6 @@ public class AC {
         this.amplitude = amplitude;
     }
 
-    public void decrementRunLength() {
-        this.runLength--;
-    }
-
     public int getSize() {
         return size;
     }
@@ -0,0 +1,63 @@
+package pdav.tudor.domain.entropy;
+
+/**
+ * Reads codes most significant bit first from a byte array, keeping up to 64 bits ahead in a word refilled
+ * a byte at a time. Reading past the end of the data gives 1 bits, like the padding of {@link BitWriter}.
+ */
+public class BitReader {
+    private final byte[] bytes;
+    private final int end;
+    private int position;
+    private long buffer;
+    private int bufferedBits;
+
+    public BitReader(byte[] bytes) {
+        this(bytes, 0, bytes.length);
+    }
+
+    public BitReader(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.position = offset;
+        this.end = offset + length;
+    }
+
+    private void fill() {
+        while (bufferedBits <= 56) {
+            long next = position < end ? bytes[position] & 0xFF : 0xFF;
+            position++;
+            buffer |= next << (56 - bufferedBits);
+            bufferedBits += 8;
+        }
+    }
+
+    /**
+     * The next length (at most 32) bits, without consuming them.
+     */
+    public int peekBits(int length) {
+        if (bufferedBits < length) {
+            fill();
+        }
+        return (int) (buffer >>> (64 - length));
+    }
+
+    public void skipBits(int length) {
+        buffer <<= length;
+        bufferedBits -= length;
+    }
+
+    public int readBits(int length) {
+        if (length == 0) {
+            return 0;
+        }
+        int value = peekBits(length);
+        skipBits(length);
+        return value;
+    }
+
+    /**
+     * Drops the bits left in the current byte.
+     */
+    public void alignToByte() {
+        skipBits(bufferedBits % 8);
+    }
+}
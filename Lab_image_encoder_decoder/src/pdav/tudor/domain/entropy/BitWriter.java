@@ -0,0 +1,74 @@
+package pdav.tudor.domain.entropy;
+
+import java.util.Arrays;
+
+/**
+ * Appends codes of up to 32 bits to a growing byte array, most significant bit first.
+ * The bits are gathered in a 64 bit word and moved to the array 32 at a time.
+ */
+public class BitWriter {
+    private byte[] bytes;
+    private int size;
+    private long buffer;
+    private int bufferedBits;
+
+    public BitWriter() {
+        this(1 << 12);
+    }
+
+    public BitWriter(int initialCapacity) {
+        this.bytes = new byte[Math.max(8, initialCapacity)];
+    }
+
+    /**
+     * Appends the lowest length bits of value.
+     */
+    public void writeBits(int value, int length) {
+        buffer = (buffer << length) | (value & ((1L << length) - 1));
+        bufferedBits += length;
+        if (bufferedBits >= 32) {
+            bufferedBits -= 32;
+            ensureCapacity(4);
+            int word = (int) (buffer >>> bufferedBits);
+            bytes[size] = (byte) (word >>> 24);
+            bytes[size + 1] = (byte) (word >>> 16);
+            bytes[size + 2] = (byte) (word >>> 8);
+            bytes[size + 3] = (byte) word;
+            size += 4;
+        }
+    }
+
+    /**
+     * Pads the last byte with 1 bits and moves every buffered bit to the array.
+     */
+    public void alignToByte() {
+        int padding = (8 - bufferedBits % 8) % 8;
+        writeBits((1 << padding) - 1, padding);
+        ensureCapacity(4);
+        while (bufferedBits > 0) {
+            bufferedBits -= 8;
+            bytes[size++] = (byte) (buffer >>> bufferedBits);
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, size + extra));
+        }
+    }
+
+    /**
+     * Number of bits written so far.
+     */
+    public long getBitCount() {
+        return 8L * size + bufferedBits;
+    }
+
+    /**
+     * The bytes written, after aligning the stream to a byte boundary.
+     */
+    public byte[] toByteArray() {
+        alignToByte();
+        return Arrays.copyOf(bytes, size);
+    }
+}
@@ -1,14 +1,18 @@
 package pdav.tudor.domain.entropy;
 
 public class DC {
-    int size;
-    int amplitude;
+    private final int size;
+    private final int amplitude;
 
     public DC(int size, int amplitude) {
         this.size = size;
         this.amplitude = amplitude;
     }
 
+    public int getSize() {
+        return size;
+    }
+
     public int getAmplitude() {
         return amplitude;
     }
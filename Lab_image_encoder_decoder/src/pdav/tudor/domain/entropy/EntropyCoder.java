@@ -0,0 +1,388 @@
+package pdav.tudor.domain.entropy;
+
+import java.util.Arrays;
+
+/**
+ * Turns the entropy encodings of the blocks into a Huffman coded bitstream and back, like baseline JPEG:
+ * the DC amplitude is coded as the difference from the previous block of the same component, as a size symbol
+ * followed by that many bits, and every non-zero AC amplitude as a (run of zeros, size) symbol followed by its bits.
+ * Runs longer than 15 zeros are split with 0xF0 symbols and the trailing zeros of a block become an end of
+ * block symbol (0x00).
+ * The blocks are expected in the order of {@link pdav.tudor.domain.Encoder#getSymbols()}, as packed by
+ * {@link SymbolBuffer}: minimum coded unit after minimum coded unit, the component of every block of a unit being
+ * given by an array such as {@link pdav.tudor.domain.McuLayout#getComponents()}.
+ * With restart intervals the stream is made of slices coded independently, see {@link SliceTable}.
+ */
+public class EntropyCoder {
+    public static final int COMPONENTS = 3;
+    private static final int BLOCK_AREA = 64;
+    private static final int ZERO_RUN = 0xF0;
+    private final HuffmanTable dcTable;
+    private final HuffmanTable acTable;
+
+    public EntropyCoder(HuffmanTable dcTable, HuffmanTable acTable) {
+        this.dcTable = dcTable;
+        this.acTable = acTable;
+    }
+
+    /**
+     * The coder using the tables of the JPEG standard.
+     */
+    public static EntropyCoder standard() {
+        return new EntropyCoder(HuffmanTable.STANDARD_DC, HuffmanTable.STANDARD_AC);
+    }
+
+    /**
+     * The coder using tables built from the symbol frequencies of the given blocks, which gives the shortest
+     * bitstream for them at the cost of a first pass over the symbols.
+     */
+    public static EntropyCoder optimizedFor(SymbolBuffer symbols, int[] mcuComponents) {
+        return optimizedFor(symbols, mcuComponents, 0);
+    }
+
+    /**
+     * Like {@link #optimizedFor(SymbolBuffer, int[])}, for a stream with the given restart interval (0 for none),
+     * where the DC predictions go back to 0 at every restart.
+     */
+    public static EntropyCoder optimizedFor(SymbolBuffer symbols, int[] mcuComponents, int restartInterval) {
+        long[] dcFrequencies = new long[256];
+        long[] acFrequencies = new long[256];
+        countSymbols(symbols, mcuComponents, restartInterval, dcFrequencies, acFrequencies);
+        return new EntropyCoder(HuffmanTable.fromFrequencies(dcFrequencies), HuffmanTable.fromFrequencies(acFrequencies));
+    }
+
+    /**
+     * Whether the tables of this coder have a code for every symbol of the given blocks, coded with the given
+     * restart interval (0 for none). The standard tables only cover DC sizes up to 11 and AC sizes up to 10.
+     */
+    public boolean canEncode(SymbolBuffer symbols, int[] mcuComponents, int restartInterval) {
+        long[] dcFrequencies = new long[256];
+        long[] acFrequencies = new long[256];
+        countSymbols(symbols, mcuComponents, restartInterval, dcFrequencies, acFrequencies);
+        for (int symbol = 0; symbol < 256; symbol++) {
+            if ((dcFrequencies[symbol] > 0 && !dcTable.hasCode(symbol))
+                    || (acFrequencies[symbol] > 0 && !acTable.hasCode(symbol))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the number of times every DC and AC symbol is coded to the frequencies (index = symbol).
+     */
+    private static void countSymbols(SymbolBuffer symbols, int[] mcuComponents, int restartInterval,
+                                     long[] dcFrequencies, long[] acFrequencies) {
+        int[] previousDc = new int[COMPONENTS];
+        int block = 0;
+        int mcu = 0;
+        int index = 0;
+        while (index < symbols.size()) {
+            if (restartInterval > 0 && block == 0 && mcu % restartInterval == 0) {
+                Arrays.fill(previousDc, 0);
+            }
+            int component = mcuComponents[block];
+            int dc = SymbolBuffer.amplitude(symbols.get(index++));
+            dcFrequencies[sizeOf(dc - previousDc[component])]++;
+            previousDc[component] = dc;
+            int position = 1;
+            while (position < BLOCK_AREA) {
+                int word = symbols.get(index++);
+                acFrequencies[word >>> 16]++;
+                if (word == SymbolBuffer.END_OF_BLOCK) {
+                    break;
+                }
+                position += word == SymbolBuffer.ZERO_RUN ? 16 : SymbolBuffer.runLength(word) + 1;
+            }
+            block = (block + 1) % mcuComponents.length;
+            if (block == 0) {
+                mcu++;
+            }
+        }
+    }
+
+    /**
+     * Number of bits needed by the magnitude of the value, which is the size category of the amplitude.
+     */
+    public static int sizeOf(int value) {
+        return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+    }
+
+    private static void writeAmplitude(BitWriter writer, int amplitude, int size) {
+        // negative amplitudes are sent as their one's complement
+        writer.writeBits(amplitude < 0 ? amplitude - 1 : amplitude, size);
+    }
+
+    private static int readAmplitude(BitReader reader, int size) {
+        int bits = reader.readBits(size);
+        return size > 0 && bits < 1 << (size - 1) ? bits - (1 << size) + 1 : bits;
+    }
+
+    public byte[] encode(SymbolBuffer symbols, int[] mcuComponents) {
+        return encode(symbols, mcuComponents, null);
+    }
+
+    /**
+     * Like {@link #encode(SymbolBuffer, int[])}, recording where every row of minimum coded units starts in the
+     * given index (null for none), whose rows must cover the blocks.
+     */
+    public byte[] encode(SymbolBuffer symbols, int[] mcuComponents, RowIndex rowIndex) {
+        return encodeSlice(symbols, mcuComponents, 0, symbols.size(), 0, rowIndex);
+    }
+
+    /**
+     * The index in the symbols of the first block of every slice of restartInterval minimum coded units, followed
+     * by the number of symbols.
+     */
+    public static int[] sliceStarts(SymbolBuffer symbols, int blocksPerMcu, int mcuCount, int restartInterval) {
+        int[] starts = new int[SliceTable.count(mcuCount, restartInterval) + 1];
+        int blocksPerSlice = blocksPerMcu * restartInterval;
+        int index = 0;
+        for (int block = 0; index < symbols.size(); block++) {
+            if (block % blocksPerSlice == 0) {
+                starts[block / blocksPerSlice] = index;
+            }
+            // the DC, then the AC symbols up to the end of the block
+            index++;
+            int position = 1;
+            while (position < BLOCK_AREA) {
+                int word = symbols.get(index++);
+                if (word == SymbolBuffer.END_OF_BLOCK) {
+                    break;
+                }
+                position += word == SymbolBuffer.ZERO_RUN ? 16 : SymbolBuffer.runLength(word) + 1;
+            }
+        }
+        starts[starts.length - 1] = symbols.size();
+        return starts;
+    }
+
+    /**
+     * Codes the symbols from (inclusive) - to (exclusive), starting with the first block of the minimum coded unit
+     * firstMcu, on their own: the DC predictions start from 0 and the last byte is padded. Rows of the index
+     * starting in the slice are recorded relative to its start, until the slices are joined by
+     * {@link #join(byte[][], int, RowIndex)}.
+     */
+    public byte[] encodeSlice(SymbolBuffer symbols, int[] mcuComponents, int from, int to, int firstMcu,
+                              RowIndex rowIndex) {
+        BitWriter writer = new BitWriter((to - from) * 2);
+        int[] previousDc = new int[COMPONENTS];
+        int block = 0;
+        int mcu = firstMcu;
+        int index = from;
+        while (index < to) {
+            if (rowIndex != null && block == 0 && mcu % rowIndex.getMcusPerRow() == 0) {
+                rowIndex.set(mcu / rowIndex.getMcusPerRow(), writer.getBitCount(), previousDc);
+            }
+            int component = mcuComponents[block];
+            int dc = SymbolBuffer.amplitude(symbols.get(index++));
+            int difference = dc - previousDc[component];
+            int size = sizeOf(difference);
+            dcTable.encode(writer, size);
+            writeAmplitude(writer, difference, size);
+            previousDc[component] = dc;
+
+            int position = 1;
+            while (position < BLOCK_AREA) {
+                int word = symbols.get(index++);
+                // the run and the size are the Huffman symbol
+                acTable.encode(writer, word >>> 16);
+                if (word == SymbolBuffer.END_OF_BLOCK) {
+                    break;
+                } else if (word == SymbolBuffer.ZERO_RUN) {
+                    position += 16;
+                } else {
+                    writeAmplitude(writer, SymbolBuffer.amplitude(word), SymbolBuffer.size(word));
+                    position += SymbolBuffer.runLength(word) + 1;
+                }
+            }
+            block = (block + 1) % mcuComponents.length;
+            if (block == 0) {
+                mcu++;
+            }
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * The slices coded by {@link #encodeSlice}, in order, as one bitstream with a restart marker in front of every
+     * slice but the first. The rows of the index are moved to their place in the joined stream.
+     *
+     * @return the table of the slices, whose data is {@link #joinedData(byte[][], SliceTable)}
+     */
+    public static SliceTable join(byte[][] slices, int restartInterval, RowIndex rowIndex) {
+        SliceTable table = SliceTable.of(restartInterval, slices);
+        if (rowIndex != null) {
+            for (int row = 0; row < rowIndex.getRows(); row++) {
+                int slice = row * rowIndex.getMcusPerRow() / restartInterval;
+                rowIndex.shift(row, 8L * table.getOffset(slice));
+            }
+        }
+        return table;
+    }
+
+    /**
+     * The bytes of the slices joined according to the table.
+     */
+    public static byte[] joinedData(byte[][] slices, SliceTable table) {
+        int last = slices.length - 1;
+        byte[] data = new byte[table.getOffset(last) + slices[last].length];
+        for (int slice = 0; slice < slices.length; slice++) {
+            int offset = table.getOffset(slice);
+            if (slice > 0) {
+                data[offset - 2] = (byte) 0xFF;
+                data[offset - 1] = (byte) SliceTable.marker(slice);
+            }
+            System.arraycopy(slices[slice], 0, data, offset, slices[slice].length);
+        }
+        return data;
+    }
+
+    /**
+     * Number of bits {@link #encode} would produce for the symbols, before the last byte is padded, computed from
+     * the code lengths alone.
+     */
+    public long sizeInBits(SymbolBuffer symbols, int[] mcuComponents) {
+        return sizeInBits(symbols, mcuComponents, 0, symbols.size());
+    }
+
+    /**
+     * Number of bits of the slices starting at the given symbols (see {@link #sliceStarts}) once joined, with
+     * their padding and markers.
+     */
+    public long sizeInBits(SymbolBuffer symbols, int[] mcuComponents, int[] sliceStarts) {
+        long bits = 0;
+        for (int slice = 0; slice + 1 < sliceStarts.length; slice++) {
+            long sliceBits = sizeInBits(symbols, mcuComponents, sliceStarts[slice], sliceStarts[slice + 1]);
+            bits += (sliceBits + 7) / 8 * 8 + (slice > 0 ? 8 * SliceTable.MARKER_SIZE : 0);
+        }
+        return bits;
+    }
+
+    private long sizeInBits(SymbolBuffer symbols, int[] mcuComponents, int from, int to) {
+        long bits = 0;
+        int[] previousDc = new int[COMPONENTS];
+        int block = 0;
+        int index = from;
+        while (index < to) {
+            int component = mcuComponents[block];
+            int dc = SymbolBuffer.amplitude(symbols.get(index++));
+            int size = sizeOf(dc - previousDc[component]);
+            bits += dcTable.codeLength(size) + size;
+            previousDc[component] = dc;
+
+            int position = 1;
+            while (position < BLOCK_AREA) {
+                int word = symbols.get(index++);
+                // the size of the amplitude is the low half of the symbol
+                bits += acTable.codeLength(word >>> 16) + SymbolBuffer.size(word);
+                if (word == SymbolBuffer.END_OF_BLOCK) {
+                    break;
+                }
+                position += word == SymbolBuffer.ZERO_RUN ? 16 : SymbolBuffer.runLength(word) + 1;
+            }
+            block = (block + 1) % mcuComponents.length;
+        }
+        return bits;
+    }
+
+    /**
+     * Reads the blocks of a bitstream one after the other, keeping the DC prediction of every component.
+     */
+    public class Cursor {
+        private final BitReader reader;
+        private final int[] previousDc = new int[COMPONENTS];
+
+        private Cursor(byte[] data) {
+            this.reader = new BitReader(data);
+        }
+
+        private Cursor(byte[] data, int from, int to) {
+            this.reader = new BitReader(data, from, to - from);
+        }
+
+        private Cursor(byte[] data, RowIndex rowIndex, int row) {
+            long bitOffset = rowIndex.getBitOffset(row);
+            int byteOffset = (int) (bitOffset >>> 3);
+            this.reader = new BitReader(data, byteOffset, data.length - byteOffset);
+            reader.readBits((int) (bitOffset & 7));
+            for (int component = 0; component < COMPONENTS; component++) {
+                previousDc[component] = rowIndex.getDcPredictor(row, component);
+            }
+        }
+
+        /**
+         * Decodes the next block, which belongs to the given component, storing its coefficients row-major from
+         * the given offset.
+         *
+         * @return the zig-zag index of the last non-zero AC coefficient of the block, 0 if there is none
+         */
+        public int decodeBlock(int component, int[] coefficients, int offset) {
+            int lastIndex = EntropyCoder.this.decodeBlock(reader, coefficients, offset, previousDc[component]);
+            previousDc[component] = coefficients[offset];
+            return lastIndex;
+        }
+    }
+
+    /**
+     * Decodes one block, storing its coefficients row-major from the given offset.
+     *
+     * @return the zig-zag index of the last non-zero AC coefficient of the block, 0 if there is none
+     */
+    private int decodeBlock(BitReader reader, int[] coefficients, int offset, int previousDc) {
+        Arrays.fill(coefficients, offset, offset + BLOCK_AREA, 0);
+        coefficients[offset] = previousDc + readAmplitude(reader, dcTable.decode(reader));
+
+        int lastIndex = 0;
+
+        for (int index = 1; index < BLOCK_AREA; index++) {
+            int symbol = acTable.decode(reader);
+            int size = symbol & 0x0F;
+            if (size == 0) {
+                if (symbol != ZERO_RUN) {
+                    break;
+                }
+                index += 15;
+                continue;
+            }
+            index += symbol >>> 4;
+            coefficients[offset + ZigZag.ORDER[index]] = readAmplitude(reader, size);
+            lastIndex = index;
+        }
+        return lastIndex;
+    }
+
+    /**
+     * A cursor on the first block of the given bitstream.
+     */
+    public Cursor cursor(byte[] data) {
+        return new Cursor(data);
+    }
+
+    /**
+     * A cursor on the first block of the given slice, which stops reading at its end, see {@link SliceTable}.
+     */
+    public Cursor cursor(byte[] data, SliceTable slices, int slice) {
+        int offset = slices.getOffset(slice);
+        if (slice > 0 && (offset < 2 || (data[offset - 2] & 0xFF) != 0xFF
+                || (data[offset - 1] & 0xFF) != SliceTable.marker(slice))) {
+            throw new RuntimeException("Format not supported");
+        }
+        return new Cursor(data, offset, slices.getEnd(slice, data.length));
+    }
+
+    /**
+     * A cursor on the first block of the given row of minimum coded units, see {@link RowIndex}.
+     */
+    public Cursor cursor(byte[] data, RowIndex rowIndex, int row) {
+        return new Cursor(data, rowIndex, row);
+    }
+
+    public HuffmanTable getDcTable() {
+        return dcTable;
+    }
+
+    public HuffmanTable getAcTable() {
+        return acTable;
+    }
+}
@@ -0,0 +1,242 @@
+package pdav.tudor.domain.entropy;
+
+import java.util.Arrays;
+
+/**
+ * A canonical Huffman code over byte symbols, described like in JPEG by the number of codes of each length
+ * (1 to 16 bits) and the symbols in order of increasing code length. Codes of the same length are consecutive
+ * numbers, so the description is enough to rebuild the code.
+ * Decoding first looks the next {@link #LOOKAHEAD_BITS} bits up in a table, which resolves almost every symbol,
+ * and falls back to comparing the code with the largest code of each length.
+ */
+public class HuffmanTable {
+    public static final int MAX_CODE_LENGTH = 16;
+    private static final int LOOKAHEAD_BITS = 9;
+
+    /**
+     * The DC difference table of the JPEG standard (ITU T.81, Annex K.3), for sizes 0 to 11.
+     */
+    public static final HuffmanTable STANDARD_DC = new HuffmanTable(
+            new int[]{0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0},
+            new int[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11}
+    );
+
+    /**
+     * The AC luminance table of the JPEG standard (ITU T.81, Annex K.3), covering every (run, size) pair with a
+     * size of 1 to 10, the end of block (0x00) and the run of 16 zeros (0xF0).
+     */
+    public static final HuffmanTable STANDARD_AC = new HuffmanTable(
+            new int[]{0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d},
+            new int[]{
+                    0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12,
+                    0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+                    0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08,
+                    0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+                    0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16,
+                    0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+                    0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39,
+                    0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+                    0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59,
+                    0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+                    0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79,
+                    0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+                    0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98,
+                    0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+                    0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6,
+                    0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+                    0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4,
+                    0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+                    0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea,
+                    0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+                    0xf9, 0xfa
+            }
+    );
+
+    /**
+     * counts[length - 1] is the number of codes of the given length.
+     */
+    private final int[] counts;
+    private final int[] symbols;
+    // encoding: code and length of every symbol, a length of 0 meaning the symbol has no code
+    private final int[] codes = new int[256];
+    private final int[] lengths = new int[256];
+    // decoding
+    private final int[] maxCode = new int[MAX_CODE_LENGTH + 2];
+    private final int[] valueOffset = new int[MAX_CODE_LENGTH + 1];
+    private final int[] lookahead = new int[1 << LOOKAHEAD_BITS];
+
+    public HuffmanTable(int[] counts, int[] symbols) {
+        if (counts.length != MAX_CODE_LENGTH || Arrays.stream(counts).sum() != symbols.length) {
+            throw new IllegalArgumentException("The counts do not match the " + symbols.length + " symbols");
+        }
+        this.counts = counts.clone();
+        this.symbols = symbols.clone();
+
+        int code = 0;
+        int index = 0;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            valueOffset[length] = index - code;
+            for (int count = 0; count < counts[length - 1]; count++, index++, code++) {
+                codes[symbols[index]] = code;
+                lengths[symbols[index]] = length;
+                if (length <= LOOKAHEAD_BITS) {
+                    // every bit pattern starting with this code decodes to the symbol
+                    int shift = LOOKAHEAD_BITS - length;
+                    for (int suffix = 0; suffix < 1 << shift; suffix++) {
+                        lookahead[(code << shift) | suffix] = (length << 8) | symbols[index];
+                    }
+                }
+            }
+            maxCode[length] = counts[length - 1] > 0 ? code - 1 : -1;
+            code <<= 1;
+        }
+        // sentinel ending the search of a code which is not in the table
+        maxCode[MAX_CODE_LENGTH + 1] = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Builds the optimal code for the given symbol frequencies (index = symbol), limited to codes of at most
+     * 16 bits, following the procedure of the JPEG standard (ITU T.81, Annex K.2). The code made only of 1 bits is
+     * never used, so that it cannot be mistaken for padding.
+     */
+    public static HuffmanTable fromFrequencies(long[] frequencies) {
+        long[] frequency = Arrays.copyOf(frequencies, 257);
+        // reserved symbol taking the all ones code
+        frequency[256] = 1;
+        int[] codeSize = new int[257];
+        int[] others = new int[257];
+        Arrays.fill(others, -1);
+
+        while (true) {
+            // the two least frequent trees, ties going to the largest symbol
+            int c1 = -1;
+            long v = Long.MAX_VALUE;
+            for (int i = 0; i <= 256; i++) {
+                if (frequency[i] > 0 && frequency[i] <= v) {
+                    v = frequency[i];
+                    c1 = i;
+                }
+            }
+            int c2 = -1;
+            v = Long.MAX_VALUE;
+            for (int i = 0; i <= 256; i++) {
+                if (frequency[i] > 0 && frequency[i] <= v && i != c1) {
+                    v = frequency[i];
+                    c2 = i;
+                }
+            }
+            if (c2 < 0) {
+                break;
+            }
+
+            frequency[c1] += frequency[c2];
+            frequency[c2] = 0;
+            codeSize[c1]++;
+            while (others[c1] >= 0) {
+                c1 = others[c1];
+                codeSize[c1]++;
+            }
+            others[c1] = c2;
+            codeSize[c2]++;
+            while (others[c2] >= 0) {
+                c2 = others[c2];
+                codeSize[c2]++;
+            }
+        }
+
+        int[] bits = new int[33];
+        for (int i = 0; i <= 256; i++) {
+            if (codeSize[i] > 0) {
+                bits[Math.min(codeSize[i], 32)]++;
+            }
+        }
+        // move the codes longer than 16 bits up the tree
+        for (int i = 32; i > MAX_CODE_LENGTH; i--) {
+            while (bits[i] > 0) {
+                int j = i - 2;
+                while (bits[j] == 0) {
+                    j--;
+                }
+                bits[i] -= 2;
+                bits[i - 1]++;
+                bits[j + 1] += 2;
+                bits[j]--;
+            }
+        }
+        // drop the reserved symbol, which has the longest code
+        int longest = MAX_CODE_LENGTH;
+        while (longest > 0 && bits[longest] == 0) {
+            longest--;
+        }
+        if (longest > 0) {
+            bits[longest]--;
+        }
+
+        int symbolCount = 0;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            symbolCount += bits[length];
+        }
+        int[] symbols = new int[symbolCount];
+        int index = 0;
+        for (int size = 1; size <= 32 && index < symbolCount; size++) {
+            for (int symbol = 0; symbol < 256 && index < symbolCount; symbol++) {
+                if (codeSize[symbol] == size) {
+                    symbols[index++] = symbol;
+                }
+            }
+        }
+        return new HuffmanTable(Arrays.copyOfRange(bits, 1, MAX_CODE_LENGTH + 1), symbols);
+    }
+
+    public boolean hasCode(int symbol) {
+        return lengths[symbol] > 0;
+    }
+
+    /**
+     * Number of bits taken by the code of the symbol. Like {@link #encode}, fails for a symbol without a code, so
+     * that a size computed from the lengths is always the size of a bitstream that can be written.
+     */
+    public int codeLength(int symbol) {
+        checkCode(symbol);
+        return lengths[symbol];
+    }
+
+    public void encode(BitWriter writer, int symbol) {
+        checkCode(symbol);
+        writer.writeBits(codes[symbol], lengths[symbol]);
+    }
+
+    private void checkCode(int symbol) {
+        if (lengths[symbol] == 0) {
+            throw new IllegalStateException("Symbol 0x" + Integer.toHexString(symbol) + " has no code in the table");
+        }
+    }
+
+    public int decode(BitReader reader) {
+        int entry = lookahead[reader.peekBits(LOOKAHEAD_BITS)];
+        if (entry != 0) {
+            reader.skipBits(entry >>> 8);
+            return entry & 0xFF;
+        }
+        // longer code: extend it one bit at a time until it is not larger than the largest code of its length
+        int length = LOOKAHEAD_BITS + 1;
+        int code = reader.peekBits(length);
+        while (code > maxCode[length]) {
+            length++;
+            if (length > MAX_CODE_LENGTH) {
+                throw new IllegalStateException("Invalid Huffman code in the data");
+            }
+            code = reader.peekBits(length);
+        }
+        reader.skipBits(length);
+        return symbols[code + valueOffset[length]];
+    }
+
+    public int[] getCounts() {
+        return counts.clone();
+    }
+
+    public int[] getSymbols() {
+        return symbols.clone();
+    }
+}
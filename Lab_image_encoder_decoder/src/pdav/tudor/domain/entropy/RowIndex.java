@@ -0,0 +1,59 @@
+package pdav.tudor.domain.entropy;
+
+/**
+ * Where every row of minimum coded units starts in a Huffman coded bitstream, filled by
+ * {@link EntropyCoder#encode(SymbolBuffer, int[], RowIndex)}: the position of its first bit and the DC amplitudes
+ * of the previous block of every component, which its first blocks are coded against. With them a row can be
+ * decoded without decoding the rows before it, see {@link EntropyCoder#cursor(byte[], RowIndex, int)}.
+ */
+public class RowIndex {
+    private final int mcusPerRow;
+    private final long[] bitOffsets;
+    private final int[] dcPredictors;
+
+    /**
+     * An index to be filled by the entropy coder.
+     */
+    public RowIndex(int rows, int mcusPerRow) {
+        this(mcusPerRow, new long[rows], new int[rows * EntropyCoder.COMPONENTS]);
+    }
+
+    /**
+     * An index read back from a file.
+     *
+     * @param dcPredictors the predictors of the Y, U and V components of every row, one row after the other
+     */
+    public RowIndex(int mcusPerRow, long[] bitOffsets, int[] dcPredictors) {
+        if (dcPredictors.length != bitOffsets.length * EntropyCoder.COMPONENTS) {
+            throw new IllegalArgumentException("Expected " + EntropyCoder.COMPONENTS + " predictors per row");
+        }
+        this.mcusPerRow = mcusPerRow;
+        this.bitOffsets = bitOffsets;
+        this.dcPredictors = dcPredictors;
+    }
+
+    void set(int row, long bitOffset, int[] previousDc) {
+        bitOffsets[row] = bitOffset;
+        System.arraycopy(previousDc, 0, dcPredictors, row * EntropyCoder.COMPONENTS, EntropyCoder.COMPONENTS);
+    }
+
+    void shift(int row, long bits) {
+        bitOffsets[row] += bits;
+    }
+
+    public int getRows() {
+        return bitOffsets.length;
+    }
+
+    public int getMcusPerRow() {
+        return mcusPerRow;
+    }
+
+    public long getBitOffset(int row) {
+        return bitOffsets[row];
+    }
+
+    public int getDcPredictor(int row, int component) {
+        return dcPredictors[row * EntropyCoder.COMPONENTS + component];
+    }
+}
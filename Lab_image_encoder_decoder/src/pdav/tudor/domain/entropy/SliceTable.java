@@ -0,0 +1,70 @@
+package pdav.tudor.domain.entropy;
+
+/**
+ * Where the slices of a bitstream with restart intervals start: every restartInterval minimum coded units the DC
+ * predictions go back to 0, the stream is padded to a whole byte with 1 bits and a two byte marker 0xFF 0xDm is
+ * written, m counting the restarts modulo 8 like the RSTm markers of JPEG. Each slice can then be coded and decoded
+ * on its own, see {@link EntropyCoder#encodeSlice} and {@link EntropyCoder#cursor(byte[], SliceTable, int)}.
+ * The bitstream does not escape 0xFF bytes, so the markers cannot be searched for and the offsets are kept here;
+ * the markers check that a slice starts where it is expected to.
+ */
+public class SliceTable {
+    static final int MARKER_SIZE = 2;
+    private final int restartInterval;
+    private final int[] offsets;
+
+    /**
+     * @param offsets the position in the data of the first byte of every slice, after its marker
+     */
+    public SliceTable(int restartInterval, int[] offsets) {
+        if (restartInterval < 1 || offsets.length == 0) {
+            throw new IllegalArgumentException("Invalid restart interval or slice count");
+        }
+        this.restartInterval = restartInterval;
+        this.offsets = offsets;
+    }
+
+    /**
+     * The table of the given slices joined in order with a marker between every two of them.
+     */
+    static SliceTable of(int restartInterval, byte[][] slices) {
+        int[] offsets = new int[slices.length];
+        for (int slice = 1; slice < slices.length; slice++) {
+            offsets[slice] = offsets[slice - 1] + slices[slice - 1].length + MARKER_SIZE;
+        }
+        return new SliceTable(restartInterval, offsets);
+    }
+
+    /**
+     * The second byte of the marker in front of the given slice (from 1 on).
+     */
+    static int marker(int slice) {
+        return 0xD0 + ((slice - 1) & 7);
+    }
+
+    /**
+     * Number of slices needed for the given number of minimum coded units.
+     */
+    public static int count(int mcuCount, int restartInterval) {
+        return (mcuCount + restartInterval - 1) / restartInterval;
+    }
+
+    public int getRestartInterval() {
+        return restartInterval;
+    }
+
+    public int getCount() {
+        return offsets.length;
+    }
+
+    public int getOffset(int slice) {
+        return offsets[slice];
+    }
+
+    /**
+     * The position after the last byte of the slice, in data of the given length.
+     */
+    public int getEnd(int slice, int dataLength) {
+        return slice + 1 < offsets.length ? offsets[slice + 1] - MARKER_SIZE : dataLength;
+    }
+}
@@ -0,0 +1,128 @@
+package pdav.tudor.domain.entropy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The entropy symbols of a sequence of blocks, each packed into one int and stored in a growable array:
+ * bits 20 - 25 hold the run of zeros, bits 16 - 19 the size category and bits 0 - 15 the amplitude (signed).
+ * Every block starts with its DC symbol (run 0, absolute amplitude), followed by its non-zero AC coefficients in
+ * zig-zag order, {@link #ZERO_RUN} symbols splitting runs longer than 15 zeros, and an {@link #END_OF_BLOCK}
+ * symbol replacing the trailing zeros, if any.
+ */
+public class SymbolBuffer {
+    public static final int END_OF_BLOCK = 0;
+    public static final int ZERO_RUN = pack(15, 0, 0);
+    private static final int BLOCK_AREA = 64;
+    private int[] words;
+    private int size;
+
+    public SymbolBuffer() {
+        this(256);
+    }
+
+    public SymbolBuffer(int initialCapacity) {
+        this.words = new int[Math.max(16, initialCapacity)];
+    }
+
+    public static int pack(int runLength, int size, int amplitude) {
+        return runLength << 20 | size << 16 | (amplitude & 0xFFFF);
+    }
+
+    public static int runLength(int word) {
+        return word >>> 20;
+    }
+
+    public static int size(int word) {
+        return (word >>> 16) & 0x0F;
+    }
+
+    public static int amplitude(int word) {
+        return (short) word;
+    }
+
+    public void add(int word) {
+        if (size == words.length) {
+            words = Arrays.copyOf(words, 2 * words.length);
+        }
+        words[size++] = word;
+    }
+
+    public void addAll(SymbolBuffer other) {
+        if (size + other.size > words.length) {
+            words = Arrays.copyOf(words, Math.max(2 * words.length, size + other.size));
+        }
+        System.arraycopy(other.words, 0, words, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * Appends the given symbols, see {@link #toArray(int, int)}.
+     */
+    public void addAll(int[] other) {
+        if (size + other.length > words.length) {
+            words = Arrays.copyOf(words, Math.max(2 * words.length, size + other.length));
+        }
+        System.arraycopy(other, 0, words, size, other.length);
+        size += other.length;
+    }
+
+    public int get(int index) {
+        return words[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * A copy of the symbols.
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(words, size);
+    }
+
+    /**
+     * A copy of the symbols from (inclusive) - to (exclusive).
+     */
+    public int[] toArray(int from, int to) {
+        return Arrays.copyOfRange(words, from, to);
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * The symbols as {@link Entropy} objects, for debugging: runs are not split and the trailing zeros of a block are
+     * stored as an {@link AC} with their count as run length and a size and amplitude of 0.
+     */
+    public List<Entropy> toEntropyList() {
+        List<Entropy> entropyList = new ArrayList<>();
+        int index = 0;
+        while (index < size) {
+            int word = words[index++];
+            DC dc = new DC(size(word), amplitude(word));
+            List<AC> acList = new ArrayList<>();
+            int position = 1;
+            int pendingRun = 0;
+            while (position < BLOCK_AREA) {
+                word = words[index++];
+                if (word == END_OF_BLOCK) {
+                    acList.add(new AC(BLOCK_AREA - position, 0, 0));
+                    break;
+                } else if (word == ZERO_RUN) {
+                    pendingRun += 16;
+                    position += 16;
+                } else {
+                    acList.add(new AC(pendingRun + runLength(word), size(word), amplitude(word)));
+                    position += runLength(word) + 1;
+                    pendingRun = 0;
+                }
+            }
+            entropyList.add(new Entropy(dc, acList));
+        }
+        return entropyList;
+    }
+}
@@ -0,0 +1,49 @@
+package pdav.tudor.domain.entropy;
+
+import java.util.Arrays;
+
+/**
+ * Reads the blocks of an array of packed symbols (see {@link SymbolBuffer}) one after the other.
+ * The cursor only keeps its position: the symbols are never modified, so any number of cursors can read the same
+ * array at the same time, each from its own thread.
+ */
+public class SymbolCursor {
+    private static final int BLOCK_AREA = 64;
+    private final int[] words;
+    private int index;
+
+    public SymbolCursor(int[] words, int index) {
+        this.words = words;
+        this.index = index;
+    }
+
+    /**
+     * Decodes the next block, writing its 64 coefficients row-major from the given offset.
+     *
+     * @return the zig-zag index of the last non-zero AC coefficient of the block, 0 if there is none
+     */
+    public int decodeBlock(int[] coefficients, int offset) {
+        Arrays.fill(coefficients, offset, offset + BLOCK_AREA, 0);
+        coefficients[offset] = SymbolBuffer.amplitude(words[index++]);
+
+        int lastIndex = 0;
+        int position = 1;
+        while (position < BLOCK_AREA) {
+            int word = words[index++];
+            if (word == SymbolBuffer.END_OF_BLOCK) {
+                break;
+            } else if (word == SymbolBuffer.ZERO_RUN) {
+                position += 16;
+            } else {
+                position += SymbolBuffer.runLength(word);
+                lastIndex = position;
+                coefficients[offset + ZigZag.ORDER[position++]] = SymbolBuffer.amplitude(word);
+            }
+        }
+        return lastIndex;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+}
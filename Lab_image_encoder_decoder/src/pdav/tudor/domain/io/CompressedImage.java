@@ -0,0 +1,344 @@
+package pdav.tudor.domain.io;
+
+import pdav.tudor.domain.ConditionalReplenishment;
+import pdav.tudor.domain.Subsampling;
+import pdav.tudor.domain.entropy.EntropyCoder;
+import pdav.tudor.domain.entropy.HuffmanTable;
+import pdav.tudor.domain.entropy.RowIndex;
+import pdav.tudor.domain.entropy.SliceTable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * An encoded image together with everything needed to decode it, and its file format (numbers are big-endian):
+ * <pre>
+ * "PDAV"                      magic number
+ * version                     1 byte
+ * width, height               4 bytes each
+ * subsampling                 1 byte, see {@link Subsampling#getCode()}
+ * MCU count                   4 bytes, version 3 only
+ * MCU modes                   1 byte per MCU, version 3 only, see {@link #getMcuModes()}
+ * motion vectors              2 signed bytes (x, y) per moved MCU, version 3 only
+ * restart interval, slices    4 bytes each, version 5 only
+ * slice offsets               4 bytes per slice, version 5 only, see {@link SliceTable}
+ * MCU rows, MCUs per row      4 bytes each, versions 4 and 5 (0 rows for no index in version 5)
+ * row index                   per MCU row: its first bit in the data (8 bytes), then the Y, U and V DC
+ *                             predictors (2 signed bytes each), versions 4 and 5, see {@link RowIndex}
+ * quantization table          64 x 2 bytes, row-major
+ * DC table, AC table          16 bytes of code counts per length, then one byte per symbol
+ * data length                 4 bytes
+ * data                        the Huffman coded minimum coded units
+ * </pre>
+ * Version 3 is only written for the frames of a sequence coded against the previous frame, version 5 for the other
+ * images with restart intervals, version 4 for those with a row index only and version 2 for those with neither.
+ */
+public class CompressedImage {
+    private static final int MAGIC = 0x50444156;
+    private static final int VERSION = 2;
+    private static final int INTER_VERSION = 3;
+    private static final int INDEXED_VERSION = 4;
+    private static final int SLICED_VERSION = 5;
+    private final int width;
+    private final int height;
+    private final Subsampling subsampling;
+    private final int[] quantizationTable;
+    private final HuffmanTable dcTable;
+    private final HuffmanTable acTable;
+    private final byte[] data;
+    private final byte[] mcuModes;
+    private final byte[] motionVectors;
+    private final RowIndex rowIndex;
+    private final SliceTable sliceTable;
+
+    public CompressedImage(int width, int height, Subsampling subsampling, int[] quantizationTable,
+                           HuffmanTable dcTable, HuffmanTable acTable, byte[] data) {
+        this(width, height, subsampling, quantizationTable, dcTable, acTable, data, null, null, null, null);
+    }
+
+    /**
+     * An image whose rows of MCUs can be decoded on their own, see {@link RowIndex}.
+     */
+    public CompressedImage(int width, int height, Subsampling subsampling, int[] quantizationTable,
+                           HuffmanTable dcTable, HuffmanTable acTable, byte[] data, RowIndex rowIndex) {
+        this(width, height, subsampling, quantizationTable, dcTable, acTable, data, null, null, rowIndex, null);
+    }
+
+    /**
+     * An image whose data is made of independent slices, see {@link SliceTable}, with or without a row index.
+     */
+    public CompressedImage(int width, int height, Subsampling subsampling, int[] quantizationTable,
+                           HuffmanTable dcTable, HuffmanTable acTable, byte[] data, RowIndex rowIndex,
+                           SliceTable sliceTable) {
+        this(width, height, subsampling, quantizationTable, dcTable, acTable, data, null, null, rowIndex,
+                sliceTable);
+    }
+
+    /**
+     * A frame coded against the previous one, see {@link ConditionalReplenishment}.
+     */
+    public CompressedImage(int width, int height, Subsampling subsampling, int[] quantizationTable,
+                           HuffmanTable dcTable, HuffmanTable acTable, byte[] data,
+                           byte[] mcuModes, byte[] motionVectors) {
+        this(width, height, subsampling, quantizationTable, dcTable, acTable, data, mcuModes, motionVectors, null,
+                null);
+    }
+
+    private CompressedImage(int width, int height, Subsampling subsampling, int[] quantizationTable,
+                            HuffmanTable dcTable, HuffmanTable acTable, byte[] data,
+                            byte[] mcuModes, byte[] motionVectors, RowIndex rowIndex, SliceTable sliceTable) {
+        this.mcuModes = mcuModes;
+        this.motionVectors = mcuModes == null ? null : motionVectors;
+        // the rows of a frame coded against the previous one are not indexed nor sliced
+        this.rowIndex = mcuModes == null ? rowIndex : null;
+        this.sliceTable = mcuModes == null ? sliceTable : null;
+        this.width = width;
+        this.height = height;
+        this.subsampling = subsampling;
+        this.quantizationTable = quantizationTable;
+        this.dcTable = dcTable;
+        this.acTable = acTable;
+        this.data = data;
+    }
+
+    /**
+     * Bytes taken by everything but the data, with the given tables.
+     */
+    public static int headerSize(HuffmanTable dcTable, HuffmanTable acTable) {
+        return 4 + 1 + 4 + 4 + 1 + 64 * 2
+                + HuffmanTable.MAX_CODE_LENGTH + dcTable.getSymbols().length
+                + HuffmanTable.MAX_CODE_LENGTH + acTable.getSymbols().length + 4;
+    }
+
+    /**
+     * Bytes taken by everything but the data, for a frame coded against the previous one (null modes for none).
+     */
+    public static int headerSize(HuffmanTable dcTable, HuffmanTable acTable, byte[] mcuModes, byte[] motionVectors) {
+        int size = headerSize(dcTable, acTable);
+        return mcuModes == null ? size : size + 4 + mcuModes.length + motionVectors.length;
+    }
+
+    /**
+     * Bytes added by a row index of the given number of rows.
+     */
+    public static int rowIndexSize(int rows) {
+        return 4 + 4 + rows * (8 + EntropyCoder.COMPONENTS * 2);
+    }
+
+    /**
+     * Bytes added by a slice table of the given number of slices, see {@link SliceTable#count(int, int)}.
+     */
+    public static int sliceTableSize(int slices) {
+        return 4 + 4 + 4 * slices;
+    }
+
+    private static void writeTable(DataOutputStream output, HuffmanTable table) throws IOException {
+        for (int count : table.getCounts()) {
+            output.writeByte(count);
+        }
+        for (int symbol : table.getSymbols()) {
+            output.writeByte(symbol);
+        }
+    }
+
+    private static HuffmanTable readTable(DataInputStream input) throws IOException {
+        int[] counts = new int[HuffmanTable.MAX_CODE_LENGTH];
+        int symbolCount = 0;
+        for (int length = 0; length < counts.length; length++) {
+            counts[length] = input.readUnsignedByte();
+            symbolCount += counts[length];
+        }
+        int[] symbols = new int[symbolCount];
+        for (int index = 0; index < symbolCount; index++) {
+            symbols[index] = input.readUnsignedByte();
+        }
+        return new HuffmanTable(counts, symbols);
+    }
+
+    public void write(String filename) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)))) {
+            write(output);
+        }
+    }
+
+    /**
+     * Writes the image at the current position of the stream, which is left open: images written one after the
+     * other form a sequence, read back with {@link #readNext(DataInputStream)}.
+     */
+    public void write(DataOutputStream output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeByte(mcuModes != null ? INTER_VERSION
+                : sliceTable != null ? SLICED_VERSION : rowIndex != null ? INDEXED_VERSION : VERSION);
+        output.writeInt(width);
+        output.writeInt(height);
+        output.writeByte(subsampling.getCode());
+        if (mcuModes != null) {
+            output.writeInt(mcuModes.length);
+            output.write(mcuModes);
+            output.write(motionVectors);
+        }
+        if (sliceTable != null) {
+            output.writeInt(sliceTable.getRestartInterval());
+            output.writeInt(sliceTable.getCount());
+            for (int slice = 0; slice < sliceTable.getCount(); slice++) {
+                output.writeInt(sliceTable.getOffset(slice));
+            }
+            if (rowIndex == null) {
+                output.writeInt(0);
+                output.writeInt(0);
+            }
+        }
+        if (rowIndex != null) {
+            output.writeInt(rowIndex.getRows());
+            output.writeInt(rowIndex.getMcusPerRow());
+            for (int row = 0; row < rowIndex.getRows(); row++) {
+                output.writeLong(rowIndex.getBitOffset(row));
+                for (int component = 0; component < EntropyCoder.COMPONENTS; component++) {
+                    output.writeShort(rowIndex.getDcPredictor(row, component));
+                }
+            }
+        }
+        for (int value : quantizationTable) {
+            output.writeShort(value);
+        }
+        writeTable(output, dcTable);
+        writeTable(output, acTable);
+        output.writeInt(data.length);
+        output.write(data);
+    }
+
+    public static CompressedImage read(String filename) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)))) {
+            return read(input, input.readInt());
+        }
+    }
+
+    /**
+     * Reads the next image of a sequence, null at the end of the stream.
+     */
+    public static CompressedImage readNext(DataInputStream input) throws IOException {
+        int first = input.read();
+        if (first < 0) {
+            return null;
+        }
+        return read(input, first << 24 | input.readUnsignedByte() << 16 | input.readUnsignedShort());
+    }
+
+    private static CompressedImage read(DataInputStream input, int magic) throws IOException {
+        int version = magic == MAGIC ? input.readUnsignedByte() : -1;
+        if (version < VERSION || version > SLICED_VERSION) {
+            throw new RuntimeException("Format not supported");
+        }
+        int width = input.readInt();
+        int height = input.readInt();
+        Subsampling subsampling = Subsampling.fromCode(input.readUnsignedByte());
+        byte[] mcuModes = null;
+        byte[] motionVectors = null;
+        if (version == INTER_VERSION) {
+            mcuModes = new byte[input.readInt()];
+            input.readFully(mcuModes);
+            int moved = 0;
+            for (byte mode : mcuModes) {
+                if (mode == ConditionalReplenishment.MOVED) {
+                    moved++;
+                }
+            }
+            motionVectors = new byte[2 * moved];
+            input.readFully(motionVectors);
+        }
+        SliceTable sliceTable = null;
+        if (version == SLICED_VERSION) {
+            int restartInterval = input.readInt();
+            int[] offsets = new int[input.readInt()];
+            for (int slice = 0; slice < offsets.length; slice++) {
+                offsets[slice] = input.readInt();
+            }
+            sliceTable = new SliceTable(restartInterval, offsets);
+        }
+        RowIndex rowIndex = null;
+        if (version == INDEXED_VERSION || version == SLICED_VERSION) {
+            long[] bitOffsets = new long[input.readInt()];
+            int mcusPerRow = input.readInt();
+            int[] dcPredictors = new int[bitOffsets.length * EntropyCoder.COMPONENTS];
+            for (int row = 0; row < bitOffsets.length; row++) {
+                bitOffsets[row] = input.readLong();
+                for (int component = 0; component < EntropyCoder.COMPONENTS; component++) {
+                    dcPredictors[row * EntropyCoder.COMPONENTS + component] = input.readShort();
+                }
+            }
+            rowIndex = bitOffsets.length == 0 ? null : new RowIndex(mcusPerRow, bitOffsets, dcPredictors);
+        }
+        int[] quantizationTable = new int[64];
+        for (int index = 0; index < quantizationTable.length; index++) {
+            quantizationTable[index] = input.readUnsignedShort();
+        }
+        HuffmanTable dcTable = readTable(input);
+        HuffmanTable acTable = readTable(input);
+        byte[] data = new byte[input.readInt()];
+        input.readFully(data);
+        return new CompressedImage(width, height, subsampling, quantizationTable, dcTable, acTable, data,
+                mcuModes, motionVectors, rowIndex, sliceTable);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Subsampling getSubsampling() {
+        return subsampling;
+    }
+
+    public int[] getQuantizationTable() {
+        return quantizationTable;
+    }
+
+    public HuffmanTable getDcTable() {
+        return dcTable;
+    }
+
+    public HuffmanTable getAcTable() {
+        return acTable;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * The {@link ConditionalReplenishment} mode of every MCU in coding order, null when every MCU is coded.
+     * Only the coded MCUs are in the data.
+     */
+    public byte[] getMcuModes() {
+        return mcuModes;
+    }
+
+    /**
+     * The displacements of the moved MCUs, see {@link ConditionalReplenishment#getMotionVectors()}.
+     */
+    public byte[] getMotionVectors() {
+        return motionVectors;
+    }
+
+    /**
+     * Where every row of MCUs starts in the data, null when the image has no index.
+     */
+    public RowIndex getRowIndex() {
+        return rowIndex;
+    }
+
+    /**
+     * The slices of the data, null when it has no restart intervals.
+     */
+    public SliceTable getSliceTable() {
+        return sliceTable;
+    }
+}
@@ -0,0 +1,29 @@
+package pdav.tudor.domain.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Gives the frames of a sequence one after the other, each through its own {@link ScanlineReader}.
+ */
+public interface FrameReader extends Closeable {
+    /**
+     * Opens a directory of numbered PPM files (see {@link PPMDirectoryReader}) or a file of P6 images written one
+     * after the other (see {@link P6StreamReader}).
+     */
+    static FrameReader open(String path) throws IOException {
+        if (Files.isDirectory(Path.of(path))) {
+            return new PPMDirectoryReader(path);
+        }
+        return new P6StreamReader(path);
+    }
+
+    /**
+     * The reader of the next frame, valid until the next call, which skips whatever it did not read.
+     *
+     * @return null after the last frame
+     */
+    ScanlineReader nextFrame() throws IOException;
+}
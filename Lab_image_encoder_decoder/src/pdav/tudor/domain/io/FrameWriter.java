@@ -0,0 +1,24 @@
+package pdav.tudor.domain.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes the frames of a sequence as P6 images, one after the other.
+ */
+public interface FrameWriter extends Closeable {
+    /**
+     * Writes numbered files into the given directory when it exists (see {@link PPMDirectoryWriter}), otherwise
+     * every frame into the given file (see {@link P6StreamWriter}).
+     */
+    static FrameWriter open(String path) throws IOException {
+        if (Files.isDirectory(Path.of(path))) {
+            return new PPMDirectoryWriter(path);
+        }
+        return new P6StreamWriter(path);
+    }
+
+    void write(int[][] r, int[][] g, int[][] b, int width, int height) throws IOException;
+}
@@ -0,0 +1,262 @@
+package pdav.tudor.domain.io;
+
+import pdav.tudor.domain.BlockExecutor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reading a PPM file in the ASCII P3 format: the header (see {@link PPMHeader}) followed by the RGB values of each
+ * pixel starting from the top-left, separated by any amount of whitespace.
+ * The values are parsed straight from the bytes of a reused buffer, without creating any object per value.
+ * Comments are accepted among the values as well, any other character is an error.
+ */
+public class P3ScanlineReader implements ScanlineReader {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private final FileChannel channel;
+    private final PPMHeader header;
+    private final byte[] bytes = new byte[BUFFER_SIZE];
+    private final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    private int position;
+    private int limit;
+    // the position in the file of the next byte
+    private long offset;
+    private int linesRead;
+
+    public P3ScanlineReader(String filename) throws IOException {
+        this.channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ);
+        try {
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // fill the buffer, the header has to fit in it
+            }
+            limit = buffer.position();
+            this.header = PPMHeader.parse(buffer.duplicate().flip());
+            if (!header.getFormat().equals("P3")) {
+                throw new RuntimeException("Format not supported");
+            }
+            position = header.getLength();
+            offset = position;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return header.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return header.getHeight();
+    }
+
+    /**
+     * @return the next byte of the file, or -1 at its end
+     */
+    private int nextByte() throws IOException {
+        if (position == limit) {
+            buffer.clear();
+            int read;
+            do {
+                read = channel.read(buffer);
+            } while (read == 0);
+            if (read < 0) {
+                return -1;
+            }
+            position = 0;
+            limit = read;
+        }
+        offset++;
+        return bytes[position++] & 0xFF;
+    }
+
+    private static IOException unexpectedCharacter(int character, long offset) {
+        String shown = character >= 0x20 && character < 0x7F ? "'" + (char) character + "'"
+                : String.format("0x%02X", character);
+        return new IOException("Unexpected character " + shown + " at byte " + offset + " of the file");
+    }
+
+    private void skipComment() throws IOException {
+        int character = nextByte();
+        while (character != '\n' && character != '\r' && character != -1) {
+            character = nextByte();
+        }
+    }
+
+    private int nextValue() throws IOException {
+        int character = nextByte();
+        while (character == '#' || PPMHeader.isWhitespace(character)) {
+            if (character == '#') {
+                skipComment();
+            }
+            character = nextByte();
+        }
+        if (character == -1) {
+            throw new EOFException("The image ends after " + linesRead + " of its " + header.getHeight() + " lines");
+        }
+        if (character < '0' || character > '9') {
+            throw unexpectedCharacter(character, offset - 1);
+        }
+        int value = 0;
+        while (character >= '0' && character <= '9') {
+            value = value * 10 + character - '0';
+            character = nextByte();
+        }
+        // the byte ending the number is whitespace, which can be dropped, the start of a comment or the end
+        if (character == '#') {
+            skipComment();
+        } else if (character != -1 && !PPMHeader.isWhitespace(character)) {
+            throw unexpectedCharacter(character, offset - 1);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean readLine(int[] r, int[] g, int[] b, int offset) throws IOException {
+        if (linesRead == header.getHeight()) {
+            return false;
+        }
+        int maxValue = header.getMaxValue();
+        for (int column = offset; column < offset + header.getWidth(); column++) {
+            r[column] = PPMHeader.rescale(nextValue(), maxValue);
+            g[column] = PPMHeader.rescale(nextValue(), maxValue);
+            b[column] = PPMHeader.rescale(nextValue(), maxValue);
+        }
+        linesRead++;
+        return true;
+    }
+
+    /**
+     * Reads every remaining line. With a parallel executor, the rest of the file is mapped and split into chunks
+     * starting after a line break, which are parsed concurrently: a first pass counts the values of every chunk so
+     * that the second one knows where each chunk's values go. A chunk never starts inside a value or a comment, which
+     * both end at a line break. When no line break comes soon enough to split the file, it is read sequentially.
+     */
+    @Override
+    public void readAll(int[][] r, int[][] g, int[][] b, BlockExecutor executor) throws IOException {
+        long start = channel.position() - (limit - position);
+        long size = channel.size() - start;
+        if (executor.getParallelism() == 1 || linesRead > 0 || size > Integer.MAX_VALUE) {
+            ScanlineReader.super.readAll(r, g, b, executor);
+            return;
+        }
+        MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        int chunkCount = executor.getParallelism() * 8;
+        int[] boundaries = new int[chunkCount + 1];
+        for (int chunk = 1; chunk < chunkCount; chunk++) {
+            boundaries[chunk] = chunkStart(data, Math.max(boundaries[chunk - 1], (int) (size * chunk / chunkCount)));
+            if (boundaries[chunk] < 0) {
+                ScanlineReader.super.readAll(r, g, b, executor);
+                return;
+            }
+        }
+        boundaries[chunkCount] = (int) size;
+
+        int[] counts = new int[chunkCount + 1];
+        try {
+            executor.forRange(chunkCount, (from, to) -> {
+                for (int chunk = from; chunk < to; chunk++) {
+                    counts[chunk + 1] = parseChunk(data, start, boundaries[chunk], boundaries[chunk + 1], -1,
+                            null, null, null);
+                }
+            });
+        } catch (RuntimeException e) {
+            // the fork-join pool may wrap the exception of a worker
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) cause).getCause();
+                }
+            }
+            throw e;
+        }
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            counts[chunk + 1] += counts[chunk];
+        }
+        long expected = 3L * header.getWidth() * header.getHeight();
+        if (counts[chunkCount] < expected) {
+            throw new EOFException("The image has " + counts[chunkCount] + " of its " + expected + " values");
+        }
+        executor.forRange(chunkCount, (from, to) -> {
+            for (int chunk = from; chunk < to; chunk++) {
+                parseChunk(data, start, boundaries[chunk], boundaries[chunk + 1], counts[chunk], r, g, b);
+            }
+        });
+        linesRead = header.getHeight();
+    }
+
+    /**
+     * The first index from the given one which follows a line break, the end of the data when it comes first.
+     *
+     * @return -1 when there is no line break in the next {@link #BUFFER_SIZE} bytes
+     */
+    private static int chunkStart(ByteBuffer data, int index) {
+        int limit = data.limit();
+        for (int candidate = index; candidate < limit; candidate++) {
+            if (candidate == index + BUFFER_SIZE) {
+                return -1;
+            }
+            byte character = data.get(candidate);
+            if (character == '\n' || character == '\r') {
+                return candidate + 1;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Parses the values between from and to. When r is null the values are only counted, otherwise value number
+     * firstValue + i of the image is stored for the i-th value found, ignoring values past the image.
+     *
+     * @param start the position in the file of the first byte of data
+     * @return the number of values found
+     * @throws UncheckedIOException for a character that is neither part of a value, whitespace nor a comment
+     */
+    private int parseChunk(ByteBuffer data, long start, int from, int to, long firstValue,
+                           int[][] r, int[][] g, int[][] b) {
+        int width = header.getWidth();
+        int maxValue = header.getMaxValue();
+        long valueCount = 3L * width * header.getHeight();
+        long index = firstValue;
+        int found = 0;
+        int position = from;
+        while (position < to) {
+            int character = data.get(position);
+            if (character == '#') {
+                while (position < to && data.get(position) != '\n' && data.get(position) != '\r') {
+                    position++;
+                }
+            } else if (character >= '0' && character <= '9') {
+                int value = 0;
+                while (position < to && (character = data.get(position)) >= '0' && character <= '9') {
+                    value = value * 10 + character - '0';
+                    position++;
+                }
+                found++;
+                if (r != null && index < valueCount) {
+                    int pixel = (int) (index / 3);
+                    int[][] component = index % 3 == 0 ? r : index % 3 == 1 ? g : b;
+                    component[pixel / width][pixel % width] = PPMHeader.rescale(value, maxValue);
+                }
+                index++;
+            } else if (PPMHeader.isWhitespace(character)) {
+                position++;
+            } else {
+                throw new UncheckedIOException(unexpectedCharacter(character & 0xFF, start + position));
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
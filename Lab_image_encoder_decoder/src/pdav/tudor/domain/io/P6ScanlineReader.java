@@ -0,0 +1,111 @@
+package pdav.tudor.domain.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reading a PPM file in the binary P6 format through a memory map of the file.
+ * Samples take one byte when the maximum color value is below 256 and two bytes (most significant first) otherwise,
+ * and are rescaled to 0 - 255. A single buffer cannot map more than 2 GB, so the pixel data is mapped in windows
+ * of whole lines, one after the other.
+ */
+public class P6ScanlineReader implements ScanlineReader {
+    private static final long WINDOW_SIZE = 1L << 30;
+    private static final int HEADER_WINDOW_SIZE = 1 << 16;
+    private final FileChannel channel;
+    private final PPMHeader header;
+    private final int bytesPerSample;
+    private final int lineSize;
+    private final int linesPerWindow;
+    private final byte[] lineBuffer;
+    private MappedByteBuffer window;
+    private int linesRead;
+
+    public P6ScanlineReader(String filename) throws IOException {
+        this.channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ);
+        try {
+            this.header = PPMHeader.parse(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(channel.size(), HEADER_WINDOW_SIZE)));
+            if (!header.getFormat().equals("P6")) {
+                throw new RuntimeException("Format not supported");
+            }
+            this.bytesPerSample = header.getMaxValue() < 256 ? 1 : 2;
+            this.lineSize = 3 * bytesPerSample * header.getWidth();
+            if (channel.size() < header.getLength() + (long) lineSize * header.getHeight()) {
+                throw new EOFException("The file is shorter than its " + header.getHeight() + " lines");
+            }
+            this.linesPerWindow = (int) Math.max(1, WINDOW_SIZE / lineSize);
+            this.lineBuffer = new byte[lineSize];
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return header.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return header.getHeight();
+    }
+
+    private void mapNextWindow() throws IOException {
+        int lines = Math.min(linesPerWindow, header.getHeight() - linesRead);
+        window = channel.map(FileChannel.MapMode.READ_ONLY,
+                header.getLength() + (long) linesRead * lineSize,
+                (long) lines * lineSize);
+    }
+
+    @Override
+    public boolean readLine(int[] r, int[] g, int[] b, int offset) throws IOException {
+        if (linesRead == header.getHeight()) {
+            return false;
+        }
+        if (window == null || !window.hasRemaining()) {
+            mapNextWindow();
+        }
+        window.get(lineBuffer);
+        decodeLine(lineBuffer, header, r, g, b, offset);
+        linesRead++;
+        return true;
+    }
+
+    /**
+     * Converts the samples of one line of pixel data, as stored in a P6 file with the given header.
+     */
+    static void decodeLine(byte[] lineBuffer, PPMHeader header, int[] r, int[] g, int[] b, int offset) {
+        int maxValue = header.getMaxValue();
+        if (maxValue == 255) {
+            for (int column = 0, index = 0; column < header.getWidth(); column++, index += 3) {
+                r[offset + column] = lineBuffer[index] & 0xFF;
+                g[offset + column] = lineBuffer[index + 1] & 0xFF;
+                b[offset + column] = lineBuffer[index + 2] & 0xFF;
+            }
+        } else if (maxValue < 256) {
+            for (int column = 0, index = 0; column < header.getWidth(); column++, index += 3) {
+                r[offset + column] = PPMHeader.rescale(lineBuffer[index] & 0xFF, maxValue);
+                g[offset + column] = PPMHeader.rescale(lineBuffer[index + 1] & 0xFF, maxValue);
+                b[offset + column] = PPMHeader.rescale(lineBuffer[index + 2] & 0xFF, maxValue);
+            }
+        } else {
+            for (int column = 0, index = 0; column < header.getWidth(); column++, index += 6) {
+                r[offset + column] = PPMHeader.rescale((lineBuffer[index] & 0xFF) << 8 | lineBuffer[index + 1] & 0xFF, maxValue);
+                g[offset + column] = PPMHeader.rescale((lineBuffer[index + 2] & 0xFF) << 8 | lineBuffer[index + 3] & 0xFF, maxValue);
+                b[offset + column] = PPMHeader.rescale((lineBuffer[index + 4] & 0xFF) << 8 | lineBuffer[index + 5] & 0xFF, maxValue);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
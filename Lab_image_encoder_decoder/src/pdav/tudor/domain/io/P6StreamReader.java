@@ -0,0 +1,128 @@
+package pdav.tudor.domain.io;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * P6 images concatenated into one stream, as written by capture tools piping raw frames
+ * (e.g. {@code ffmpeg -f image2pipe -vcodec ppm}). The stream is read sequentially, so it may be a pipe.
+ */
+public class P6StreamReader implements FrameReader {
+    private static final int MAX_HEADER_SIZE = 1 << 16;
+    private final InputStream input;
+    private final byte[] headerBytes = new byte[MAX_HEADER_SIZE];
+    private byte[] lineBuffer = new byte[0];
+    private Frame current;
+
+    public P6StreamReader(String filename) throws IOException {
+        this(new FileInputStream(filename));
+    }
+
+    public P6StreamReader(InputStream input) {
+        this.input = new BufferedInputStream(input, 1 << 16);
+    }
+
+    /**
+     * Parses the next header, trying whenever a whitespace character may have ended it.
+     *
+     * @return null at the end of the stream
+     */
+    private PPMHeader readHeader() throws IOException {
+        int length = 0;
+        while (length < headerBytes.length) {
+            int character = input.read();
+            if (character < 0) {
+                if (length == 0) {
+                    return null;
+                }
+                throw new EOFException("The stream ends inside a header");
+            }
+            headerBytes[length++] = (byte) character;
+            if (PPMHeader.isWhitespace(character)) {
+                try {
+                    return PPMHeader.parse(ByteBuffer.wrap(headerBytes, 0, length).slice());
+                } catch (IOException e) {
+                    // not complete yet
+                }
+            }
+        }
+        throw new IOException("Invalid PPM header: longer than " + MAX_HEADER_SIZE + " bytes");
+    }
+
+    @Override
+    public ScanlineReader nextFrame() throws IOException {
+        if (current != null) {
+            current.skipRemainingLines();
+            current = null;
+        }
+        PPMHeader header = readHeader();
+        if (header == null) {
+            return null;
+        }
+        if (!header.getFormat().equals("P6")) {
+            throw new RuntimeException("Format not supported");
+        }
+        int lineSize = 3 * (header.getMaxValue() < 256 ? 1 : 2) * header.getWidth();
+        if (lineBuffer.length != lineSize) {
+            lineBuffer = new byte[lineSize];
+        }
+        current = new Frame(header);
+        return current;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private class Frame implements ScanlineReader {
+        private final PPMHeader header;
+        private int linesRead;
+
+        Frame(PPMHeader header) {
+            this.header = header;
+        }
+
+        @Override
+        public int getWidth() {
+            return header.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return header.getHeight();
+        }
+
+        @Override
+        public boolean readLine(int[] r, int[] g, int[] b, int offset) throws IOException {
+            if (linesRead == header.getHeight()) {
+                return false;
+            }
+            readLine();
+            P6ScanlineReader.decodeLine(lineBuffer, header, r, g, b, offset);
+            return true;
+        }
+
+        private void readLine() throws IOException {
+            if (input.readNBytes(lineBuffer, 0, lineBuffer.length) != lineBuffer.length) {
+                throw new EOFException("The stream is shorter than the " + header.getHeight() + " lines of a frame");
+            }
+            linesRead++;
+        }
+
+        void skipRemainingLines() throws IOException {
+            while (linesRead < header.getHeight()) {
+                readLine();
+            }
+        }
+
+        @Override
+        public void close() {
+            // the stream belongs to the sequence
+        }
+    }
+}
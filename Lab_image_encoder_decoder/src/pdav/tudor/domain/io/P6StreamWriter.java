@@ -0,0 +1,29 @@
+package pdav.tudor.domain.io;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes every frame into a single file, the P6 images following each other (see {@link P6StreamReader}).
+ */
+public class P6StreamWriter implements FrameWriter {
+    private final FileChannel channel;
+    private final PPMWriter.LineBuffers lineBuffers = new PPMWriter.LineBuffers();
+
+    public P6StreamWriter(String filename) throws IOException {
+        this.channel = FileChannel.open(Path.of(filename),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public void write(int[][] r, int[][] g, int[][] b, int width, int height) throws IOException {
+        PPMWriter.writeP6(channel, r, g, b, width, height, lineBuffers);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
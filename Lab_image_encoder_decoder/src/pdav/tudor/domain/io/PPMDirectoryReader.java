@@ -0,0 +1,64 @@
+package pdav.tudor.domain.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The PPM files (P3 or P6) of a directory as a sequence, ordered by the last number in their names, so that
+ * frame-9.ppm comes before frame-10.ppm; files without a number come last, by name.
+ */
+public class PPMDirectoryReader implements FrameReader {
+    private static final Pattern LAST_NUMBER = Pattern.compile("(\\d+)\\D*$");
+    private final List<Path> files;
+    private int nextFile;
+    private ScanlineReader current;
+
+    public PPMDirectoryReader(String directory) throws IOException {
+        try (Stream<Path> entries = Files.list(Path.of(directory))) {
+            this.files = entries
+                    .filter(file -> file.getFileName().toString().toLowerCase().endsWith(".ppm"))
+                    .sorted(Comparator.comparingLong(PPMDirectoryReader::number)
+                            .thenComparing(file -> file.getFileName().toString()))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static long number(Path file) {
+        Matcher matcher = LAST_NUMBER.matcher(file.getFileName().toString());
+        if (!matcher.find()) {
+            return Long.MAX_VALUE;
+        }
+        String digits = matcher.group(1);
+        // numbers too long for a long keep their order by length
+        return digits.length() > 18 ? Long.MAX_VALUE - 1 : Long.parseLong(digits);
+    }
+
+    public int getFrameCount() {
+        return files.size();
+    }
+
+    @Override
+    public ScanlineReader nextFrame() throws IOException {
+        close();
+        if (nextFile == files.size()) {
+            return null;
+        }
+        current = ScanlineReader.open(files.get(nextFile++).toString());
+        return current;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package pdav.tudor.domain.io;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Writes every frame to its own file of the directory: frame-00000.ppm, frame-00001.ppm, ...
+ */
+public class PPMDirectoryWriter implements FrameWriter {
+    private final Path directory;
+    private final PPMWriter.LineBuffers lineBuffers = new PPMWriter.LineBuffers();
+    private int frames;
+
+    public PPMDirectoryWriter(String directory) {
+        this.directory = Path.of(directory);
+    }
+
+    @Override
+    public void write(int[][] r, int[][] g, int[][] b, int width, int height) throws IOException {
+        String name = String.format("frame-%05d.ppm", frames++);
+        PPMWriter.writeP6(directory.resolve(name).toString(), r, g, b, width, height, lineBuffers);
+    }
+
+    @Override
+    public void close() {
+    }
+}
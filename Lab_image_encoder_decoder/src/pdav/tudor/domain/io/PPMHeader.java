@@ -0,0 +1,115 @@
+package pdav.tudor.domain.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The header of a PPM file: the magic number followed by the width, the height and the maximum color value,
+ * all separated by any amount of whitespace, with comments running from '#' to the end of the line allowed
+ * anywhere in between. A single whitespace character separates the header from the pixel data.
+ */
+public class PPMHeader {
+    private final String format;
+    private final int width;
+    private final int height;
+    private final int maxValue;
+    private final int length;
+
+    private PPMHeader(String format, int width, int height, int maxValue, int length) {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.maxValue = maxValue;
+        this.length = length;
+    }
+
+    /**
+     * Parses the header found at the beginning of the buffer (from index 0), leaving the position of the buffer alone.
+     */
+    public static PPMHeader parse(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < 2 || buffer.get(0) != 'P') {
+            throw new RuntimeException("Format not supported");
+        }
+        String format = "P" + (char) buffer.get(1);
+        int[] position = {2};
+        int width = nextNumber(buffer, position);
+        int height = nextNumber(buffer, position);
+        int maxValue = nextNumber(buffer, position);
+        if (width <= 0 || height <= 0 || maxValue <= 0 || maxValue > 65535) {
+            throw new IOException("Invalid PPM header: " + width + "x" + height + ", max value " + maxValue);
+        }
+        if (position[0] >= buffer.limit()) {
+            throw new EOFException("The file ends after its header");
+        }
+        // the single whitespace character ending the header
+        return new PPMHeader(format, width, height, maxValue, position[0] + 1);
+    }
+
+    static boolean isWhitespace(int character) {
+        return character == ' ' || character == '\n' || character == '\r' || character == '\t'
+                || character == 0x0B || character == '\f';
+    }
+
+    /**
+     * Maps a sample from 0 - maxValue to 0 - 255, rounding to the nearest value.
+     */
+    static int rescale(int value, int maxValue) {
+        return maxValue == 255 ? value : (value * 255 + maxValue / 2) / maxValue;
+    }
+
+    /**
+     * Skips whitespace and comments, then parses the number starting at position[0], leaving position[0]
+     * on the character following it.
+     */
+    private static int nextNumber(ByteBuffer buffer, int[] position) throws IOException {
+        int index = position[0];
+        int limit = buffer.limit();
+        while (index < limit) {
+            byte character = buffer.get(index);
+            if (character == '#') {
+                while (index < limit && buffer.get(index) != '\n' && buffer.get(index) != '\r') {
+                    index++;
+                }
+            } else if (isWhitespace(character)) {
+                index++;
+            } else {
+                break;
+            }
+        }
+        int value = 0;
+        int start = index;
+        while (index < limit && buffer.get(index) >= '0' && buffer.get(index) <= '9') {
+            value = value * 10 + buffer.get(index) - '0';
+            index++;
+        }
+        if (index == start) {
+            throw new IOException("Invalid PPM header: number expected at byte " + start);
+        }
+        position[0] = index;
+        return value;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * Number of bytes taken by the header, i.e. the offset of the pixel data.
+     */
+    public int getLength() {
+        return length;
+    }
+}
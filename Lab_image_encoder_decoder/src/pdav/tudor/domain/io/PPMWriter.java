@@ -0,0 +1,170 @@
+package pdav.tudor.domain.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes RGB matrices (values 0 - 255, one line of the image per line of the matrices) as PPM files.
+ */
+public class PPMWriter {
+    /**
+     * Size of the data handed to the file channel by one write.
+     */
+    private static final int BATCH_SIZE = 1 << 18;
+
+    private PPMWriter() {
+    }
+
+    private static FileChannel create(String filename) throws IOException {
+        return FileChannel.open(Path.of(filename),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static ByteBuffer header(String format, int width, int height) {
+        return ByteBuffer.wrap((format + "\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void writeFully(GatheringByteChannel channel, ByteBuffer[] buffers, int offset, int count)
+            throws IOException {
+        long remaining = 0;
+        for (int index = offset; index < offset + count; index++) {
+            remaining += buffers[index].remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(buffers, offset, count);
+        }
+    }
+
+    /**
+     * The direct buffers {@link #writeP6} packs the lines into: a single block of direct memory sliced into one
+     * buffer per line of a batch. Kept from one image to the next, so that writing a sequence of frames allocates
+     * direct memory only when the frames get wider. Not thread safe, every writer needs its own instance.
+     */
+    public static final class LineBuffers {
+        private ByteBuffer memory = ByteBuffer.allocateDirect(0);
+        // the first slot is left for the header
+        private ByteBuffer[] buffers = new ByteBuffer[1];
+        private int lineSize;
+
+        /**
+         * At least lines buffers of lineSize bytes, from index 1.
+         */
+        private ByteBuffer[] get(int lineSize, int lines) {
+            if (lineSize != this.lineSize || buffers.length < lines + 1) {
+                if (memory.capacity() < lineSize * lines) {
+                    memory = ByteBuffer.allocateDirect(lineSize * lines);
+                }
+                buffers = new ByteBuffer[lines + 1];
+                for (int line = 0; line < lines; line++) {
+                    buffers[line + 1] = memory.slice(line * lineSize, lineSize);
+                }
+                this.lineSize = lineSize;
+            }
+            return buffers;
+        }
+    }
+
+    /**
+     * Binary P6: every line is packed into its own direct buffer, and batches of lines (the first one preceded by
+     * the header) are handed to the channel in a single gathering write. The buffers are reused for every batch.
+     */
+    public static void writeP6(String filename, int[][] r, int[][] g, int[][] b, int width, int height) throws IOException {
+        writeP6(filename, r, g, b, width, height, new LineBuffers());
+    }
+
+    /**
+     * {@link #writeP6(String, int[][], int[][], int[][], int, int)} with buffers kept by the caller.
+     */
+    public static void writeP6(String filename, int[][] r, int[][] g, int[][] b, int width, int height,
+                               LineBuffers lineBuffers) throws IOException {
+        try (FileChannel channel = create(filename)) {
+            writeP6(channel, r, g, b, width, height, lineBuffers);
+        }
+    }
+
+    /**
+     * Writes the image as P6 at the current position of the channel, which is left open, so that images can be
+     * written one after the other into a single stream.
+     */
+    public static void writeP6(GatheringByteChannel channel, int[][] r, int[][] g, int[][] b, int width, int height,
+                               LineBuffers lineBuffers) throws IOException {
+        int lineSize = 3 * width;
+        int linesPerBatch = Math.max(1, Math.min(height, BATCH_SIZE / lineSize));
+        ByteBuffer[] buffers = lineBuffers.get(lineSize, linesPerBatch);
+
+        buffers[0] = header("P6", width, height);
+        int firstBuffer = 0;
+        for (int line = 0; line < height; line += linesPerBatch) {
+            int lines = Math.min(linesPerBatch, height - line);
+            for (int batchLine = 0; batchLine < lines; batchLine++) {
+                ByteBuffer buffer = buffers[batchLine + 1].clear();
+                int[] rLine = r[line + batchLine], gLine = g[line + batchLine], bLine = b[line + batchLine];
+                for (int column = 0; column < width; column++) {
+                    buffer.put((byte) rLine[column]);
+                    buffer.put((byte) gLine[column]);
+                    buffer.put((byte) bLine[column]);
+                }
+                buffer.flip();
+            }
+            // the header goes with the first batch only
+            writeFully(channel, buffers, firstBuffer, lines + 1 - firstBuffer);
+            firstBuffer = 1;
+        }
+    }
+
+    /**
+     * Appends the decimal digits of a value between 0 and 999 followed by a line break, returning the new position.
+     */
+    private static int format(int value, byte[] bytes, int position) {
+        if (value >= 100) {
+            bytes[position++] = (byte) ('0' + value / 100);
+        }
+        if (value >= 10) {
+            bytes[position++] = (byte) ('0' + value / 10 % 10);
+        }
+        bytes[position++] = (byte) ('0' + value % 10);
+        bytes[position++] = '\n';
+        return position;
+    }
+
+    /**
+     * ASCII P3 with one value per line, formatted by hand into a byte buffer which is written whenever it fills up.
+     */
+    public static void writeP3(String filename, int[][] r, int[][] g, int[][] b, int width, int height) throws IOException {
+        byte[] bytes = new byte[BATCH_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        // the most a pixel can take: three values of three digits, each followed by a line break
+        int pixelSize = 12;
+
+        try (FileChannel channel = create(filename)) {
+            ByteBuffer header = header("P3", width, height);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            int position = 0;
+            for (int line = 0; line < height; line++) {
+                for (int column = 0; column < width; column++) {
+                    if (position + pixelSize > bytes.length) {
+                        buffer.clear().limit(position);
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                        position = 0;
+                    }
+                    position = format(r[line][column], bytes, position);
+                    position = format(g[line][column], bytes, position);
+                    position = format(b[line][column], bytes, position);
+                }
+            }
+            buffer.clear().limit(position);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package pdav.tudor.domain.io;
+
+import pdav.tudor.domain.BlockExecutor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Gives the pixels of an image one line at a time, from the top of the image, so that callers only keep
+ * the lines they are working on.
+ */
+public interface ScanlineReader extends Closeable {
+    /**
+     * Opens a reader for the given PPM file, picking the one matching its magic number (P3 or P6).
+     */
+    static ScanlineReader open(String filename) throws IOException {
+        byte[] magic;
+        try (InputStream inputStream = Files.newInputStream(Path.of(filename))) {
+            magic = inputStream.readNBytes(2);
+        }
+        if (magic.length == 2 && magic[0] == 'P' && magic[1] == '6') {
+            return new P6ScanlineReader(filename);
+        }
+        return new P3ScanlineReader(filename);
+    }
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Reads the next line of the image, storing its RGB values from the given offset of the three arrays.
+     *
+     * @return false if every line has already been read
+     */
+    boolean readLine(int[] r, int[] g, int[] b, int offset) throws IOException;
+
+    /**
+     * Reads every remaining line into the given matrices, one line of the image per line of the matrices.
+     * Readers able to split the work may use the executor.
+     */
+    default void readAll(int[][] r, int[][] g, int[][] b, BlockExecutor executor) throws IOException {
+        for (int line = 0; line < getHeight(); line++) {
+            if (!readLine(r[line], g[line], b[line], 0)) {
+                break;
+            }
+        }
+    }
+}
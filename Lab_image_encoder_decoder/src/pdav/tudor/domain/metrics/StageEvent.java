@@ -0,0 +1,56 @@
+package pdav.tudor.domain.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The Flight Recorder form of {@link StageMetrics}, its duration being the time of the stage. Recorded with
+ * e.g. {@code -XX:StartFlightRecording:filename=codec.jfr} and listed with {@code jfr print --events pdav.Stage}.
+ */
+@Name("pdav.Stage")
+@Label("Codec Stage")
+@Category({"PDAV", "Codec"})
+@Description("One stage of an image encoder or decoder")
+@StackTrace(false)
+public class StageEvent extends Event {
+    @Label("Codec")
+    String codec;
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Pixels")
+    long pixels;
+
+    @Label("Blocks")
+    long blocks;
+
+    @Label("Bytes Read")
+    @DataAmount
+    long bytesRead;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytesWritten;
+
+    @Label("Symbols")
+    long symbols;
+
+    @Label("Zero Runs")
+    long zeroRuns;
+
+    @Label("End Of Blocks")
+    long endOfBlocks;
+
+    @Label("Zeros In Runs")
+    long runZeros;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocatedBytes;
+}
@@ -0,0 +1,10 @@
+package pdav.tudor.domain.metrics;
+
+/**
+ * Receives the measurements of every stage run by an encoder or a decoder it was given to, on the thread that
+ * called the stage, right after the stage returns.
+ */
+@FunctionalInterface
+public interface StageListener {
+    void stageCompleted(StageMetrics metrics);
+}
@@ -0,0 +1,134 @@
+package pdav.tudor.domain.metrics;
+
+/**
+ * What one run of a stage did. The counters a stage does not have stay 0: only the entropy stages count symbols,
+ * only the stages touching files count bytes.
+ */
+public class StageMetrics {
+    private final String codec;
+    private final String stage;
+    private final long nanos;
+    private final long allocatedBytes;
+    private final long pixels;
+    private final long blocks;
+    private final long bytesRead;
+    private final long bytesWritten;
+    private final long symbols;
+    private final long zeroRuns;
+    private final long endOfBlocks;
+    private final long runZeros;
+
+    StageMetrics(String codec, String stage, long nanos, long allocatedBytes, long pixels, long blocks,
+                 long bytesRead, long bytesWritten, long symbols, long zeroRuns, long endOfBlocks, long runZeros) {
+        this.codec = codec;
+        this.stage = stage;
+        this.nanos = nanos;
+        this.allocatedBytes = allocatedBytes;
+        this.pixels = pixels;
+        this.blocks = blocks;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.symbols = symbols;
+        this.zeroRuns = zeroRuns;
+        this.endOfBlocks = endOfBlocks;
+        this.runZeros = runZeros;
+    }
+
+    /**
+     * "encoder" or "decoder".
+     */
+    public String getCodec() {
+        return codec;
+    }
+
+    /**
+     * The name of the method that ran, e.g. "forwardDCT".
+     */
+    public String getStage() {
+        return stage;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Bytes allocated while the stage ran by the thread running it and the workers of its executor, so the work
+     * of a parallel stage is included but not the other threads of the JVM; -1 when the JVM cannot tell.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public long getPixels() {
+        return pixels;
+    }
+
+    public long getBlocks() {
+        return blocks;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Symbols standing for 16 zeros, needed by the runs longer than 15.
+     */
+    public long getZeroRuns() {
+        return zeroRuns;
+    }
+
+    /**
+     * Blocks ending with zeros, replaced by an end of block symbol.
+     */
+    public long getEndOfBlocks() {
+        return endOfBlocks;
+    }
+
+    /**
+     * AC coefficients equal to 0 coded inside runs, the trailing zeros of the blocks not included.
+     */
+    public long getRunZeros() {
+        return runZeros;
+    }
+
+    public double getPixelsPerSecond() {
+        return perSecond(pixels);
+    }
+
+    public double getBlocksPerSecond() {
+        return perSecond(blocks);
+    }
+
+    private double perSecond(long count) {
+        return nanos == 0 ? 0 : count * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder()
+                .append(codec).append('.').append(stage)
+                .append(String.format(" %.3f ms", nanos / 1e6));
+        if (pixels > 0) builder.append(String.format(", %.1f Mpixels/s", getPixelsPerSecond() / 1e6));
+        if (blocks > 0) builder.append(String.format(", %.1f Mblocks/s", getBlocksPerSecond() / 1e6));
+        if (bytesRead > 0) builder.append(", read ").append(bytesRead).append(" B");
+        if (bytesWritten > 0) builder.append(", wrote ").append(bytesWritten).append(" B");
+        if (symbols > 0) {
+            builder.append(", ").append(symbols).append(" symbols (")
+                    .append(zeroRuns).append(" zero runs, ")
+                    .append(endOfBlocks).append(" end of blocks, ")
+                    .append(runZeros).append(" zeros in runs)");
+        }
+        if (allocatedBytes >= 0) builder.append(", allocated ").append(allocatedBytes).append(" B");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,240 @@
+package pdav.tudor.domain.metrics;
+
+import jdk.jfr.EventType;
+import pdav.tudor.domain.entropy.SymbolBuffer;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Measures the stages of an encoder or a decoder, for its {@link StageListener} and as {@link StageEvent}s.
+ * A stage is measured between {@link #start(String)} and {@link Stage#end()}. When there is no listener and the
+ * event is not enabled in a running recording, start returns a shared stage whose methods do nothing, so the cost
+ * left in the codec is one check per stage; counters that need work to be known (file sizes, symbol statistics)
+ * are only computed by recording stages.
+ */
+public class StageRecorder {
+    private static final int BLOCK_AREA = 64;
+    private static final EventType EVENT_TYPE = EventType.getEventType(StageEvent.class);
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private final String codec;
+    private StageListener listener;
+    private Supplier<long[]> workerThreads;
+
+    public StageRecorder(String codec) {
+        this.codec = codec;
+    }
+
+    public void setListener(StageListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * The threads besides the calling one that the stages run on, e.g. the workers of a
+     * {@link pdav.tudor.domain.BlockExecutor}, whose allocations count for the stages; null (the default) for none.
+     */
+    public void setWorkerThreads(Supplier<long[]> workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public boolean isEnabled() {
+        return listener != null || EVENT_TYPE.isEnabled();
+    }
+
+    public Stage start(String stage) {
+        return isEnabled() ? new Stage(this, stage) : Stage.DISABLED;
+    }
+
+    /**
+     * The calling thread followed by the workers.
+     */
+    private long[] stageThreads() {
+        long caller = Thread.currentThread().getId();
+        long[] workers = workerThreads == null ? new long[0] : workerThreads.get();
+        long[] ids = new long[workers.length + 1];
+        ids[0] = caller;
+        int count = 1;
+        for (long worker : workers) {
+            // a stage may be started from a worker
+            if (worker != caller) {
+                ids[count++] = worker;
+            }
+        }
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Bytes allocated so far by every given thread, -1 for the ones that ended; null when the JVM does not count
+     * them.
+     */
+    private static long[] allocatedBytes(long[] threadIds) {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return null;
+        }
+        return threads.getThreadAllocatedBytes(threadIds);
+    }
+
+    /**
+     * Bytes allocated by the given threads since the first sample, a thread missing from it having started since.
+     * A thread that ended meanwhile is left out rather than making the sum negative.
+     */
+    private static long allocatedSince(long[] startIds, long[] startBytes, long[] endIds, long[] endBytes) {
+        long total = 0;
+        for (int thread = 0; thread < endIds.length; thread++) {
+            if (endBytes[thread] < 0) {
+                continue;
+            }
+            long before = 0;
+            for (int earlier = 0; earlier < startIds.length; earlier++) {
+                if (startIds[earlier] == endIds[thread]) {
+                    before = Math.max(0, startBytes[earlier]);
+                    break;
+                }
+            }
+            total += Math.max(0, endBytes[thread] - before);
+        }
+        return total;
+    }
+
+    public static class Stage {
+        static final Stage DISABLED = new Stage(null, null);
+        private final StageRecorder recorder;
+        private final String stage;
+        private final StageEvent event;
+        private final long start;
+        private final long[] threadsAtStart;
+        private final long[] allocatedAtStart;
+        private long pixels;
+        private long blocks;
+        private long bytesRead;
+        private long bytesWritten;
+        private long symbols;
+        private long zeroRuns;
+        private long endOfBlocks;
+        private long runZeros;
+
+        private Stage(StageRecorder recorder, String stage) {
+            this.recorder = recorder;
+            this.stage = stage;
+            if (recorder == null) {
+                this.event = null;
+                this.start = 0;
+                this.threadsAtStart = null;
+                this.allocatedAtStart = null;
+                return;
+            }
+            this.event = new StageEvent();
+            this.threadsAtStart = recorder.stageThreads();
+            this.allocatedAtStart = allocatedBytes(threadsAtStart);
+            this.event.begin();
+            this.start = System.nanoTime();
+        }
+
+        public boolean isRecording() {
+            return recorder != null;
+        }
+
+        public Stage pixels(long pixels) {
+            this.pixels = pixels;
+            return this;
+        }
+
+        public Stage blocks(long blocks) {
+            this.blocks = blocks;
+            return this;
+        }
+
+        public Stage bytesRead(long bytesRead) {
+            this.bytesRead = bytesRead;
+            return this;
+        }
+
+        public Stage bytesWritten(long bytesWritten) {
+            this.bytesWritten = bytesWritten;
+            return this;
+        }
+
+        public Stage symbols(long symbols) {
+            this.symbols = symbols;
+            return this;
+        }
+
+        public Stage fileRead(String filename) {
+            return isRecording() ? bytesRead(new File(filename).length()) : this;
+        }
+
+        public Stage fileWritten(String filename) {
+            return isRecording() ? bytesWritten(new File(filename).length()) : this;
+        }
+
+        /**
+         * Counts the symbols of the buffer, its zero runs, end of blocks and the zeros coded by runs. The blocks
+         * are walked like the entropy coder does, since an end of block packs like a DC of 0.
+         */
+        public Stage symbols(SymbolBuffer buffer) {
+            if (!isRecording()) {
+                return this;
+            }
+            symbols = buffer.size();
+            int index = 0;
+            while (index < buffer.size()) {
+                index++;
+                int position = 1;
+                while (position < BLOCK_AREA) {
+                    int word = buffer.get(index++);
+                    if (word == SymbolBuffer.END_OF_BLOCK) {
+                        endOfBlocks++;
+                        break;
+                    } else if (word == SymbolBuffer.ZERO_RUN) {
+                        zeroRuns++;
+                        runZeros += 16;
+                        position += 16;
+                    } else {
+                        runZeros += SymbolBuffer.runLength(word);
+                        position += SymbolBuffer.runLength(word) + 1;
+                    }
+                }
+            }
+            return this;
+        }
+
+        public void end() {
+            if (!isRecording()) {
+                return;
+            }
+            long nanos = System.nanoTime() - start;
+            event.end();
+            long allocated = -1;
+            if (allocatedAtStart != null) {
+                long[] threads = recorder.stageThreads();
+                allocated = allocatedSince(threadsAtStart, allocatedAtStart, threads, allocatedBytes(threads));
+            }
+            if (event.shouldCommit()) {
+                event.codec = recorder.codec;
+                event.stage = stage;
+                event.pixels = pixels;
+                event.blocks = blocks;
+                event.bytesRead = bytesRead;
+                event.bytesWritten = bytesWritten;
+                event.symbols = symbols;
+                event.zeroRuns = zeroRuns;
+                event.endOfBlocks = endOfBlocks;
+                event.runZeros = runZeros;
+                event.allocatedBytes = allocated;
+                event.commit();
+            }
+            StageListener listener = recorder.listener;
+            if (listener != null) {
+                listener.stageCompleted(new StageMetrics(recorder.codec, stage, nanos, allocated, pixels, blocks,
+                        bytesRead, bytesWritten, symbols, zeroRuns, endOfBlocks, runZeros));
+            }
+        }
+    }
+}
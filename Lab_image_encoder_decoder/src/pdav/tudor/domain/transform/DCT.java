@@ -0,0 +1,52 @@
+package pdav.tudor.domain.transform;
+
+import java.util.Arrays;
+
+/**
+ * An engine computing the 8x8 forward and inverse discrete cosine transform.
+ * A block is stored row-major in 64 consecutive values of an array, starting at the given offset,
+ * and is transformed in place.
+ * Samples given to {@link #forward} must already be level shifted (128 subtracted) and the samples
+ * produced by {@link #inverse} still have to be shifted back.
+ * Every engine agrees with {@link ReferenceDCT} within {@link #TOLERANCE} once its scale factors are removed.
+ */
+public interface DCT {
+    int BLOCK_SIZE = 8;
+    int BLOCK_AREA = BLOCK_SIZE * BLOCK_SIZE;
+
+    /**
+     * Maximum absolute difference allowed between an engine and the reference formula, for samples in [-128, 127].
+     */
+    double TOLERANCE = 1e-9;
+
+    void forward(double[] block, int offset);
+
+    void inverse(double[] block, int offset);
+
+    /**
+     * The DC coefficient {@link #forward} produces for the block at offset, which is left unchanged. This default
+     * transforms a copy of the block; engines override it with the additions their forward transform does for the
+     * DC, so that the value is exactly the one of the full transform.
+     */
+    default double forwardDc(double[] block, int offset) {
+        double[] copy = Arrays.copyOfRange(block, offset, offset + BLOCK_AREA);
+        forward(copy, 0);
+        return copy[0];
+    }
+
+    /**
+     * The factor by which {@link #forward} multiplies coefficient (line, column) compared to the reference formula.
+     * Engines which do not produce the true coefficients expect this factor to be folded into the quantization divisor.
+     */
+    default double forwardScale(int line, int column) {
+        return 1;
+    }
+
+    /**
+     * The factor by which {@link #inverse} expects coefficient (line, column) to be multiplied before being
+     * transformed. It is meant to be folded into the dequantization multiplier.
+     */
+    default double inverseScale(int line, int column) {
+        return 1;
+    }
+}
@@ -0,0 +1,240 @@
+package pdav.tudor.domain.transform;
+
+import java.util.Arrays;
+
+/**
+ * The Arai-Agui-Nakajima factorization of the transform: each 1D pass over 8 values is a network of butterflies
+ * needing only 5 multiplications (13 for the inverse), which is possible because every output is left multiplied by
+ * a constant factor. Those factors are exposed through {@link #forwardScale} and {@link #inverseScale} and have to be
+ * folded into the quantization and dequantization tables, where they cost nothing.
+ * Thread safe, the engine keeps no state.
+ */
+public class FastDCT implements DCT {
+    private static final double[] AAN_SCALE = new double[BLOCK_SIZE];
+
+    static {
+        AAN_SCALE[0] = 1;
+        for (int k = 1; k < BLOCK_SIZE; k++) {
+            AAN_SCALE[k] = Math.cos(k * Math.PI / 16) * Math.sqrt(2.0);
+        }
+    }
+
+    @Override
+    public double forwardScale(int line, int column) {
+        return 8 * AAN_SCALE[line] * AAN_SCALE[column];
+    }
+
+    @Override
+    public double inverseScale(int line, int column) {
+        return AAN_SCALE[line] * AAN_SCALE[column] / 8;
+    }
+
+    /**
+     * One forward pass over the 8 values found at offset, offset + step, ..., offset + 7 * step.
+     */
+    private static void forwardPass(double[] data, int offset, int step) {
+        double tmp0 = data[offset] + data[offset + 7 * step];
+        double tmp7 = data[offset] - data[offset + 7 * step];
+        double tmp1 = data[offset + step] + data[offset + 6 * step];
+        double tmp6 = data[offset + step] - data[offset + 6 * step];
+        double tmp2 = data[offset + 2 * step] + data[offset + 5 * step];
+        double tmp5 = data[offset + 2 * step] - data[offset + 5 * step];
+        double tmp3 = data[offset + 3 * step] + data[offset + 4 * step];
+        double tmp4 = data[offset + 3 * step] - data[offset + 4 * step];
+
+        // even part
+        double tmp10 = tmp0 + tmp3;
+        double tmp13 = tmp0 - tmp3;
+        double tmp11 = tmp1 + tmp2;
+        double tmp12 = tmp1 - tmp2;
+
+        data[offset] = tmp10 + tmp11;
+        data[offset + 4 * step] = tmp10 - tmp11;
+
+        double z1 = (tmp12 + tmp13) * 0.707106781186547524;
+        data[offset + 2 * step] = tmp13 + z1;
+        data[offset + 6 * step] = tmp13 - z1;
+
+        // odd part
+        tmp10 = tmp4 + tmp5;
+        tmp11 = tmp5 + tmp6;
+        tmp12 = tmp6 + tmp7;
+
+        double z5 = (tmp10 - tmp12) * 0.382683432365089772;
+        double z2 = 0.541196100146196984 * tmp10 + z5;
+        double z4 = 1.306562964876376527 * tmp12 + z5;
+        double z3 = tmp11 * 0.707106781186547524;
+
+        double z11 = tmp7 + z3;
+        double z13 = tmp7 - z3;
+
+        data[offset + 5 * step] = z13 + z2;
+        data[offset + 3 * step] = z13 - z2;
+        data[offset + step] = z11 + z4;
+        data[offset + 7 * step] = z11 - z4;
+    }
+
+    /**
+     * One inverse pass over the 8 values found at offset, offset + step, ..., offset + 7 * step.
+     */
+    private static void inversePass(double[] data, int offset, int step) {
+        // even part
+        double tmp0 = data[offset];
+        double tmp1 = data[offset + 2 * step];
+        double tmp2 = data[offset + 4 * step];
+        double tmp3 = data[offset + 6 * step];
+
+        double tmp10 = tmp0 + tmp2;
+        double tmp11 = tmp0 - tmp2;
+        double tmp13 = tmp1 + tmp3;
+        double tmp12 = (tmp1 - tmp3) * 1.414213562373095049 - tmp13;
+
+        tmp0 = tmp10 + tmp13;
+        tmp3 = tmp10 - tmp13;
+        tmp1 = tmp11 + tmp12;
+        tmp2 = tmp11 - tmp12;
+
+        // odd part
+        double tmp4 = data[offset + step];
+        double tmp5 = data[offset + 3 * step];
+        double tmp6 = data[offset + 5 * step];
+        double tmp7 = data[offset + 7 * step];
+
+        double z13 = tmp6 + tmp5;
+        double z10 = tmp6 - tmp5;
+        double z11 = tmp4 + tmp7;
+        double z12 = tmp4 - tmp7;
+
+        tmp7 = z11 + z13;
+        tmp11 = (z11 - z13) * 1.414213562373095049;
+
+        double z5 = (z10 + z12) * 1.847759065022573512;
+        tmp10 = 1.082392200292393968 * z12 - z5;
+        tmp12 = -2.613125929752753055 * z10 + z5;
+
+        tmp6 = tmp12 - tmp7;
+        tmp5 = tmp11 - tmp6;
+        tmp4 = tmp10 + tmp5;
+
+        data[offset] = tmp0 + tmp7;
+        data[offset + 7 * step] = tmp0 - tmp7;
+        data[offset + step] = tmp1 + tmp6;
+        data[offset + 6 * step] = tmp1 - tmp6;
+        data[offset + 2 * step] = tmp2 + tmp5;
+        data[offset + 5 * step] = tmp2 - tmp5;
+        data[offset + 4 * step] = tmp3 + tmp4;
+        data[offset + 3 * step] = tmp3 - tmp4;
+    }
+
+    /**
+     * {@link #inversePass} for values whose last four (from offset + 4 * step on) are 0, leaving out the operations
+     * adding or subtracting them. These change nothing but the sign of a zero, which the level shift erases, so the
+     * output is the same.
+     */
+    private static void inversePassLowFrequency(double[] data, int offset, int step) {
+        // even part, tmp2 and tmp3 of inversePass being 0
+        double even0 = data[offset];
+        double even1 = data[offset + 2 * step];
+
+        double tmp12 = even1 * 1.414213562373095049 - even1;
+
+        double tmp0 = even0 + even1;
+        double tmp3 = even0 - even1;
+        double tmp1 = even0 + tmp12;
+        double tmp2 = even0 - tmp12;
+
+        // odd part, tmp6 and tmp7 of inversePass being 0: z11 = z12 = odd0, z13 = odd1 and z10 = -odd1
+        double odd0 = data[offset + step];
+        double odd1 = data[offset + 3 * step];
+
+        double tmp7 = odd0 + odd1;
+        double tmp11 = (odd0 - odd1) * 1.414213562373095049;
+
+        double z5 = (odd0 - odd1) * 1.847759065022573512;
+        double tmp10 = 1.082392200292393968 * odd0 - z5;
+        tmp12 = 2.613125929752753055 * odd1 + z5;
+
+        double tmp6 = tmp12 - tmp7;
+        double tmp5 = tmp11 - tmp6;
+        double tmp4 = tmp10 + tmp5;
+
+        data[offset] = tmp0 + tmp7;
+        data[offset + 7 * step] = tmp0 - tmp7;
+        data[offset + step] = tmp1 + tmp6;
+        data[offset + 6 * step] = tmp1 - tmp6;
+        data[offset + 2 * step] = tmp2 + tmp5;
+        data[offset + 5 * step] = tmp2 - tmp5;
+        data[offset + 4 * step] = tmp3 + tmp4;
+        data[offset + 3 * step] = tmp3 - tmp4;
+    }
+
+    /**
+     * The output of {@link #inverse} for a block whose coefficients are all 0 but the DC: every pass only adds and
+     * subtracts zeros to it, so every sample is the DC.
+     */
+    public void inverseDcOnly(double[] block, int offset) {
+        Arrays.fill(block, offset + 1, offset + BLOCK_AREA, block[offset]);
+    }
+
+    /**
+     * The output of {@link #inverse} for a block whose non-zero coefficients are all in its upper left 4x4 corner:
+     * the last four columns are left at 0 and every other pass only works on four values.
+     */
+    public void inverseLowFrequency(double[] block, int offset) {
+        for (int column = 0; column < BLOCK_SIZE / 2; column++) {
+            inversePassLowFrequency(block, offset + column, BLOCK_SIZE);
+        }
+        for (int line = 0; line < BLOCK_SIZE; line++) {
+            inversePassLowFrequency(block, offset + line * BLOCK_SIZE, 1);
+        }
+    }
+
+    /**
+     * The sum of the samples of every line, then of the eight line sums, added in the order of the butterflies of a
+     * pass.
+     */
+    @Override
+    public double forwardDc(double[] block, int offset) {
+        return passSum(lineSum(block, offset), lineSum(block, offset + BLOCK_SIZE),
+                lineSum(block, offset + 2 * BLOCK_SIZE), lineSum(block, offset + 3 * BLOCK_SIZE),
+                lineSum(block, offset + 4 * BLOCK_SIZE), lineSum(block, offset + 5 * BLOCK_SIZE),
+                lineSum(block, offset + 6 * BLOCK_SIZE), lineSum(block, offset + 7 * BLOCK_SIZE));
+    }
+
+    private static double lineSum(double[] data, int offset) {
+        return passSum(data[offset], data[offset + 1], data[offset + 2], data[offset + 3], data[offset + 4],
+                data[offset + 5], data[offset + 6], data[offset + 7]);
+    }
+
+    /**
+     * The first output of {@link #forwardPass} for the eight given inputs, computed like it.
+     */
+    private static double passSum(double d0, double d1, double d2, double d3, double d4, double d5, double d6,
+                                  double d7) {
+        double tmp0 = d0 + d7;
+        double tmp1 = d1 + d6;
+        double tmp2 = d2 + d5;
+        double tmp3 = d3 + d4;
+        return (tmp0 + tmp3) + (tmp1 + tmp2);
+    }
+
+    @Override
+    public void forward(double[] block, int offset) {
+        for (int line = 0; line < BLOCK_SIZE; line++) {
+            forwardPass(block, offset + line * BLOCK_SIZE, 1);
+        }
+        for (int column = 0; column < BLOCK_SIZE; column++) {
+            forwardPass(block, offset + column, BLOCK_SIZE);
+        }
+    }
+
+    @Override
+    public void inverse(double[] block, int offset) {
+        for (int column = 0; column < BLOCK_SIZE; column++) {
+            inversePass(block, offset + column, BLOCK_SIZE);
+        }
+        for (int line = 0; line < BLOCK_SIZE; line++) {
+            inversePass(block, offset + line * BLOCK_SIZE, 1);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package pdav.tudor.domain.transform;
+
+import java.util.Random;
+
+/**
+ * The textbook formulas, evaluating two cosines for every sample of every coefficient (O(N^4) per block).
+ * G(u,v) = 1/4 * alpha(u) * alpha(v) * sum(x,y) cos((2x+1)u*PI/16) * cos((2y+1)v*PI/16) * g(x,y)
+ * f(x,y) = 1/4 * sum(u,v) alpha(u) * alpha(v) * cos((2x+1)u*PI/16) * cos((2y+1)v*PI/16) * F(u,v)
+ * It is slow and is kept only to verify the other engines. Thread safe, the copy of the input block lives in a
+ * per-thread buffer.
+ */
+public class ReferenceDCT implements DCT {
+    private static final ThreadLocal<double[]> SCRATCH = ThreadLocal.withInitial(() -> new double[BLOCK_AREA]);
+
+    private static double alpha(int value) {
+        return value > 0 ? 1 : (1 / Math.sqrt(2.0));
+    }
+
+    private static double forwardCosProduct(double[] samples, int offset, int u, int v) {
+        double sum = 0;
+        for (int x = 0; x < BLOCK_SIZE; x++) {
+            for (int y = 0; y < BLOCK_SIZE; y++) {
+                sum += Math.cos(((2 * x + 1) * u * Math.PI) / 16) *
+                        Math.cos(((2 * y + 1) * v * Math.PI) / 16) *
+                        samples[offset + x * BLOCK_SIZE + y];
+            }
+        }
+        return sum;
+    }
+
+    private static double inverseCosProduct(double[] scratch, int u, int v) {
+        double sum = 0;
+        for (int x = 0; x < BLOCK_SIZE; x++) {
+            for (int y = 0; y < BLOCK_SIZE; y++) {
+                sum += Math.cos(((2 * u + 1) * x * Math.PI) / 16) *
+                        Math.cos(((2 * v + 1) * y * Math.PI) / 16) *
+                        scratch[x * BLOCK_SIZE + y] *
+                        alpha(x) *
+                        alpha(y);
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public void forward(double[] block, int offset) {
+        double[] scratch = SCRATCH.get();
+        System.arraycopy(block, offset, scratch, 0, BLOCK_AREA);
+        for (int u = 0; u < BLOCK_SIZE; u++) {
+            for (int v = 0; v < BLOCK_SIZE; v++) {
+                block[offset + u * BLOCK_SIZE + v] = 0.25 * alpha(u) * alpha(v) * forwardCosProduct(scratch, 0, u, v);
+            }
+        }
+    }
+
+    @Override
+    public double forwardDc(double[] block, int offset) {
+        return 0.25 * alpha(0) * alpha(0) * forwardCosProduct(block, offset, 0, 0);
+    }
+
+    @Override
+    public void inverse(double[] block, int offset) {
+        double[] scratch = SCRATCH.get();
+        System.arraycopy(block, offset, scratch, 0, BLOCK_AREA);
+        for (int u = 0; u < BLOCK_SIZE; u++) {
+            for (int v = 0; v < BLOCK_SIZE; v++) {
+                block[offset + u * BLOCK_SIZE + v] = 0.25 * inverseCosProduct(scratch, u, v);
+            }
+        }
+    }
+
+    /**
+     * Runs both directions of the given engine and of the reference formula over random level shifted blocks
+     * and returns the largest absolute difference seen, after removing the engine's scale factors.
+     */
+    public static double maxDeviation(DCT engine, int blocks, long seed) {
+        ReferenceDCT reference = new ReferenceDCT();
+        Random random = new Random(seed);
+        double[] expected = new double[BLOCK_AREA];
+        double[] actual = new double[BLOCK_AREA];
+        double deviation = 0;
+
+        for (int block = 0; block < blocks; block++) {
+            for (int index = 0; index < BLOCK_AREA; index++) {
+                expected[index] = random.nextInt(256) - 128;
+            }
+            System.arraycopy(expected, 0, actual, 0, BLOCK_AREA);
+            reference.forward(expected, 0);
+            engine.forward(actual, 0);
+            for (int index = 0; index < BLOCK_AREA; index++) {
+                double coefficient = actual[index] / engine.forwardScale(index / BLOCK_SIZE, index % BLOCK_SIZE);
+                deviation = Math.max(deviation, Math.abs(coefficient - expected[index]));
+                // both inverses start from the reference coefficients
+                actual[index] = expected[index] * engine.inverseScale(index / BLOCK_SIZE, index % BLOCK_SIZE);
+            }
+            reference.inverse(expected, 0);
+            engine.inverse(actual, 0);
+            for (int index = 0; index < BLOCK_AREA; index++) {
+                deviation = Math.max(deviation, Math.abs(actual[index] - expected[index]));
+            }
+        }
+        return deviation;
+    }
+}
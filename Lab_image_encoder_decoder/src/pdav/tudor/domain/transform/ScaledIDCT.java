@@ -0,0 +1,80 @@
+package pdav.tudor.domain.transform;
+
+/**
+ * Inverse DCT of an 8x8 block of quantized coefficients into a smaller block, for decoding an image at 1/2, 1/4 or
+ * 1/8 of its size: only the size x size coefficients of lowest frequency are dequantized and go through the inverse
+ * transform of that size,
+ * f(x,y) = size/8 * sum(u,v) a(u) * a(v) * cos((2x+1)u*PI/(2*size)) * cos((2y+1)v*PI/(2*size)) * F(u,v)
+ * with a(0) = sqrt(1/size) and a(u) = sqrt(2/size), which gives every sample the mean of the 8/size x 8/size samples
+ * of the full block it stands for, less the frequencies dropped. Size 1 is the DC alone, size 8 the full transform.
+ * Like {@link DCT#inverse}, the samples still have to be shifted back by 128.
+ * Not thread safe, every thread needs its own instance for the intermediate rows.
+ */
+public class ScaledIDCT {
+    private final int size;
+    // cosines[x * size + u], with a(u) and the square root of size/8 folded in
+    private final double[] cosines;
+    private final double[] multipliers;
+    private final double[] rows;
+
+    /**
+     * @param size              1, 2, 4 or 8 samples per side of the output block
+     * @param quantizationTable the table the coefficients were quantized with, row-major
+     */
+    public ScaledIDCT(int size, int[] quantizationTable) {
+        if (size != 1 && size != 2 && size != 4 && size != DCT.BLOCK_SIZE) {
+            throw new IllegalArgumentException("The size must be 1, 2, 4 or 8");
+        }
+        this.size = size;
+        this.cosines = new double[size * size];
+        for (int x = 0; x < size; x++) {
+            for (int u = 0; u < size; u++) {
+                double alpha = Math.sqrt((u == 0 ? 1.0 : 2.0) / size);
+                cosines[x * size + u] = Math.sqrt(size / (double) DCT.BLOCK_SIZE) * alpha
+                        * Math.cos((2 * x + 1) * u * Math.PI / (2 * size));
+            }
+        }
+        this.multipliers = new double[size * size];
+        for (int line = 0; line < size; line++) {
+            for (int column = 0; column < size; column++) {
+                multipliers[line * size + column] = quantizationTable[line * DCT.BLOCK_SIZE + column];
+            }
+        }
+        this.rows = new double[size * size];
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Transforms the block of quantized coefficients stored row-major at the given offset into size x size
+     * samples, stored row-major in samples.
+     */
+    public void inverse(int[] quantized, int offset, double[] samples) {
+        if (size == 1) {
+            samples[0] = quantized[offset] * multipliers[0] * cosines[0] * cosines[0];
+            return;
+        }
+        // every line of coefficients along the columns, then every column along the lines
+        for (int line = 0; line < size; line++) {
+            int source = offset + line * DCT.BLOCK_SIZE;
+            for (int x = 0; x < size; x++) {
+                double sum = 0;
+                for (int u = 0; u < size; u++) {
+                    sum += cosines[x * size + u] * quantized[source + u] * multipliers[line * size + u];
+                }
+                rows[line * size + x] = sum;
+            }
+        }
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                double sum = 0;
+                for (int v = 0; v < size; v++) {
+                    sum += cosines[y * size + v] * rows[v * size + x];
+                }
+                samples[y * size + x] = sum;
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package pdav.tudor.domain.transform;
+
+/**
+ * The 2D transform computed as two passes of the 1D transform, first over the lines and then over the columns
+ * of the block, using a precomputed table of the 64 cosine products.
+ * Costs 1024 multiply-adds per block instead of the 4096 (plus 8192 cosines) of the reference formula and
+ * produces the true coefficients, so no scaling has to be folded anywhere.
+ * Thread safe, the intermediate results live in a per-thread buffer.
+ */
+public class SeparableDCT implements DCT {
+    /**
+     * COSINES[u * 8 + x] = 1/2 * alpha(u) * cos((2x+1)u*PI/16)
+     */
+    private static final double[] COSINES = new double[BLOCK_AREA];
+    private static final ThreadLocal<double[]> SCRATCH = ThreadLocal.withInitial(() -> new double[BLOCK_AREA]);
+
+    static {
+        for (int u = 0; u < BLOCK_SIZE; u++) {
+            double alpha = u > 0 ? 1 : (1 / Math.sqrt(2.0));
+            for (int x = 0; x < BLOCK_SIZE; x++) {
+                COSINES[u * BLOCK_SIZE + x] = 0.5 * alpha * Math.cos(((2 * x + 1) * u * Math.PI) / 16);
+            }
+        }
+    }
+
+    @Override
+    public void forward(double[] block, int offset) {
+        double[] lines = SCRATCH.get();
+        // lines[x][v] = sum(y) g(x,y) * C(v,y)
+        for (int x = 0; x < BLOCK_SIZE; x++) {
+            int line = offset + x * BLOCK_SIZE;
+            for (int v = 0; v < BLOCK_SIZE; v++) {
+                double sum = 0;
+                for (int y = 0; y < BLOCK_SIZE; y++) {
+                    sum += block[line + y] * COSINES[v * BLOCK_SIZE + y];
+                }
+                lines[x * BLOCK_SIZE + v] = sum;
+            }
+        }
+        // G(u,v) = sum(x) C(u,x) * lines[x][v]
+        for (int u = 0; u < BLOCK_SIZE; u++) {
+            for (int v = 0; v < BLOCK_SIZE; v++) {
+                double sum = 0;
+                for (int x = 0; x < BLOCK_SIZE; x++) {
+                    sum += COSINES[u * BLOCK_SIZE + x] * lines[x * BLOCK_SIZE + v];
+                }
+                block[offset + u * BLOCK_SIZE + v] = sum;
+            }
+        }
+    }
+
+    /**
+     * The first coefficient of every line, each added to the DC as soon as it is known.
+     */
+    @Override
+    public double forwardDc(double[] block, int offset) {
+        double dc = 0;
+        for (int x = 0; x < BLOCK_SIZE; x++) {
+            int line = offset + x * BLOCK_SIZE;
+            double sum = 0;
+            for (int y = 0; y < BLOCK_SIZE; y++) {
+                sum += block[line + y] * COSINES[y];
+            }
+            dc += COSINES[x] * sum;
+        }
+        return dc;
+    }
+
+    @Override
+    public void inverse(double[] block, int offset) {
+        double[] columns = SCRATCH.get();
+        // columns[x][v] = sum(u) C(u,x) * F(u,v)
+        for (int x = 0; x < BLOCK_SIZE; x++) {
+            for (int v = 0; v < BLOCK_SIZE; v++) {
+                double sum = 0;
+                for (int u = 0; u < BLOCK_SIZE; u++) {
+                    sum += COSINES[u * BLOCK_SIZE + x] * block[offset + u * BLOCK_SIZE + v];
+                }
+                columns[x * BLOCK_SIZE + v] = sum;
+            }
+        }
+        // f(x,y) = sum(v) columns[x][v] * C(v,y)
+        for (int x = 0; x < BLOCK_SIZE; x++) {
+            for (int y = 0; y < BLOCK_SIZE; y++) {
+                double sum = 0;
+                for (int v = 0; v < BLOCK_SIZE; v++) {
+                    sum += columns[x * BLOCK_SIZE + v] * COSINES[v * BLOCK_SIZE + y];
+                }
+                block[offset + x * BLOCK_SIZE + y] = sum;
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package pdav.tudor.domain.transform;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Chooses how to inverse transform a block from the zig-zag index of its last non-zero coefficient, which the
+ * entropy decoding finds for free: most quantized blocks only keep a few low frequencies, and many only their DC.
+ * With {@link FastDCT} (or {@link VectorDCT}) a block with nothing but its DC is filled with it
+ * ({@link FastDCT#inverseDcOnly}), a block whose coefficients stop by index {@link #LOW_FREQUENCY_LAST_INDEX} goes
+ * through the reduced passes of {@link FastDCT#inverseLowFrequency}, and the others through the full transform.
+ * The output is exactly the one of {@link DCT#inverse}. The other engines always run the full transform.
+ * Counts the blocks taking every path, thread safe.
+ */
+public class SparseIDCT {
+    /**
+     * The last zig-zag index of the upper left 4x4 corner of a block: the first 10 indices cover its first four
+     * anti-diagonals.
+     */
+    public static final int LOW_FREQUENCY_LAST_INDEX = 9;
+    private final LongAdder dcOnlyBlocks = new LongAdder();
+    private final LongAdder lowFrequencyBlocks = new LongAdder();
+    private final LongAdder fullBlocks = new LongAdder();
+
+    /**
+     * Transforms the block at the given offset in place, like {@link DCT#inverse}.
+     *
+     * @param lastIndex the zig-zag index of the last non-zero coefficient of the block, 0 for none
+     */
+    public void inverse(DCT transform, double[] block, int offset, int lastIndex) {
+        if (transform instanceof FastDCT && lastIndex <= LOW_FREQUENCY_LAST_INDEX) {
+            if (lastIndex == 0) {
+                ((FastDCT) transform).inverseDcOnly(block, offset);
+                dcOnlyBlocks.increment();
+            } else {
+                ((FastDCT) transform).inverseLowFrequency(block, offset);
+                lowFrequencyBlocks.increment();
+            }
+            return;
+        }
+        transform.inverse(block, offset);
+        fullBlocks.increment();
+    }
+
+    public long getDcOnlyBlocks() {
+        return dcOnlyBlocks.sum();
+    }
+
+    public long getLowFrequencyBlocks() {
+        return lowFrequencyBlocks.sum();
+    }
+
+    public long getFullBlocks() {
+        return fullBlocks.sum();
+    }
+
+    /**
+     * Sets every count back to 0.
+     */
+    public void reset() {
+        dcOnlyBlocks.reset();
+        lowFrequencyBlocks.reset();
+        fullBlocks.reset();
+    }
+
+    @Override
+    public String toString() {
+        long dcOnly = getDcOnlyBlocks();
+        long lowFrequency = getLowFrequencyBlocks();
+        long full = getFullBlocks();
+        double total = Math.max(1, dcOnly + lowFrequency + full);
+        return String.format("%d DC only (%.1f%%), %d 4x4 (%.1f%%), %d full (%.1f%%)", dcOnly, 100 * dcOnly / total,
+                lowFrequency, 100 * lowFrequency / total, full, 100 * full / total);
+    }
+}
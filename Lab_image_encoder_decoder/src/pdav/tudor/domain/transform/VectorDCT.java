@@ -0,0 +1,161 @@
+package pdav.tudor.domain.transform;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+import pdav.tudor.domain.VectorKernels;
+
+/**
+ * {@link FastDCT} on the incubating Vector API: every vector holds the same value of several lines (or columns)
+ * of the block, so one pass of the butterfly network transforms all of them at once. Columns are loaded directly,
+ * line values are gathered with a stride of 8. The arithmetic is that of {@link FastDCT}, operation for operation,
+ * so both engines give bit-identical results and share their scale factors.
+ * Only usable when the jdk.incubator.vector module is present, see {@link pdav.tudor.domain.Kernels#best()}.
+ */
+public class VectorDCT extends FastDCT {
+    private static final VectorSpecies<Double> SPECIES = VectorKernels.DOUBLE_SPECIES;
+    private static final int LANES = SPECIES.length();
+    // the offsets of the first value of LANES consecutive lines
+    private static final int[] LINE_STARTS = new int[LANES];
+
+    static {
+        for (int lane = 0; lane < LANES; lane++) {
+            LINE_STARTS[lane] = lane * BLOCK_SIZE;
+        }
+    }
+
+    /**
+     * Value k of every lane: from offset + k * step, the lanes being consecutive, or BLOCK_SIZE apart when gathered.
+     */
+    private static DoubleVector load(double[] data, int offset, boolean gathered) {
+        return gathered ? DoubleVector.fromArray(SPECIES, data, offset, LINE_STARTS, 0)
+                : DoubleVector.fromArray(SPECIES, data, offset);
+    }
+
+    private static void store(DoubleVector vector, double[] data, int offset, boolean gathered) {
+        if (gathered) {
+            vector.intoArray(data, offset, LINE_STARTS, 0);
+        } else {
+            vector.intoArray(data, offset);
+        }
+    }
+
+    private static void forwardPass(double[] data, int offset, int step, boolean gathered) {
+        DoubleVector d0 = load(data, offset, gathered);
+        DoubleVector d1 = load(data, offset + step, gathered);
+        DoubleVector d2 = load(data, offset + 2 * step, gathered);
+        DoubleVector d3 = load(data, offset + 3 * step, gathered);
+        DoubleVector d4 = load(data, offset + 4 * step, gathered);
+        DoubleVector d5 = load(data, offset + 5 * step, gathered);
+        DoubleVector d6 = load(data, offset + 6 * step, gathered);
+        DoubleVector d7 = load(data, offset + 7 * step, gathered);
+
+        DoubleVector tmp0 = d0.add(d7);
+        DoubleVector tmp7 = d0.sub(d7);
+        DoubleVector tmp1 = d1.add(d6);
+        DoubleVector tmp6 = d1.sub(d6);
+        DoubleVector tmp2 = d2.add(d5);
+        DoubleVector tmp5 = d2.sub(d5);
+        DoubleVector tmp3 = d3.add(d4);
+        DoubleVector tmp4 = d3.sub(d4);
+
+        // even part
+        DoubleVector tmp10 = tmp0.add(tmp3);
+        DoubleVector tmp13 = tmp0.sub(tmp3);
+        DoubleVector tmp11 = tmp1.add(tmp2);
+        DoubleVector tmp12 = tmp1.sub(tmp2);
+
+        store(tmp10.add(tmp11), data, offset, gathered);
+        store(tmp10.sub(tmp11), data, offset + 4 * step, gathered);
+
+        DoubleVector z1 = tmp12.add(tmp13).mul(0.707106781186547524);
+        store(tmp13.add(z1), data, offset + 2 * step, gathered);
+        store(tmp13.sub(z1), data, offset + 6 * step, gathered);
+
+        // odd part
+        tmp10 = tmp4.add(tmp5);
+        tmp11 = tmp5.add(tmp6);
+        tmp12 = tmp6.add(tmp7);
+
+        DoubleVector z5 = tmp10.sub(tmp12).mul(0.382683432365089772);
+        DoubleVector z2 = tmp10.mul(0.541196100146196984).add(z5);
+        DoubleVector z4 = tmp12.mul(1.306562964876376527).add(z5);
+        DoubleVector z3 = tmp11.mul(0.707106781186547524);
+
+        DoubleVector z11 = tmp7.add(z3);
+        DoubleVector z13 = tmp7.sub(z3);
+
+        store(z13.add(z2), data, offset + 5 * step, gathered);
+        store(z13.sub(z2), data, offset + 3 * step, gathered);
+        store(z11.add(z4), data, offset + step, gathered);
+        store(z11.sub(z4), data, offset + 7 * step, gathered);
+    }
+
+    private static void inversePass(double[] data, int offset, int step, boolean gathered) {
+        // even part
+        DoubleVector tmp0 = load(data, offset, gathered);
+        DoubleVector tmp1 = load(data, offset + 2 * step, gathered);
+        DoubleVector tmp2 = load(data, offset + 4 * step, gathered);
+        DoubleVector tmp3 = load(data, offset + 6 * step, gathered);
+
+        DoubleVector tmp10 = tmp0.add(tmp2);
+        DoubleVector tmp11 = tmp0.sub(tmp2);
+        DoubleVector tmp13 = tmp1.add(tmp3);
+        DoubleVector tmp12 = tmp1.sub(tmp3).mul(1.414213562373095049).sub(tmp13);
+
+        tmp0 = tmp10.add(tmp13);
+        tmp3 = tmp10.sub(tmp13);
+        tmp1 = tmp11.add(tmp12);
+        tmp2 = tmp11.sub(tmp12);
+
+        // odd part
+        DoubleVector tmp4 = load(data, offset + step, gathered);
+        DoubleVector tmp5 = load(data, offset + 3 * step, gathered);
+        DoubleVector tmp6 = load(data, offset + 5 * step, gathered);
+        DoubleVector tmp7 = load(data, offset + 7 * step, gathered);
+
+        DoubleVector z13 = tmp6.add(tmp5);
+        DoubleVector z10 = tmp6.sub(tmp5);
+        DoubleVector z11 = tmp4.add(tmp7);
+        DoubleVector z12 = tmp4.sub(tmp7);
+
+        tmp7 = z11.add(z13);
+        tmp11 = z11.sub(z13).mul(1.414213562373095049);
+
+        DoubleVector z5 = z10.add(z12).mul(1.847759065022573512);
+        tmp10 = z12.mul(1.082392200292393968).sub(z5);
+        tmp12 = z10.mul(-2.613125929752753055).add(z5);
+
+        tmp6 = tmp12.sub(tmp7);
+        tmp5 = tmp11.sub(tmp6);
+        tmp4 = tmp10.add(tmp5);
+
+        store(tmp0.add(tmp7), data, offset, gathered);
+        store(tmp0.sub(tmp7), data, offset + 7 * step, gathered);
+        store(tmp1.add(tmp6), data, offset + step, gathered);
+        store(tmp1.sub(tmp6), data, offset + 6 * step, gathered);
+        store(tmp2.add(tmp5), data, offset + 2 * step, gathered);
+        store(tmp2.sub(tmp5), data, offset + 5 * step, gathered);
+        store(tmp3.add(tmp4), data, offset + 4 * step, gathered);
+        store(tmp3.sub(tmp4), data, offset + 3 * step, gathered);
+    }
+
+    @Override
+    public void forward(double[] block, int offset) {
+        for (int line = 0; line < BLOCK_SIZE; line += LANES) {
+            forwardPass(block, offset + line * BLOCK_SIZE, 1, true);
+        }
+        for (int column = 0; column < BLOCK_SIZE; column += LANES) {
+            forwardPass(block, offset + column, BLOCK_SIZE, false);
+        }
+    }
+
+    @Override
+    public void inverse(double[] block, int offset) {
+        for (int column = 0; column < BLOCK_SIZE; column += LANES) {
+            inversePass(block, offset + column, BLOCK_SIZE, false);
+        }
+        for (int line = 0; line < BLOCK_SIZE; line += LANES) {
+            inversePass(block, offset + line * BLOCK_SIZE, 1, true);
+        }
+    }
+}
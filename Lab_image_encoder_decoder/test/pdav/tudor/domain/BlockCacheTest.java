@@ -0,0 +1,88 @@
+package pdav.tudor.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockCacheTest {
+    private static final int WIDTH = 97;
+    private static final int HEIGHT = 71;
+
+    /**
+     * A few random 8x8 tiles repeated over the image, with a pixel of some copies changed by 1 so that near
+     * duplicates sit next to the exact ones.
+     */
+    private static int[][][] tiled(long seed) {
+        Random random = new Random(seed);
+        int[][][] tiles = new int[5][3][64];
+        for (int[][] tile : tiles) {
+            for (int[] channel : tile) {
+                for (int position = 0; position < 64; position++) {
+                    channel[position] = random.nextInt(256);
+                }
+            }
+        }
+        int[][][] image = new int[3][HEIGHT][WIDTH];
+        for (int line = 0; line < HEIGHT; line++) {
+            for (int column = 0; column < WIDTH; column++) {
+                int tile = (line / 8 * 3 + column / 8) % tiles.length;
+                for (int channel = 0; channel < 3; channel++) {
+                    image[channel][line][column] = tiles[tile][channel][line % 8 * 8 + column % 8];
+                }
+            }
+        }
+        for (int copy = 0; copy < 20; copy++) {
+            int line = random.nextInt(HEIGHT);
+            int column = random.nextInt(WIDTH);
+            image[0][line][column] ^= 1;
+        }
+        return image;
+    }
+
+    private static byte[] encode(int[][][] image, Subsampling subsampling, int quality, BlockCache cache,
+                                 int parallelism) {
+        Encoder encoder = TestImages.encoder(image);
+        encoder.setSubsampling(subsampling);
+        encoder.setQuality(quality);
+        encoder.setParallelism(parallelism);
+        encoder.setBlockCache(cache);
+        // every block goes to the cache
+        encoder.setFlatBlockDetector(null);
+        encoder.fusedEncoding();
+        return TestImages.bytes(encoder.compress());
+    }
+
+    @Test
+    void cachedEncodingIsIdentical() {
+        int[][][][] images = {tiled(20), TestImages.saturated(WIDTH, HEIGHT), TestImages.noise(WIDTH, HEIGHT, 20)};
+        for (int[][][] image : images) {
+            for (Subsampling subsampling : Subsampling.values()) {
+                for (int quality : new int[]{10, 50, 100}) {
+                    byte[] expected = encode(image, subsampling, quality, null, 1);
+                    assertArrayEquals(expected, encode(image, subsampling, quality, new BlockCache(), 1));
+                    // a cache too small for the image, which keeps evicting
+                    BlockCache small = new BlockCache(BlockCache.SEGMENTS);
+                    assertArrayEquals(expected, encode(image, subsampling, quality, small, 3));
+                }
+            }
+        }
+    }
+
+    @Test
+    void cacheSharedAcrossQualitiesAndImagesIsIdentical() {
+        BlockCache cache = new BlockCache();
+        int[][][][] images = {tiled(21), TestImages.saturated(WIDTH, HEIGHT), tiled(21)};
+        for (int round = 0; round < 2; round++) {
+            for (int[][][] image : images) {
+                for (int quality : new int[]{30, 31, 90}) {
+                    assertArrayEquals(encode(image, Subsampling.YUV422, quality, null, 1),
+                            encode(image, Subsampling.YUV422, quality, cache, 3));
+                }
+            }
+        }
+        assertTrue(cache.getHits() > 0);
+    }
+}
@@ -0,0 +1,138 @@
+package pdav.tudor.domain;
+
+import org.junit.jupiter.api.Test;
+import pdav.tudor.domain.io.CompressedImage;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two frames coded one after the other and decoded through the container: what the second frame skips or moves
+ * must show the decoded first frame, at the same place or at the displaced one.
+ */
+class ConditionalReplenishmentTest {
+    private static final int WIDTH = 72;
+    private static final int HEIGHT = 50;
+    private static final int SHIFT_X = 4;
+    private static final int SHIFT_Y = 2;
+
+    /**
+     * The first frame with its first row of MCUs kept, the rest moved right by SHIFT_X and down by SHIFT_Y, new
+     * pixels coming in on the left.
+     */
+    private static int[][][] moved(int[][][] first, int keptLines) {
+        int[][][] second = TestImages.noise(WIDTH, HEIGHT, 19);
+        for (int channel = 0; channel < 3; channel++) {
+            for (int line = 0; line < HEIGHT; line++) {
+                for (int column = 0; column < WIDTH; column++) {
+                    if (line < keptLines) {
+                        second[channel][line][column] = first[channel][line][column];
+                    } else if (column >= SHIFT_X) {
+                        second[channel][line][column] = first[channel][line - SHIFT_Y][column - SHIFT_X];
+                    }
+                }
+            }
+        }
+        return second;
+    }
+
+    private static CompressedImage encode(Encoder encoder, int[][][] image) throws IOException {
+        encoder.setImage(image[0], image[1], image[2], WIDTH, HEIGHT);
+        encoder.convertRGBtoYUV();
+        encoder.fusedEncoding();
+        byte[] bytes = TestImages.bytes(encoder.compress());
+        return CompressedImage.readNext(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    private static int[][][] decode(Decoder decoder) {
+        int[][][] image = new int[3][HEIGHT][WIDTH];
+        decoder.setOutput(image[0], image[1], image[2]);
+        decoder.entropyDecoding();
+        decoder.deQuantization();
+        decoder.inverseDCT();
+        decoder.convertBlocksToMatrices();
+        decoder.convertYUVtoRGB();
+        return image;
+    }
+
+    @Test
+    void skippedAndMovedMcusShowTheDecodedPreviousFrame() throws IOException {
+        int[][][] first = TestImages.noise(WIDTH, HEIGHT, 18);
+        for (Subsampling subsampling : Subsampling.values()) {
+            int mcuWidth = subsampling.getMcuWidth();
+            int mcuHeight = subsampling.getMcuHeight();
+            int mcuColumns = (WIDTH + mcuWidth - 1) / mcuWidth;
+            int[][][] second = moved(first, mcuHeight);
+
+            Encoder encoder = new Encoder("unused.ppm");
+            encoder.setSubsampling(subsampling);
+            encoder.setConditionalReplenishment(new ConditionalReplenishment(0, 8));
+            CompressedImage firstImage = encode(encoder, first);
+            CompressedImage secondImage = encode(encoder, second);
+            assertNull(firstImage.getMcuModes());
+
+            Decoder decoder = new Decoder(null, firstImage);
+            // without blending the chroma of neighbouring MCUs, every pixel only depends on its own MCU
+            decoder.setBilinearUpsampling(false);
+            int[][][] previous = decode(decoder);
+            decoder.setCompressedImage(secondImage);
+            int[][][] current = decode(decoder);
+
+            byte[] modes = secondImage.getMcuModes();
+            byte[] vectors = secondImage.getMotionVectors();
+            int[] counts = new int[3];
+            for (int mcu = 0; mcu < modes.length; mcu++) {
+                int dx = 0;
+                int dy = 0;
+                if (modes[mcu] == ConditionalReplenishment.MOVED) {
+                    dx = vectors[2 * counts[ConditionalReplenishment.MOVED]];
+                    dy = vectors[2 * counts[ConditionalReplenishment.MOVED] + 1];
+                }
+                counts[modes[mcu]]++;
+                if (modes[mcu] == ConditionalReplenishment.CODED) {
+                    continue;
+                }
+                int firstLine = mcu / mcuColumns * mcuHeight;
+                int firstColumn = mcu % mcuColumns * mcuWidth;
+                for (int channel = 0; channel < 3; channel++) {
+                    for (int line = firstLine; line < Math.min(firstLine + mcuHeight, HEIGHT); line++) {
+                        for (int column = firstColumn; column < Math.min(firstColumn + mcuWidth, WIDTH); column++) {
+                            assertEquals(previous[channel][line + dy][column + dx], current[channel][line][column],
+                                    subsampling + ", MCU " + mcu + " in mode " + modes[mcu]);
+                        }
+                    }
+                }
+            }
+            // the kept row is skipped, the moved MCUs are found where they came from, the others are coded
+            assertTrue(counts[ConditionalReplenishment.SKIPPED] >= mcuColumns, subsampling + "");
+            assertTrue(counts[ConditionalReplenishment.MOVED] > 0, subsampling + "");
+            assertTrue(counts[ConditionalReplenishment.CODED] > 0, subsampling + "");
+            assertEquals(2 * counts[ConditionalReplenishment.MOVED], vectors.length);
+            for (int vector = 0; vector < vectors.length; vector += 2) {
+                assertEquals(-SHIFT_X, vectors[vector]);
+                assertEquals(-SHIFT_Y, vectors[vector + 1]);
+            }
+        }
+    }
+
+    @Test
+    void unchangedFrameIsSkippedWhole() throws IOException {
+        int[][][] image = TestImages.smooth(WIDTH, HEIGHT);
+        Encoder encoder = new Encoder("unused.ppm");
+        encoder.setConditionalReplenishment(new ConditionalReplenishment());
+        Decoder decoder = new Decoder(null, encode(encoder, image));
+        int[][][] expected = decode(decoder);
+        CompressedImage repeated = encode(encoder, image);
+        for (byte mode : repeated.getMcuModes()) {
+            assertEquals(ConditionalReplenishment.SKIPPED, mode);
+        }
+        decoder.setCompressedImage(repeated);
+        assertArrayEquals(expected, decode(decoder));
+    }
+}
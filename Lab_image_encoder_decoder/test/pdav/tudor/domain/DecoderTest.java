@@ -0,0 +1,140 @@
+package pdav.tudor.domain;
+
+import org.junit.jupiter.api.Test;
+import pdav.tudor.domain.io.CompressedImage;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DecoderTest {
+    private static final int WIDTH = 83;
+    private static final int HEIGHT = 61;
+    // x, y, width and height of regions on MCU edges or not, on the edges of the image, and the whole image
+    private static final int[][] REGIONS = {
+            {0, 0, 1, 1}, {5, 3, 20, 17}, {16, 16, 16, 16}, {40, 30, 43, 31}, {82, 0, 1, 61}, {0, 0, WIDTH, HEIGHT}
+    };
+
+    private static CompressedImage encode(int[][][] image, Subsampling subsampling, boolean rowIndex) {
+        Encoder encoder = TestImages.encoder(image);
+        encoder.setSubsampling(subsampling);
+        encoder.setRowIndex(rowIndex);
+        encoder.fusedEncoding();
+        return encoder.compress();
+    }
+
+    private static int[][][] decode(CompressedImage image) {
+        Decoder decoder = new Decoder("unused.ppm", image);
+        decoder.entropyDecoding();
+        decoder.deQuantization();
+        decoder.inverseDCT();
+        decoder.convertBlocksToMatrices();
+        decoder.convertYUVtoRGB();
+        return new int[][][]{decoder.getR(), decoder.getG(), decoder.getB()};
+    }
+
+    private static int[][][] crop(int[][][] image, int x, int y, int width, int height) {
+        int[][][] cropped = new int[3][height][];
+        for (int channel = 0; channel < 3; channel++) {
+            for (int line = 0; line < height; line++) {
+                cropped[channel][line] = Arrays.copyOfRange(image[channel][y + line], x, x + width);
+            }
+        }
+        return cropped;
+    }
+
+    @Test
+    void regionIsTheCropOfTheWholeImage() {
+        int[][][][] images = {TestImages.noise(WIDTH, HEIGHT, 21), TestImages.smooth(WIDTH, HEIGHT)};
+        for (int[][][] image : images) {
+            for (Subsampling subsampling : Subsampling.values()) {
+                for (boolean rowIndex : new boolean[]{true, false}) {
+                    CompressedImage compressed = encode(image, subsampling, rowIndex);
+                    int[][][] whole = decode(compressed);
+                    for (int[] region : REGIONS) {
+                        Decoder decoder = new Decoder("unused.ppm", compressed);
+                        decoder.setParallelism(3);
+                        decoder.decodeRegion(region[0], region[1], region[2], region[3]);
+                        String context = subsampling + ", row index " + rowIndex + ", region at " + region[0] + ", "
+                                + region[1];
+                        assertArrayEquals(crop(whole, region[0], region[1], region[2], region[3]),
+                                new int[][][]{decoder.getR(), decoder.getG(), decoder.getB()}, context);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The mean of every scale x scale square of the image, fewer at its right and bottom edges.
+     */
+    private static int[][][] downsample(int[][][] image, int scale) {
+        int height = (HEIGHT + scale - 1) / scale;
+        int width = (WIDTH + scale - 1) / scale;
+        int[][][] downsampled = new int[3][height][width];
+        for (int channel = 0; channel < 3; channel++) {
+            for (int line = 0; line < height; line++) {
+                for (int column = 0; column < width; column++) {
+                    int sum = 0;
+                    int count = 0;
+                    for (int y = line * scale; y < Math.min((line + 1) * scale, HEIGHT); y++) {
+                        for (int x = column * scale; x < Math.min((column + 1) * scale, WIDTH); x++) {
+                            sum += image[channel][y][x];
+                            count++;
+                        }
+                    }
+                    downsampled[channel][line][column] = Math.round((float) sum / count);
+                }
+            }
+        }
+        return downsampled;
+    }
+
+    /**
+     * The scaled samples come from the low frequencies of every block rather than from the mean of the pixels, so
+     * they are only close to the downsampled image where it is smooth. The nearly flat tiles are only compared
+     * without chroma subsampling: otherwise a chroma sample of the smaller scales spans several tiles.
+     */
+    @Test
+    void scaledImageIsCloseToTheWholeImageDownsampled() {
+        int[][][] smooth = TestImages.smooth(WIDTH, HEIGHT);
+        int[][][] nearlyFlat = TestImages.nearlyFlat(WIDTH, HEIGHT, 23);
+        for (int[][][] image : new int[][][][]{smooth, nearlyFlat}) {
+            for (Subsampling subsampling : Subsampling.values()) {
+                if (image == nearlyFlat && subsampling != Subsampling.YUV444) {
+                    continue;
+                }
+                CompressedImage compressed = encode(image, subsampling, true);
+                int[][][] whole = decode(compressed);
+                for (int scale : new int[]{1, 2, 4, 8}) {
+                    Decoder decoder = new Decoder("unused.ppm", compressed);
+                    decoder.setParallelism(3);
+                    decoder.decodeScaled(scale);
+                    int[][][] expected = downsample(whole, scale);
+                    int[][][] actual = {decoder.getR(), decoder.getG(), decoder.getB()};
+                    String context = subsampling + ", scale " + scale;
+                    if (scale == 1) {
+                        assertArrayEquals(expected, actual, context);
+                        continue;
+                    }
+                    long errorSum = 0;
+                    for (int channel = 0; channel < 3; channel++) {
+                        assertEquals(expected[channel].length, actual[channel].length, context);
+                        for (int line = 0; line < expected[channel].length; line++) {
+                            assertEquals(expected[channel][line].length, actual[channel][line].length, context);
+                            for (int column = 0; column < expected[channel][line].length; column++) {
+                                int error = Math.abs(expected[channel][line][column] - actual[channel][line][column]);
+                                assertTrue(error <= 24, context + ", error " + error);
+                                errorSum += error;
+                            }
+                        }
+                    }
+                    double meanError = (double) errorSum / (3 * expected[0].length * expected[0][0].length);
+                    assertTrue(meanError <= 4, context + ", mean error " + meanError);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package pdav.tudor.domain;
+
+import org.junit.jupiter.api.Test;
+import pdav.tudor.domain.transform.DCT;
+import pdav.tudor.domain.transform.FastDCT;
+import pdav.tudor.domain.transform.ReferenceDCT;
+import pdav.tudor.domain.transform.SeparableDCT;
+import pdav.tudor.domain.transform.VectorDCT;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlatBlockDetectorTest {
+    private static final int BLOCK_AREA = Plane.BLOCK_AREA;
+    private static final int[] QUALITIES = {1, 10, 25, 50, 75, 90, 100};
+
+    /**
+     * Every engine, and one relying on the default {@link DCT#forwardDc}.
+     */
+    private static DCT[] engines() {
+        FastDCT fast = new FastDCT();
+        DCT withDefaultDc = new DCT() {
+            @Override
+            public void forward(double[] block, int offset) {
+                fast.forward(block, offset);
+            }
+
+            @Override
+            public void inverse(double[] block, int offset) {
+                fast.inverse(block, offset);
+            }
+
+            @Override
+            public double forwardScale(int line, int column) {
+                return fast.forwardScale(line, column);
+            }
+        };
+        return new DCT[]{new ReferenceDCT(), new SeparableDCT(), fast, new VectorDCT(), withDefaultDc};
+    }
+
+    /**
+     * The quantized coefficients of the block of samples, flat path included when a detector is given, like
+     * {@link FusedBlockEncoder} produces them.
+     */
+    private static int[] quantize(DCT transform, double[] reciprocals, double[] samples, FlatBlockDetector detector) {
+        double[] values = Arrays.copyOf(samples, BLOCK_AREA);
+        double limit = detector == null ? 0 : FlatBlockDetector.limit(transform, reciprocals);
+        if (detector != null && detector.isFlat(values, 0, limit)) {
+            Encoder.transformFlatBlock(transform, values, 0);
+        } else {
+            Encoder.transformBlock(transform, values, 0);
+        }
+        int[] quantized = new int[BLOCK_AREA];
+        Kernels.scalar().quantize(values, quantized, 0, 1, reciprocals);
+        return quantized;
+    }
+
+    /**
+     * center plus the deviations scaled so that the sum of their absolute values is deviationSum.
+     */
+    private static double[] block(double center, double[] deviations, double deviationSum) {
+        double sum = 0;
+        for (double deviation : deviations) {
+            sum += Math.abs(deviation);
+        }
+        double[] samples = new double[BLOCK_AREA];
+        for (int position = 0; position < BLOCK_AREA; position++) {
+            samples[position] = center + deviations[position] * deviationSum / sum;
+        }
+        return samples;
+    }
+
+    /**
+     * Deviations of mean 0: random ones, and a single sample away from all the others at every position, which
+     * puts all the deviation on the largest basis values.
+     */
+    private static double[][] deviations(Random random) {
+        double[][] deviations = new double[BLOCK_AREA + 4][BLOCK_AREA];
+        for (int spike = 0; spike < BLOCK_AREA; spike++) {
+            Arrays.fill(deviations[spike], -1);
+            deviations[spike][spike] = BLOCK_AREA - 1;
+        }
+        for (int pattern = BLOCK_AREA; pattern < deviations.length; pattern++) {
+            double mean = 0;
+            for (int position = 0; position < BLOCK_AREA; position++) {
+                deviations[pattern][position] = random.nextDouble() * 2 - 1;
+                mean += deviations[pattern][position] / BLOCK_AREA;
+            }
+            for (int position = 0; position < BLOCK_AREA; position++) {
+                deviations[pattern][position] -= mean;
+            }
+        }
+        return deviations;
+    }
+
+    @Test
+    void forwardDcIsTheDcOfTheFullTransform() {
+        Random random = new Random(25);
+        double[] samples = new double[BLOCK_AREA + 7];
+        for (DCT transform : engines()) {
+            for (int trial = 0; trial < 200; trial++) {
+                for (int position = 0; position < samples.length; position++) {
+                    samples[position] = random.nextDouble() * 570 - 285;
+                }
+                double[] before = samples.clone();
+                double dc = transform.forwardDc(samples, 7);
+                assertArrayEquals(before, samples);
+                double[] block = Arrays.copyOfRange(samples, 7, 7 + BLOCK_AREA);
+                transform.forward(block, 0);
+                assertEquals(Double.doubleToLongBits(block[0]), Double.doubleToLongBits(dc), transform.getClass() + "");
+            }
+        }
+    }
+
+    @Test
+    void flatPathMatchesTheFullPathAroundTheLimit() {
+        Random random = new Random(2025);
+        double[][] deviations = deviations(random);
+        for (DCT transform : engines()) {
+            for (int quality : QUALITIES) {
+                double[] reciprocals = Encoder.quantizationReciprocals(transform, QuantizationMatrix.scaled(quality));
+                double limit = FlatBlockDetector.limit(transform, reciprocals);
+                assertTrue(limit > 0);
+                for (double center : new double[]{0, 37.25, 128, 255, -157.5, 412}) {
+                    for (double[] pattern : deviations) {
+                        double[] below = block(center, pattern, limit * (1 - 1e-9));
+                        double[] above = block(center, pattern, limit * (1 + 1e-9));
+                        FlatBlockDetector detector = new FlatBlockDetector();
+                        assertArrayEquals(quantize(transform, reciprocals, below, null),
+                                quantize(transform, reciprocals, below, detector));
+                        assertArrayEquals(quantize(transform, reciprocals, above, null),
+                                quantize(transform, reciprocals, above, detector));
+                        // the blocks do fall on both sides of the limit
+                        assertTrue(detector.isFlat(below, 0, limit));
+                        assertFalse(detector.isFlat(above, 0, limit));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void encodedImagesDoNotDependOnTheDetector() {
+        int[][][][] images = {
+                TestImages.nearlyFlat(83, 61, 7), TestImages.saturated(83, 61), TestImages.smooth(83, 61)
+        };
+        for (DCT transform : engines()) {
+            for (int quality : QUALITIES) {
+                for (int[][][] image : images) {
+                    for (Subsampling subsampling : Subsampling.values()) {
+                        byte[][] staged = new byte[2][];
+                        byte[][] fused = new byte[2][];
+                        for (int run = 0; run < 2; run++) {
+                            Encoder encoder = TestImages.encoder(image);
+                            encoder.setTransform(transform);
+                            encoder.setQuality(quality);
+                            encoder.setSubsampling(subsampling);
+                            encoder.setFlatBlockDetector(run == 0 ? null : new FlatBlockDetector());
+                            encoder.storeBlocks();
+                            encoder.forwardDCT();
+                            encoder.quantization();
+                            encoder.entropyEncoding();
+                            staged[run] = TestImages.bytes(encoder.compress());
+                            encoder.fusedEncoding();
+                            fused[run] = TestImages.bytes(encoder.compress());
+                        }
+                        String context = transform.getClass() + ", quality " + quality + ", " + subsampling;
+                        assertArrayEquals(staged[0], staged[1], context);
+                        assertArrayEquals(fused[0], fused[1], context);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The staged path with the table given after the transform, by {@link Encoder#rateControl(long)} or by
+     * {@link Encoder#setQuality(int)}: the transform must not have dropped coefficients for the earlier table.
+     */
+    @Test
+    void coefficientsQuantizedAgainDoNotDependOnTheDetector() {
+        int[][][][] images = {TestImages.nearlyFlat(83, 61, 7), TestImages.smooth(83, 61)};
+        for (int[][][] image : images) {
+            for (long target : new long[]{1500, 4000, 100_000}) {
+                byte[][] bytes = new byte[2][];
+                int[] qualities = new int[2];
+                for (int run = 0; run < 2; run++) {
+                    Encoder encoder = TestImages.encoder(image);
+                    encoder.setFlatBlockDetector(run == 0 ? null : new FlatBlockDetector());
+                    encoder.storeBlocks();
+                    encoder.forwardDCT();
+                    qualities[run] = encoder.rateControl(target);
+                    bytes[run] = TestImages.bytes(encoder.compress());
+                }
+                assertEquals(qualities[0], qualities[1]);
+                assertArrayEquals(bytes[0], bytes[1], "target " + target);
+            }
+            for (int quality : QUALITIES) {
+                byte[][] bytes = new byte[2][];
+                for (int run = 0; run < 2; run++) {
+                    Encoder encoder = TestImages.encoder(image);
+                    encoder.setFlatBlockDetector(run == 0 ? null : new FlatBlockDetector());
+                    // transformed with the default table, quantized with the one of the quality
+                    encoder.storeBlocks();
+                    encoder.forwardDCT();
+                    encoder.setQuality(quality);
+                    encoder.quantization();
+                    encoder.entropyEncoding();
+                    bytes[run] = TestImages.bytes(encoder.compress());
+                }
+                assertArrayEquals(bytes[0], bytes[1], "quality " + quality);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package pdav.tudor.domain;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * {@link Encoder#fusedEncoding()} against the separate stages, which must write the same bytes.
+ */
+class FusedEncodingTest {
+    private static int[][][][] images() {
+        return new int[][][][]{
+                TestImages.noise(75, 43, 14), TestImages.smooth(75, 43), TestImages.nearlyFlat(75, 43, 14),
+                TestImages.saturated(75, 43),
+                // smaller than a block, and exactly one MCU of 4:2:0
+                TestImages.noise(5, 3, 15), TestImages.noise(16, 16, 16)
+        };
+    }
+
+    private static byte[] staged(Encoder encoder) {
+        encoder.storeBlocks();
+        encoder.forwardDCT();
+        encoder.quantization();
+        encoder.entropyEncoding();
+        return TestImages.bytes(encoder.compress());
+    }
+
+    private static byte[] fused(Encoder encoder) {
+        encoder.fusedEncoding();
+        return TestImages.bytes(encoder.compress());
+    }
+
+    @Test
+    void fusedPassWritesTheBytesOfTheStages() {
+        for (int[][][] image : images()) {
+            for (Subsampling subsampling : Subsampling.values()) {
+                for (int quality : new int[]{5, 50, 95}) {
+                    Encoder encoder = TestImages.encoder(image);
+                    encoder.setSubsampling(subsampling);
+                    encoder.setQuality(quality);
+                    // the plain fused pass, without the shortcuts it can take
+                    encoder.setBlockCache(null);
+                    encoder.setFlatBlockDetector(null);
+                    String context = image[0][0].length + "x" + image[0].length + ", " + subsampling + ", q" + quality;
+                    assertArrayEquals(staged(encoder), fused(encoder), context);
+                }
+            }
+        }
+    }
+
+    @Test
+    void fusedPassMatchesWithEveryOption() {
+        for (int[][][] image : images()) {
+            for (int parallelism : new int[]{1, 3}) {
+                for (int restartInterval : new int[]{0, 2}) {
+                    for (boolean optimized : new boolean[]{false, true}) {
+                        Encoder encoder = TestImages.encoder(image);
+                        encoder.setSubsampling(Subsampling.YUV420);
+                        encoder.setParallelism(parallelism);
+                        encoder.setRestartInterval(restartInterval);
+                        encoder.setOptimizedHuffmanTables(optimized);
+                        encoder.setBlockCache(new BlockCache(64));
+                        assertArrayEquals(staged(encoder), fused(encoder));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package pdav.tudor.domain;
+
+import org.junit.jupiter.api.Test;
+import pdav.tudor.domain.transform.DCT;
+import pdav.tudor.domain.transform.FastDCT;
+import pdav.tudor.domain.transform.VectorDCT;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * The vector kernels against the scalar ones, which they must match bit for bit.
+ */
+class KernelsTest {
+    private static final int BLOCK_AREA = Plane.BLOCK_AREA;
+    // not a multiple of any vector length, so that the scalar tails run too
+    private static final int PIXELS = 1001;
+    private final Kernels scalar = Kernels.scalar();
+    private final Kernels vector = new VectorKernels();
+
+    private static double[] coefficients(Random random, int blocks) {
+        double[] values = new double[blocks * BLOCK_AREA];
+        for (int position = 0; position < values.length; position++) {
+            switch (position % 4) {
+                // around the truncation to 0 and to the next integer, of both signs
+                case 0 -> values[position] = random.nextDouble() * 4 - 2;
+                case 1 -> values[position] = random.nextInt(41) - 20 + (random.nextBoolean() ? 1e-12 : -1e-12);
+                case 2 -> values[position] = random.nextDouble() * 4000 - 2000;
+                default -> values[position] = 0;
+            }
+        }
+        return values;
+    }
+
+    private static double[] reciprocals(Random random) {
+        double[] reciprocals = new double[BLOCK_AREA];
+        for (int index = 0; index < BLOCK_AREA; index++) {
+            reciprocals[index] = 1.0 / (1 + random.nextInt(255));
+        }
+        return reciprocals;
+    }
+
+    @Test
+    void quantizationMatches() {
+        Random random = new Random(13);
+        double[] values = coefficients(random, 40);
+        double[] reciprocals = reciprocals(random);
+        int[] expected = new int[values.length];
+        int[] actual = new int[values.length];
+        // a range not starting at the first block
+        scalar.quantize(values, expected, 3, 37, reciprocals);
+        vector.quantize(values, actual, 3, 37, reciprocals);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void dequantizationMatches() {
+        Random random = new Random(14);
+        int[] quantized = new int[40 * BLOCK_AREA];
+        for (int position = 0; position < quantized.length; position++) {
+            quantized[position] = random.nextInt(4096) - 2048;
+        }
+        double[] multipliers = reciprocals(random);
+        double[] expected = new double[quantized.length];
+        double[] actual = new double[quantized.length];
+        scalar.dequantize(quantized, expected, 3, 37, multipliers);
+        vector.dequantize(quantized, actual, 3, 37, multipliers);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void colorConversionMatches() {
+        Random random = new Random(15);
+        int[][] rgb = new int[3][PIXELS];
+        int[][] yuv = new int[3][PIXELS];
+        for (int pixel = 0; pixel < PIXELS; pixel++) {
+            for (int channel = 0; channel < 3; channel++) {
+                // every few pixels a value outside 0 - 255, which the kernels clamp
+                rgb[channel][pixel] = pixel % 97 == channel ? random.nextInt(1000) - 500 : random.nextInt(256);
+            }
+            yuv[0][pixel] = random.nextInt(256);
+            yuv[1][pixel] = random.nextInt(571) - 285;
+            yuv[2][pixel] = random.nextInt(571) - 285;
+        }
+        // the extremes
+        for (int channel = 0; channel < 3; channel++) {
+            rgb[channel][0] = 0;
+            rgb[channel][1] = 255;
+        }
+
+        int[][] expected = new int[3][PIXELS];
+        int[][] actual = new int[3][PIXELS];
+        scalar.rgbToYuv(rgb[0], rgb[1], rgb[2], expected[0], expected[1], expected[2], PIXELS);
+        vector.rgbToYuv(rgb[0], rgb[1], rgb[2], actual[0], actual[1], actual[2], PIXELS);
+        assertArrayEquals(expected, actual);
+
+        scalar.yuvToRgb(yuv[0], yuv[1], yuv[2], expected[0], expected[1], expected[2], PIXELS);
+        vector.yuvToRgb(yuv[0], yuv[1], yuv[2], actual[0], actual[1], actual[2], PIXELS);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void transformsMatch() {
+        Random random = new Random(16);
+        DCT fast = new FastDCT();
+        DCT vectorDct = new VectorDCT();
+        double[] samples = coefficients(random, 200);
+        double[] expected = samples.clone();
+        double[] actual = samples.clone();
+        for (int offset = 0; offset < samples.length; offset += BLOCK_AREA) {
+            fast.forward(expected, offset);
+            vectorDct.forward(actual, offset);
+        }
+        assertArrayEquals(expected, actual);
+        for (int offset = 0; offset < samples.length; offset += BLOCK_AREA) {
+            fast.inverse(expected, offset);
+            vectorDct.inverse(actual, offset);
+        }
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void imagesMatch() {
+        int[][][][] images = {TestImages.noise(67, 45, 3), TestImages.saturated(67, 45), TestImages.smooth(67, 45)};
+        for (int[][][] image : images) {
+            for (Subsampling subsampling : Subsampling.values()) {
+                byte[][] bytes = new byte[2][];
+                byte[][] fused = new byte[2][];
+                int[][][][] decoded = new int[2][][][];
+                Kernels[] kernels = {scalar, vector};
+                for (int run = 0; run < 2; run++) {
+                    Encoder encoder = new Encoder("unused.ppm");
+                    encoder.setKernels(kernels[run]);
+                    encoder.setImage(image[0], image[1], image[2], image[0][0].length, image[0].length);
+                    encoder.convertRGBtoYUV();
+                    encoder.setSubsampling(subsampling);
+                    encoder.fusedEncoding();
+                    fused[run] = TestImages.bytes(encoder.compress());
+                    encoder.storeBlocks();
+                    encoder.forwardDCT();
+                    encoder.quantization();
+                    encoder.entropyEncoding();
+                    bytes[run] = TestImages.bytes(encoder.compress());
+
+                    Decoder decoder = new Decoder("unused.ppm", encoder.compress());
+                    decoder.setKernels(kernels[run]);
+                    decoder.entropyDecoding();
+                    decoder.deQuantization();
+                    decoder.inverseDCT();
+                    decoder.convertBlocksToMatrices();
+                    decoder.convertYUVtoRGB();
+                    decoded[run] = new int[][][]{decoder.getR(), decoder.getG(), decoder.getB()};
+                }
+                assertArrayEquals(bytes[0], bytes[1]);
+                assertArrayEquals(fused[0], fused[1]);
+                assertArrayEquals(decoded[0], decoded[1]);
+            }
+        }
+    }
+}
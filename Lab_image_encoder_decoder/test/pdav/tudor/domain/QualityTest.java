@@ -0,0 +1,151 @@
+package pdav.tudor.domain;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pdav.tudor.domain.entropy.SymbolBuffer;
+import pdav.tudor.domain.io.CompressedImage;
+import pdav.tudor.domain.io.PPMWriter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Quality scaling and rate control over the whole quality range, on saturated colours: with the divisors of 1 of
+ * the highest qualities their chroma needs codes the standard Huffman tables do not have.
+ */
+class QualityTest {
+    private static final int WIDTH = 91;
+    private static final int HEIGHT = 53;
+
+    private static int[][][] decode(CompressedImage image) {
+        Decoder decoder = new Decoder("unused.ppm", image);
+        decoder.entropyDecoding();
+        decoder.deQuantization();
+        decoder.inverseDCT();
+        decoder.convertBlocksToMatrices();
+        decoder.convertYUVtoRGB();
+        return new int[][][]{decoder.getR(), decoder.getG(), decoder.getB()};
+    }
+
+    private static int maxError(int[][][] expected, int[][][] actual) {
+        int error = 0;
+        for (int channel = 0; channel < 3; channel++) {
+            for (int line = 0; line < HEIGHT; line++) {
+                for (int column = 0; column < WIDTH; column++) {
+                    error = Math.max(error, Math.abs(expected[channel][line][column] - actual[channel][line][column]));
+                }
+            }
+        }
+        return error;
+    }
+
+    @Test
+    void bestQualityCodesSaturatedColours() {
+        int[][][] image = TestImages.saturated(WIDTH, HEIGHT);
+        for (Subsampling subsampling : Subsampling.values()) {
+            for (int restartInterval : new int[]{0, 3}) {
+                Encoder encoder = TestImages.encoder(image);
+                encoder.setSubsampling(subsampling);
+                encoder.setRestartInterval(restartInterval);
+                encoder.setQuality(100);
+                encoder.fusedEncoding();
+                byte[] bytes = TestImages.bytes(encoder.compress());
+                assertEquals(bytes.length, encoder.compressedSize());
+                if (subsampling == Subsampling.YUV444) {
+                    // divisors of 1 only lose the rounding of the transform and of the colour conversion
+                    assertTrue(maxError(image, decode(encoder.compress())) <= 8);
+                }
+            }
+        }
+    }
+
+    @Test
+    void everyQualityWritesTheSizeItAnnounces() {
+        Encoder encoder = TestImages.encoder(TestImages.saturated(WIDTH, HEIGHT));
+        encoder.setSubsampling(Subsampling.YUV444);
+        for (int quality = 1; quality <= 100; quality++) {
+            encoder.setQuality(quality);
+            encoder.fusedEncoding();
+            CompressedImage image = encoder.compress();
+            assertEquals(TestImages.bytes(image).length, encoder.compressedSize(), "quality " + quality);
+            decode(image);
+        }
+    }
+
+    @Test
+    void rateControlSearchesTheWholeRange() {
+        for (int[][][] image : new int[][][][]{TestImages.saturated(WIDTH, HEIGHT), TestImages.smooth(WIDTH, HEIGHT)}) {
+            for (long target : new long[]{1, 1500, 3000, 100_000, Long.MAX_VALUE}) {
+                Encoder encoder = TestImages.encoder(image);
+                encoder.storeBlocks();
+                encoder.forwardDCT();
+                int quality = encoder.rateControl(target);
+                assertTrue(quality >= 1 && quality <= 100);
+                long size = encoder.compressedSize();
+                assertEquals(TestImages.bytes(encoder.compress()).length, size);
+                assertTrue(size <= target || quality == 1, "quality " + quality + " for " + target + " bytes");
+                if (quality < 100) {
+                    // the next quality did not fit
+                    encoder.setQuality(quality + 1);
+                    encoder.quantization();
+                    encoder.entropyEncoding();
+                    assertTrue(encoder.compressedSize() > target);
+                }
+            }
+        }
+    }
+
+    @Test
+    void rateControlDoesNotDependOnTheShortcuts() {
+        int[][][][] images = {TestImages.nearlyFlat(WIDTH, HEIGHT, 15), TestImages.saturated(WIDTH, HEIGHT)};
+        for (int[][][] image : images) {
+            for (long target : new long[]{1500, 3000, 100_000}) {
+                Encoder plain = TestImages.encoder(image);
+                plain.setFlatBlockDetector(null);
+                plain.storeBlocks();
+                plain.forwardDCT();
+                int quality = plain.rateControl(target);
+                byte[] expected = TestImages.bytes(plain.compress());
+
+                Encoder encoder = TestImages.encoder(image);
+                encoder.setFlatBlockDetector(new FlatBlockDetector());
+                encoder.setBlockCache(new BlockCache());
+                encoder.setParallelism(3);
+                encoder.storeBlocks();
+                encoder.forwardDCT();
+                assertEquals(quality, encoder.rateControl(target));
+                assertArrayEquals(expected, TestImages.bytes(encoder.compress()), "target " + target);
+                // the fused pass at the quality found, through the detector and the cache
+                encoder.fusedEncoding();
+                assertArrayEquals(expected, TestImages.bytes(encoder.compress()), "target " + target);
+            }
+        }
+    }
+
+    @Test
+    void streamingEncoderQuantizesWithTheQuality(@TempDir Path directory) throws IOException {
+        int[][][] image = TestImages.saturated(WIDTH, HEIGHT);
+        String filename = directory.resolve("saturated.ppm").toString();
+        PPMWriter.writeP6(filename, image[0], image[1], image[2], WIDTH, HEIGHT);
+        for (int quality : new int[]{10, 50, 95}) {
+            Encoder encoder = TestImages.encoder(image);
+            encoder.setQuality(quality);
+            encoder.fusedEncoding();
+
+            SymbolBuffer symbols = new SymbolBuffer();
+            try (StreamingEncoder streaming = new StreamingEncoder(filename)) {
+                streaming.setQuality(quality);
+                streaming.open();
+                for (EncodedBand band = streaming.nextBand(); band != null; band = streaming.nextBand()) {
+                    symbols.addAll(band.getSymbols());
+                }
+                assertArrayEquals(QuantizationMatrix.scaled(quality), streaming.getQuantizationTable());
+            }
+            assertArrayEquals(encoder.getSymbols().toArray(), symbols.toArray(), "quality " + quality);
+        }
+    }
+}
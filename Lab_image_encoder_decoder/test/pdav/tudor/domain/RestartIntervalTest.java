@@ -0,0 +1,77 @@
+package pdav.tudor.domain;
+
+import org.junit.jupiter.api.Test;
+import pdav.tudor.domain.io.CompressedImage;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Images coded in slices, read back from their bytes: they must decode, whole or in part, exactly like the image
+ * coded as one stream, at any parallelism of the encoder and of the decoder.
+ */
+class RestartIntervalTest {
+    private static final int WIDTH = 83;
+    private static final int HEIGHT = 61;
+    // from one MCU per slice to fewer slices than rows, and one slice longer than the image
+    private static final int[] INTERVALS = {1, 3, 7, 20, 1000};
+
+    private static CompressedImage encode(int[][][] image, Subsampling subsampling, int restartInterval,
+                                          int parallelism) throws IOException {
+        Encoder encoder = TestImages.encoder(image);
+        encoder.setSubsampling(subsampling);
+        encoder.setRestartInterval(restartInterval);
+        encoder.setParallelism(parallelism);
+        // region decoding then starts at the slices
+        encoder.setRowIndex(false);
+        encoder.fusedEncoding();
+        byte[] bytes = TestImages.bytes(encoder.compress());
+        assertEquals(bytes.length, encoder.compressedSize());
+        return CompressedImage.readNext(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    private static int[][][] decode(CompressedImage image, int parallelism) {
+        Decoder decoder = new Decoder("unused.ppm", image);
+        decoder.setParallelism(parallelism);
+        decoder.entropyDecoding();
+        decoder.deQuantization();
+        decoder.inverseDCT();
+        decoder.convertBlocksToMatrices();
+        decoder.convertYUVtoRGB();
+        return new int[][][]{decoder.getR(), decoder.getG(), decoder.getB()};
+    }
+
+    @Test
+    void slicedImageDecodesLikeTheWholeStream() throws IOException {
+        int[][][][] images = {TestImages.noise(WIDTH, HEIGHT, 22), TestImages.saturated(WIDTH, HEIGHT)};
+        for (int[][][] image : images) {
+            for (Subsampling subsampling : Subsampling.values()) {
+                int[][][] expected = decode(encode(image, subsampling, 0, 1), 1);
+                for (int restartInterval : INTERVALS) {
+                    for (int parallelism : new int[]{1, 3}) {
+                        CompressedImage sliced = encode(image, subsampling, restartInterval, parallelism);
+                        String context = subsampling + ", interval " + restartInterval + ", parallelism "
+                                + parallelism;
+                        assertArrayEquals(expected, decode(sliced, parallelism), context);
+                        // a region from the middle of a row, decoded from the slice holding its first MCU
+                        Decoder decoder = new Decoder("unused.ppm", sliced);
+                        decoder.setParallelism(parallelism);
+                        decoder.decodeRegion(37, 29, 30, 20);
+                        int[][][] region = {decoder.getR(), decoder.getG(), decoder.getB()};
+                        for (int channel = 0; channel < 3; channel++) {
+                            for (int line = 0; line < 20; line++) {
+                                assertArrayEquals(Arrays.copyOfRange(expected[channel][29 + line], 37, 67),
+                                        region[channel][line], context);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
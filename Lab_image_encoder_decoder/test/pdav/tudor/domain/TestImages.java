@@ -0,0 +1,122 @@
+package pdav.tudor.domain;
+
+import pdav.tudor.domain.io.CompressedImage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+/**
+ * The images the tests run the codec on, as {r, g, b} matrices of size height x width. The sizes used by the tests
+ * are not multiples of the MCU size, so that the padding of the last row and column of MCUs is covered too.
+ */
+final class TestImages {
+    private TestImages() {
+    }
+
+    /**
+     * Every channel of every pixel drawn at random: no block is flat, and most coefficients survive quantization.
+     */
+    static int[][][] noise(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[][][] image = new int[3][height][width];
+        for (int[][] channel : image) {
+            for (int[] line : channel) {
+                for (int column = 0; column < width; column++) {
+                    line[column] = random.nextInt(256);
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Slow gradients and waves, whose blocks keep only a few low frequencies.
+     */
+    static int[][][] smooth(int width, int height) {
+        int[][][] image = new int[3][height][width];
+        for (int line = 0; line < height; line++) {
+            for (int column = 0; column < width; column++) {
+                image[0][line][column] = (int) (128 + 100 * Math.sin(column / 37.0) * Math.cos(line / 23.0));
+                image[1][line][column] = column * 255 / width;
+                image[2][line][column] = line * 255 / height;
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Tiles of 8x8 pixels of one colour each, a few of their pixels moved away from it by up to a different
+     * amplitude for every tile, so that the blocks fall on both sides of the flat block limit of every quality.
+     */
+    static int[][][] nearlyFlat(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int tileColumns = (width + 7) / 8;
+        int[][] colors = new int[(height + 7) / 8 * tileColumns][3];
+        double[] amplitudes = new double[colors.length];
+        for (int tile = 0; tile < colors.length; tile++) {
+            for (int channel = 0; channel < 3; channel++) {
+                colors[tile][channel] = 20 + random.nextInt(216);
+            }
+            amplitudes[tile] = random.nextDouble() * 12;
+        }
+        int[][][] image = new int[3][height][width];
+        for (int line = 0; line < height; line++) {
+            for (int column = 0; column < width; column++) {
+                int tile = line / 8 * tileColumns + column / 8;
+                for (int channel = 0; channel < 3; channel++) {
+                    int noise = random.nextDouble() < 0.3
+                            ? (int) Math.round((random.nextDouble() * 2 - 1) * amplitudes[tile]) : 0;
+                    image[channel][line][column] = Math.max(0, Math.min(255, colors[tile][channel] + noise));
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Bands of fully saturated colours (primaries, secondaries, black and white) next to each other, which give
+     * the largest chroma values and DC differences the codec can meet.
+     */
+    static int[][][] saturated(int width, int height) {
+        int[][] colors = {
+                {0, 255, 255}, {255, 0, 0}, {0, 0, 255}, {255, 255, 0},
+                {255, 0, 255}, {0, 255, 0}, {0, 0, 0}, {255, 255, 255}
+        };
+        int[][][] image = new int[3][height][width];
+        for (int line = 0; line < height; line++) {
+            for (int column = 0; column < width; column++) {
+                int[] color = colors[(column / 13 + line / 11) % colors.length];
+                for (int channel = 0; channel < 3; channel++) {
+                    image[channel][line][column] = color[channel];
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * An encoder holding the image, converted to YUV and ready for its stages.
+     */
+    static Encoder encoder(int[][][] image) {
+        Encoder encoder = new Encoder("unused.ppm");
+        encoder.setImage(image[0], image[1], image[2], image[0][0].length, image[0].length);
+        encoder.convertRGBtoYUV();
+        return encoder;
+    }
+
+    /**
+     * The image as written to a file.
+     */
+    static byte[] bytes(CompressedImage image) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            image.write(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,73 @@
+package pdav.tudor.domain.entropy;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HuffmanTableTest {
+    @Test
+    void codeLengthIsTheNumberOfBitsEncoded() {
+        for (HuffmanTable table : new HuffmanTable[]{HuffmanTable.STANDARD_DC, HuffmanTable.STANDARD_AC}) {
+            for (int symbol : table.getSymbols()) {
+                BitWriter writer = new BitWriter();
+                table.encode(writer, symbol);
+                assertEquals(writer.getBitCount(), table.codeLength(symbol), "symbol " + symbol);
+            }
+        }
+    }
+
+    @Test
+    void symbolsWithoutCodeFailToBeSizedAsToBeEncoded() {
+        // DC size 12 and AC (run 0, size 11) are beyond the standard tables
+        int[][] missing = {{0, 12}, {1, 0x0B}};
+        HuffmanTable[] tables = {HuffmanTable.STANDARD_DC, HuffmanTable.STANDARD_AC};
+        for (int[] entry : missing) {
+            HuffmanTable table = tables[entry[0]];
+            int symbol = entry[1];
+            assertFalse(table.hasCode(symbol));
+            assertThrows(IllegalStateException.class, () -> table.encode(new BitWriter(), symbol));
+            assertThrows(IllegalStateException.class, () -> table.codeLength(symbol));
+        }
+    }
+
+    @Test
+    void sizeInBitsFailsLikeEncodeForAnUncodableStream() {
+        SymbolBuffer symbols = new SymbolBuffer(2);
+        // a DC difference of -2280 needs size 12
+        symbols.add(SymbolBuffer.pack(0, EntropyCoder.sizeOf(-2280), -2280));
+        symbols.add(SymbolBuffer.END_OF_BLOCK);
+        int[] components = {0};
+        EntropyCoder coder = EntropyCoder.standard();
+        assertThrows(IllegalStateException.class, () -> coder.encode(symbols, components));
+        assertThrows(IllegalStateException.class, () -> coder.sizeInBits(symbols, components));
+    }
+
+    @Test
+    void optimalTablesDecodeWhatTheyEncode() {
+        Random random = new Random(8);
+        long[] frequencies = new long[256];
+        int[] message = new int[5000];
+        for (int index = 0; index < message.length; index++) {
+            // a skewed distribution, so that the codes get lengths from 1 bit to the 16 bit limit
+            message[index] = (int) Math.min(255, Math.abs(random.nextGaussian() * 30));
+            frequencies[message[index]]++;
+        }
+        HuffmanTable table = HuffmanTable.fromFrequencies(frequencies);
+        BitWriter writer = new BitWriter();
+        long bits = 0;
+        for (int symbol : message) {
+            table.encode(writer, symbol);
+            bits += table.codeLength(symbol);
+        }
+        assertEquals(bits, writer.getBitCount());
+        writer.alignToByte();
+        BitReader reader = new BitReader(writer.toByteArray());
+        for (int symbol : message) {
+            assertEquals(symbol, table.decode(reader));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package pdav.tudor.domain.io;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pdav.tudor.domain.BlockExecutor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class P3ScanlineReaderTest {
+    private static final int WIDTH = 13;
+    private static final int HEIGHT = 11;
+    private final BlockExecutor parallel = new BlockExecutor(2);
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void shutdown() {
+        parallel.shutdown();
+    }
+
+    private static int[][][] image(long seed) {
+        Random random = new Random(seed);
+        int[][][] image = new int[3][HEIGHT][WIDTH];
+        for (int[][] channel : image) {
+            for (int[] line : channel) {
+                for (int column = 0; column < WIDTH; column++) {
+                    line[column] = random.nextInt(256);
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * A comment full of numbers, as long as asked, ended by a line break.
+     */
+    private static String comment(int length) {
+        StringBuilder comment = new StringBuilder("#");
+        while (comment.length() < length) {
+            comment.append(' ').append(comment.length() % 1000);
+        }
+        return comment.append('\n').toString();
+    }
+
+    /**
+     * Writes the image as P3, one line of values for every line of pixels, each followed by the given comment line.
+     */
+    private String write(int[][][] image, String comment) throws IOException {
+        StringBuilder text = new StringBuilder("P3\n" + WIDTH + " " + HEIGHT + "\n255\n");
+        for (int line = 0; line < HEIGHT; line++) {
+            for (int column = 0; column < WIDTH; column++) {
+                for (int[][] channel : image) {
+                    text.append(channel[line][column]).append(' ');
+                }
+            }
+            text.append('\n').append(comment);
+        }
+        Path path = Files.createTempFile(directory, "image", ".ppm");
+        Files.writeString(path, text, StandardCharsets.US_ASCII);
+        return path.toString();
+    }
+
+    private static int[][][] read(String filename, BlockExecutor executor) throws IOException {
+        int[][][] image = new int[3][HEIGHT][WIDTH];
+        try (P3ScanlineReader reader = new P3ScanlineReader(filename)) {
+            reader.readAll(image[0], image[1], image[2], executor);
+        }
+        return image;
+    }
+
+    @Test
+    void commentsAtTheChunkBoundariesAreSkipped() throws IOException {
+        int[][][] image = image(6);
+        // shorter than the search for a line break, so the file is split, and longer, so it is read sequentially
+        for (int length : new int[]{0, 40, 3000, 50_000, 70_000, 300_000}) {
+            String filename = write(image, length == 0 ? "" : comment(length));
+            assertArrayEquals(image, read(filename, BlockExecutor.serial()), "comments of " + length);
+            assertArrayEquals(image, read(filename, parallel), "comments of " + length);
+        }
+    }
+
+    @Test
+    void unexpectedCharactersAreReported() throws IOException {
+        int[][][] image = image(7);
+        String filename = write(image, comment(100));
+        byte[] bytes = Files.readAllBytes(Path.of(filename));
+        int position = bytes.length / 2;
+        while (bytes[position] < '0' || bytes[position] > '9' || bytes[position - 1] != ' ') {
+            position++;
+        }
+        bytes[position] = 'x';
+        Files.write(Path.of(filename), bytes);
+        for (BlockExecutor executor : new BlockExecutor[]{BlockExecutor.serial(), parallel}) {
+            IOException e = assertThrows(IOException.class, () -> read(filename, executor));
+            assertTrue(e.getMessage().contains("'x' at byte " + position), e.getMessage());
+        }
+    }
+}
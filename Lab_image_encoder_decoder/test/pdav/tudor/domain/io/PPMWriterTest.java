@@ -0,0 +1,72 @@
+package pdav.tudor.domain.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pdav.tudor.domain.BlockExecutor;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PPMWriterTest {
+    // widths and heights of frames written one after the other with the same buffers: narrower and wider frames,
+    // a line wider than a batch, and more lines than a batch holds
+    private static final int[][] SIZES = {{40, 30}, {17, 9}, {40, 31}, {100_000, 2}, {1, 1}, {300, 700}};
+    @TempDir
+    Path directory;
+
+    private static int[][][] image(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[][][] image = new int[3][height][width];
+        for (int[][] channel : image) {
+            for (int[] line : channel) {
+                for (int column = 0; column < width; column++) {
+                    line[column] = random.nextInt(256);
+                }
+            }
+        }
+        return image;
+    }
+
+    private static int[][][] read(ScanlineReader reader) throws IOException {
+        int[][][] image = new int[3][reader.getHeight()][reader.getWidth()];
+        reader.readAll(image[0], image[1], image[2], BlockExecutor.serial());
+        return image;
+    }
+
+    @Test
+    void framesWrittenWithTheSameBuffersReadBack() throws IOException {
+        String stream = directory.resolve("frames.p6").toString();
+        int[][][][] images = new int[SIZES.length][][][];
+        try (P6StreamWriter writer = new P6StreamWriter(stream)) {
+            for (int frame = 0; frame < SIZES.length; frame++) {
+                images[frame] = image(SIZES[frame][0], SIZES[frame][1], frame);
+                writer.write(images[frame][0], images[frame][1], images[frame][2], SIZES[frame][0], SIZES[frame][1]);
+            }
+        }
+        try (P6StreamReader reader = new P6StreamReader(stream)) {
+            for (int[][][] image : images) {
+                assertArrayEquals(image, read(reader.nextFrame()));
+            }
+            assertNull(reader.nextFrame());
+        }
+    }
+
+    @Test
+    void filesWrittenWithTheSameBuffersReadBack() throws IOException {
+        PPMDirectoryWriter writer = new PPMDirectoryWriter(directory.toString());
+        for (int frame = 0; frame < SIZES.length; frame++) {
+            int[][][] image = image(SIZES[frame][0], SIZES[frame][1], frame);
+            writer.write(image[0], image[1], image[2], SIZES[frame][0], SIZES[frame][1]);
+            String name = directory.resolve(String.format("frame-%05d.ppm", frame)).toString();
+            try (ScanlineReader reader = ScanlineReader.open(name)) {
+                assertEquals(SIZES[frame][0], reader.getWidth());
+                assertArrayEquals(image, read(reader));
+            }
+        }
+    }
+}
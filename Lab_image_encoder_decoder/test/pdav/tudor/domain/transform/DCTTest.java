@@ -0,0 +1,79 @@
+package pdav.tudor.domain.transform;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DCTTest {
+    private static final int BLOCK_SIZE = DCT.BLOCK_SIZE;
+    private static final int BLOCK_AREA = DCT.BLOCK_AREA;
+
+    private static DCT[] engines() {
+        return new DCT[]{new SeparableDCT(), new FastDCT(), new VectorDCT()};
+    }
+
+    /**
+     * The extreme level shifted blocks: constant at both ends of the range, a checkerboard, stripes and a single
+     * impulse, which put the largest values on single coefficients.
+     */
+    private static List<double[]> edgeBlocks() {
+        List<double[]> blocks = new ArrayList<>();
+        for (double value : new double[]{-128, 0, 127}) {
+            double[] block = new double[BLOCK_AREA];
+            Arrays.fill(block, value);
+            blocks.add(block);
+        }
+        double[] checkerboard = new double[BLOCK_AREA];
+        double[] lines = new double[BLOCK_AREA];
+        double[] columns = new double[BLOCK_AREA];
+        double[] impulse = new double[BLOCK_AREA];
+        for (int line = 0; line < BLOCK_SIZE; line++) {
+            for (int column = 0; column < BLOCK_SIZE; column++) {
+                checkerboard[line * BLOCK_SIZE + column] = (line + column) % 2 == 0 ? 127 : -128;
+                lines[line * BLOCK_SIZE + column] = line % 2 == 0 ? 127 : -128;
+                columns[line * BLOCK_SIZE + column] = column < BLOCK_SIZE / 2 ? 127 : -128;
+            }
+        }
+        impulse[3 * BLOCK_SIZE + 5] = 127;
+        blocks.add(checkerboard);
+        blocks.add(lines);
+        blocks.add(columns);
+        blocks.add(impulse);
+        return blocks;
+    }
+
+    @Test
+    void enginesAgreeWithTheReferenceOnRandomBlocks() {
+        for (DCT engine : engines()) {
+            double deviation = ReferenceDCT.maxDeviation(engine, 2000, 1);
+            assertTrue(deviation <= DCT.TOLERANCE, engine.getClass() + " deviates by " + deviation);
+        }
+    }
+
+    @Test
+    void enginesAgreeWithTheReferenceOnEdgeBlocks() {
+        ReferenceDCT reference = new ReferenceDCT();
+        for (DCT engine : engines()) {
+            for (double[] samples : edgeBlocks()) {
+                double[] expected = samples.clone();
+                double[] actual = samples.clone();
+                reference.forward(expected, 0);
+                engine.forward(actual, 0);
+                for (int index = 0; index < BLOCK_AREA; index++) {
+                    double scale = engine.forwardScale(index / BLOCK_SIZE, index % BLOCK_SIZE);
+                    assertEquals(expected[index], actual[index] / scale, DCT.TOLERANCE);
+                    actual[index] = expected[index] * engine.inverseScale(index / BLOCK_SIZE, index % BLOCK_SIZE);
+                }
+                engine.inverse(actual, 0);
+                for (int index = 0; index < BLOCK_AREA; index++) {
+                    assertEquals(samples[index], actual[index], DCT.TOLERANCE);
+                }
+            }
+        }
+    }
+}
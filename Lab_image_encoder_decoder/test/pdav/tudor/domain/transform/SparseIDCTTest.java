@@ -0,0 +1,106 @@
+package pdav.tudor.domain.transform;
+
+import org.junit.jupiter.api.Test;
+import pdav.tudor.domain.Decoder;
+import pdav.tudor.domain.Encoder;
+import pdav.tudor.domain.Subsampling;
+import pdav.tudor.domain.entropy.ZigZag;
+import pdav.tudor.domain.io.CompressedImage;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SparseIDCTTest {
+    private static final int BLOCK_AREA = DCT.BLOCK_AREA;
+
+    private static DCT[] engines() {
+        return new DCT[]{new FastDCT(), new VectorDCT(), new SeparableDCT()};
+    }
+
+    /**
+     * Coefficients at the zig-zag indices up to lastIndex, the last one non-zero, some of the others 0.
+     */
+    private static double[] sparseBlock(Random random, int lastIndex) {
+        double[] block = new double[BLOCK_AREA];
+        for (int index = 0; index <= lastIndex; index++) {
+            if (index == lastIndex || random.nextInt(3) > 0) {
+                int value = random.nextInt(2001) - 1000;
+                block[ZigZag.ORDER[index]] = value == 0 ? 1 : value * random.nextDouble();
+            }
+        }
+        return block;
+    }
+
+    @Test
+    void sparseInverseIsTheFullInverse() {
+        Random random = new Random(24);
+        SparseIDCT sparse = new SparseIDCT();
+        for (DCT transform : engines()) {
+            for (int lastIndex = 0; lastIndex < BLOCK_AREA; lastIndex++) {
+                for (int trial = 0; trial < 50; trial++) {
+                    double[] expected = sparseBlock(random, lastIndex);
+                    // the block at an offset, between other values
+                    double[] actual = new double[BLOCK_AREA + 16];
+                    actual[3] = 7;
+                    actual[BLOCK_AREA + 12] = 7;
+                    System.arraycopy(expected, 0, actual, 5, BLOCK_AREA);
+                    transform.inverse(expected, 0);
+                    sparse.inverse(transform, actual, 5, lastIndex);
+                    double[] block = new double[BLOCK_AREA];
+                    System.arraycopy(actual, 5, block, 0, BLOCK_AREA);
+                    assertArrayEquals(expected, block, transform.getClass() + ", last index " + lastIndex);
+                    assertTrue(actual[3] == 7 && actual[BLOCK_AREA + 12] == 7);
+                }
+            }
+        }
+        assertTrue(sparse.getDcOnlyBlocks() > 0 && sparse.getLowFrequencyBlocks() > 0 && sparse.getFullBlocks() > 0);
+    }
+
+    private static int[][][] image(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[][][] image = new int[3][height][width];
+        for (int line = 0; line < height; line++) {
+            for (int column = 0; column < width; column++) {
+                // smooth areas, whose blocks keep few coefficients, next to noisy ones
+                boolean noisy = column / 16 % 3 == 0;
+                for (int channel = 0; channel < 3; channel++) {
+                    image[channel][line][column] = noisy ? random.nextInt(256)
+                            : (line * (channel + 1) + column * 2) % 256;
+                }
+            }
+        }
+        return image;
+    }
+
+    private static int[][][] decode(CompressedImage compressed, SparseIDCT sparse) {
+        Decoder decoder = new Decoder("unused.ppm", compressed);
+        decoder.setSparseInverseDCT(sparse);
+        decoder.entropyDecoding();
+        decoder.deQuantization();
+        decoder.inverseDCT();
+        decoder.convertBlocksToMatrices();
+        decoder.convertYUVtoRGB();
+        return new int[][][]{decoder.getR(), decoder.getG(), decoder.getB()};
+    }
+
+    @Test
+    void decodedImagesDoNotDependOnTheSparseInverse() {
+        int[][][] image = image(89, 57, 24);
+        SparseIDCT sparse = new SparseIDCT();
+        for (Subsampling subsampling : Subsampling.values()) {
+            for (int quality : new int[]{1, 20, 50, 80, 100}) {
+                Encoder encoder = new Encoder("unused.ppm");
+                encoder.setImage(image[0], image[1], image[2], image[0][0].length, image[0].length);
+                encoder.convertRGBtoYUV();
+                encoder.setSubsampling(subsampling);
+                encoder.setQuality(quality);
+                encoder.fusedEncoding();
+                CompressedImage compressed = encoder.compress();
+                assertArrayEquals(decode(compressed, null), decode(compressed, sparse), subsampling + ", q" + quality);
+            }
+        }
+        assertTrue(sparse.getDcOnlyBlocks() > 0 && sparse.getLowFrequencyBlocks() > 0 && sparse.getFullBlocks() > 0);
+    }
+}